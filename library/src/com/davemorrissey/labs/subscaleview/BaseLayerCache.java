@@ -0,0 +1,245 @@
+/*
+Copyright 2013-2015 David Morrissey
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.davemorrissey.labs.subscaleview;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide LRU cache of base layers and image metadata, so that returning to an image recently displayed by any
+ * {@link SubsamplingScaleImageView} shows it on the first frame, without waiting for decoder initialisation and the
+ * base layer decode.
+ *
+ * When a view is given a new image or recycled, it moves its complete base layer into the cache. When a view is given
+ * an image with a cached base layer, it takes the entry out of the cache. A bitmap is therefore only ever owned by the
+ * cache or by one view, and the cache recycles bitmaps it evicts. Cached bitmaps are not counted by
+ * {@link TileMemoryManager}, but the cache is cleared when it reports memory pressure.
+ *
+ * Entries are keyed by URI and a fingerprint of the source, together with the decoder and bitmap config choice that
+ * produced the bitmaps. For files the fingerprint is the size and modification time, and for assets and resources it
+ * is the update time of the package. For content URIs it is the modification time and size reported by the provider,
+ * so an edited MediaStore or document provider item is not shown from the cache. Sources with no fingerprint,
+ * including content URIs whose provider doesn't report a modification time, are not cached. Finding a fingerprint
+ * reads the file system or queries a provider, so {@link #fingerprint(Context, Uri)} is called on a worker thread.
+ * All other methods must be called on the UI thread.
+ */
+public final class BaseLayerCache {
+
+    private static BaseLayerCache instance;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    // Maximum bytes of bitmaps to be held by the cache
+    private long maxSize = Runtime.getRuntime().maxMemory() / 8;
+
+    // Total bytes of bitmaps currently held
+    private long size;
+
+    private BaseLayerCache() { }
+
+    /**
+     * Returns the single instance shared by all views in the process.
+     */
+    public static synchronized BaseLayerCache getInstance() {
+        if (instance == null) {
+            instance = new BaseLayerCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Set the maximum total size in bytes of cached base layers. The default is an eighth of the maximum heap size.
+     * Set to zero to disable the cache.
+     * @param maxSize Maximum size in bytes.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Returns the maximum total size in bytes of cached base layers.
+     */
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the total size in bytes of cached base layers.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Remove and recycle all cached base layers.
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Returns the URI of an image combined with a fingerprint of the source, which changes when the source does.
+     * Returns null if the source can't be cached, for example a file that doesn't exist or a URI with no way to detect
+     * changes. This does I/O, so it must not be called on the UI thread.
+     * @param context Application context.
+     * @param uri URI of the image.
+     */
+    public static String fingerprint(Context context, Uri uri) {
+        String uriString = uri.toString();
+        try {
+            if (uriString.startsWith(ScaleImageViewBase.ASSET_SCHEME)) {
+                return uriString + "#" + context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+            } else if (uriString.startsWith(ScaleImageViewBase.FILE_SCHEME)) {
+                File file = new File(uriString.substring(ScaleImageViewBase.FILE_SCHEME.length() - 1));
+                if (!file.isFile()) {
+                    return null;
+                }
+                return uriString + "#" + file.length() + ":" + file.lastModified();
+            } else if (uriString.startsWith(ContentResolver.SCHEME_ANDROID_RESOURCE + "://")) {
+                return uriString + "#" + context.getPackageManager().getPackageInfo(uri.getAuthority(), 0).lastUpdateTime;
+            } else if (uriString.startsWith(ContentResolver.SCHEME_CONTENT + "://")) {
+                return createContentKey(context, uriString, uri);
+            }
+        } catch (Exception e) {
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * Create the fingerprint of a content URI from the modification time and size reported by its provider. MediaStore
+     * reports these as date_modified and _size, and document providers as last_modified and _size. Returns null if
+     * there is no modification time.
+     */
+    private static String createContentKey(Context context, String uriString, Uri uri) {
+        Cursor cursor = context.getContentResolver().query(uri, null, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            int modifiedColumn = cursor.getColumnIndex(MediaStore.MediaColumns.DATE_MODIFIED);
+            if (modifiedColumn < 0) {
+                modifiedColumn = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+            }
+            if (modifiedColumn < 0 || cursor.isNull(modifiedColumn)) {
+                return null;
+            }
+            int sizeColumn = cursor.getColumnIndex(OpenableColumns.SIZE);
+            long size = sizeColumn < 0 || cursor.isNull(sizeColumn) ? -1 : cursor.getLong(sizeColumn);
+            return uriString + "#" + size + ":" + cursor.getLong(modifiedColumn);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Add the base layer of an image to the cache, replacing any existing entry with the same key. The cache takes
+     * ownership of the bitmaps. If the entry is larger than the cache it is recycled immediately.
+     */
+    synchronized void put(String key, Entry entry) {
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            size -= previous.bytes;
+            previous.recycle();
+        }
+        if (entry.bytes > maxSize) {
+            entry.recycle();
+            return;
+        }
+        trimToSize(maxSize - entry.bytes);
+        entries.put(key, entry);
+        size += entry.bytes;
+    }
+
+    /**
+     * Remove an entry from the cache and return it. The caller takes ownership of the bitmaps.
+     */
+    synchronized Entry take(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.bytes;
+        }
+        return entry;
+    }
+
+    /**
+     * Evict least recently used entries until the total size is no more than the given size.
+     */
+    private void trimToSize(long targetSize) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (size > targetSize && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            iterator.remove();
+            size -= entry.bytes;
+            entry.recycle();
+        }
+    }
+
+    /**
+     * A cached base layer with the image metadata needed to display it. The tile rectangles are packed as left, top,
+     * right and bottom in rotated source coordinates, and the bitmaps are already rotated.
+     */
+    static class Entry {
+
+        final int sourceWidth;
+        final int sourceHeight;
+        final int sourceOrientation;
+        final int rotation;
+        final int fullImageSampleSize;
+        final int[] sRects;
+        final Bitmap[] bitmaps;
+        final long bytes;
+
+        Entry(int sourceWidth, int sourceHeight, int sourceOrientation, int rotation, int fullImageSampleSize, int[] sRects, Bitmap[] bitmaps) {
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            this.sourceOrientation = sourceOrientation;
+            this.rotation = rotation;
+            this.fullImageSampleSize = fullImageSampleSize;
+            this.sRects = sRects;
+            this.bitmaps = bitmaps;
+            long bytes = 0;
+            for (Bitmap bitmap : bitmaps) {
+                bytes += TileMemoryManager.byteCount(bitmap);
+            }
+            this.bytes = bytes;
+        }
+
+        void recycle() {
+            for (Bitmap bitmap : bitmaps) {
+                bitmap.recycle();
+            }
+        }
+
+    }
+
+}
@@ -11,7 +11,7 @@ import java.util.List;
  */
 public interface DeprecatedConstants {
     /**
-     * Attempt to use EXIF information on the image to rotate it. Works for external files only.
+     * Attempt to use EXIF information on the image to rotate it. Works for JPEG and TIFF images from any source.
      * @deprecated Use {@link com.davemorrissey.labs.subscaleview.Orientation#EXIF} instead
      */
     @Deprecated
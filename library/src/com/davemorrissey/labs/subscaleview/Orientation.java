@@ -1,7 +1,7 @@
 package com.davemorrissey.labs.subscaleview;
 
 public enum Orientation {
-    /** Attempt to use EXIF information on the image to rotate it. Works for external files only. */
+    /** Attempt to use EXIF information on the image to rotate it. Works for JPEG and TIFF images from any source. */
     EXIF(-1),
     /** Display the image file in its native orientation. */
     DEGREES_0(0),
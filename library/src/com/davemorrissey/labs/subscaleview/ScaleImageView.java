@@ -28,7 +28,10 @@ import android.net.Uri;
 import android.util.AttributeSet;
 
 import com.davemorrissey.labs.subscaleview.R.styleable;
+import com.davemorrissey.labs.subscaleview.decoder.CompatDecoderFactory;
+import com.davemorrissey.labs.subscaleview.decoder.DecoderFactory;
 import com.davemorrissey.labs.subscaleview.decoder.ImageDecoder;
+import com.davemorrissey.labs.subscaleview.decoder.SampledImageDecoder;
 import com.davemorrissey.labs.subscaleview.decoder.SkiaImageDecoder;
 import com.davemorrissey.labs.subscaleview.task.ImageDecoderTask;
 
@@ -39,6 +42,10 @@ import com.davemorrissey.labs.subscaleview.task.ImageDecoderTask;
  * to run out of memory. This is provided to allow display of {@link Bitmap} objects, and images from resources, and to
  * support older Android versions.
  *
+ * Images loaded from a URI with a {@link SampledImageDecoder} are first decoded at the largest sample size that still
+ * covers the view, and decoded again at a lower sample size when the user zooms in far enough to need it, up to the
+ * limit set with {@link #setMaxBitmapBytes(long)}.
+ *
  * v prefixes - coordinates, translations and distances measured in screen (view) pixels
  * s prefixes - coordinates, translations and distances measured in source image pixels (scaled)
  */
@@ -46,8 +53,18 @@ public class ScaleImageView extends ScaleImageViewBase<Bitmap> {
 
     private static final String TAG = ScaleImageView.class.getSimpleName();
 
-    // Image decoder class
-    private Class<? extends ImageDecoder> decoderClass = SkiaImageDecoder.class;
+    // Image decoder factory
+    private DecoderFactory<ImageDecoder> bitmapDecoderFactory = new CompatDecoderFactory<ImageDecoder>(SkiaImageDecoder.class);
+
+    // URI of the image being displayed, null if it was set as a bitmap
+    private Uri uri;
+
+    // Maximum size of the decoded bitmap, assuming four bytes per pixel
+    private long maxBitmapBytes = Runtime.getRuntime().maxMemory() / 8;
+
+    // Whether a decode at a lower sample size is in progress, and the smallest sample size to try after one failed
+    private boolean upgrading;
+    private int minUpgradeSampleSize;
 
     // Volatile fields used to reduce object creation
     private Matrix matrix;
@@ -224,7 +241,8 @@ public class ScaleImageView extends ScaleImageViewBase<Bitmap> {
     public final void setImageUri(Uri uri, ImageViewState state) {
         reset(true);
         if (state != null) { restoreState(state); }
-        ImageDecoderTask task = new ImageDecoderTask(this, getContext(), decoderClass, uri);
+        this.uri = uri;
+        ImageDecoderTask task = new ImageDecoderTask(this, getContext(), bitmapDecoderFactory, uri, 0, maxBitmapBytes);
         task.execute();
         invalidate();
     }
@@ -239,20 +257,47 @@ public class ScaleImageView extends ScaleImageViewBase<Bitmap> {
         if (newImage) {
             setSourceSize(0, 0);
             sourceOrientation = 0;
+            uri = null;
+            upgrading = false;
+            minUpgradeSampleSize = 0;
         }
     }
 
     @Override
     protected void discardImageDataSource() {
-        imageDataSource.recycle();
-        imageDataSource = null;
+        if (imageDataSource != null) {
+            imageDataSource.recycle();
+            imageDataSource = null;
+        }
+    }
+
+    /**
+     * Called when an image has been decoded. If this is a decode of the current image at a lower sample size, the
+     * bitmap is swapped without resetting scale and center. Decodes started for a previous image are discarded by
+     * {@link ImageDecoderTask} before they reach this method.
+     */
+    @Override
+    public void onImageSourceAvailable(Bitmap bitmap, int imageWidth, int imageHeight, int orientation) {
+        if (upgrading && imageDataSource != null && isImageSourceAvailable() &&
+                imageWidth == getSourceWidth() && imageHeight == getSourceHeight() && orientation == sourceOrientation) {
+            upgrading = false;
+            imageDataSource.recycle();
+            imageDataSource = bitmap;
+            invalidate();
+            return;
+        }
+        if (imageDataSource != null && imageDataSource != bitmap) {
+            imageDataSource.recycle();
+        }
+        super.onImageSourceAvailable(bitmap, imageWidth, imageHeight, orientation);
     }
 
     @Override
     protected void drawImageData(Canvas canvas) {
         if (matrix == null) { matrix = new Matrix(); }
         matrix.reset();
-        matrix.postScale(scale, scale);
+        // The bitmap may be subsampled, so scale it up to the source dimensions
+        matrix.postScale(scale * getSourceWidth() / imageDataSource.getWidth(), scale * getSourceHeight() / imageDataSource.getHeight());
         matrix.postRotate(getOrientation());
         matrix.postTranslate(vTranslate.x, vTranslate.y);
 
@@ -274,6 +319,16 @@ public class ScaleImageView extends ScaleImageViewBase<Bitmap> {
         canvas.drawBitmap(imageDataSource, matrix, getBitmapPaint());
     }
 
+    /**
+     * Set the maximum size in bytes of the decoded bitmap, assuming four bytes per pixel. Images that would exceed
+     * this at full resolution are subsampled even at maximum zoom. The default is an eighth of the maximum heap size.
+     * Set to zero for no limit. Applies to images set after this call.
+     * @param maxBitmapBytes Maximum bitmap size in bytes.
+     */
+    public final void setMaxBitmapBytes(long maxBitmapBytes) {
+        this.maxBitmapBytes = maxBitmapBytes;
+    }
+
     /**
      * Swap the default decoder implementation for one of your own. You must do this before setting the image file or
      * asset, and you cannot use a custom decoder when using layout XML to set an asset name. Your class must have a
@@ -284,14 +339,67 @@ public class ScaleImageView extends ScaleImageViewBase<Bitmap> {
         if (decoderClass == null) {
             throw new IllegalArgumentException("Decoder class cannot be set to null");
         }
-        this.decoderClass = decoderClass;
+        this.bitmapDecoderFactory = new CompatDecoderFactory<ImageDecoder>(decoderClass);
+    }
+
+    /**
+     * Supply bitmap decoders from a factory instead of instantiating a class for every decode. Each decoder is
+     * returned to the factory as soon as its bitmap has been decoded, so a
+     * {@link com.davemorrissey.labs.subscaleview.decoder.DecoderPool} can be used to reuse decoders across images.
+     * You must do this before setting the image.
+     * @param bitmapDecoderFactory The factory that creates {@link ImageDecoder} instances.
+     */
+    public final void setBitmapDecoderFactory(DecoderFactory<ImageDecoder> bitmapDecoderFactory) {
+        if (bitmapDecoderFactory == null) {
+            throw new IllegalArgumentException("Decoder factory cannot be set to null");
+        }
+        this.bitmapDecoderFactory = bitmapDecoderFactory;
     }
 
     @Override
     protected void preloadInitialImageData(Canvas canvas) { }
 
+    /**
+     * When the scale settles, decode the image again at a lower sample size if the current bitmap has fewer pixels
+     * than the screen needs.
+     */
     @Override
-    protected void refreshImageData(boolean loadIfNecessary) { }
+    protected void refreshImageData(boolean loadIfNecessary) {
+        if (!loadIfNecessary || upgrading || uri == null || imageDataSource == null || scale <= 0) {
+            return;
+        }
+        int currentSampleSize = Math.max(1, Math.round(getSourceWidth() / (float)imageDataSource.getWidth()));
+        int requiredSampleSize = 1;
+        while (requiredSampleSize * 2 * scale <= 1) {
+            requiredSampleSize *= 2;
+        }
+        while (maxBitmapBytes > 0 && 4L * (getSourceWidth()/requiredSampleSize) * (getSourceHeight()/requiredSampleSize) > maxBitmapBytes) {
+            requiredSampleSize *= 2;
+        }
+        requiredSampleSize = Math.max(requiredSampleSize, minUpgradeSampleSize);
+        if (requiredSampleSize < currentSampleSize) {
+            upgrading = true;
+            ImageDecoderTask task = new ImageDecoderTask(this, getContext(), bitmapDecoderFactory, uri, requiredSampleSize, 0, true);
+            task.execute();
+        }
+    }
+
+    /**
+     * Called when a decode at a lower sample size fails. The current bitmap stays on screen and the listener is not
+     * notified. If the decode ran out of memory it is tried again at double the sample size, if that is still an
+     * improvement; other errors stop upgrades for this image.
+     * @param sampleSize The sample size that failed.
+     * @param e The exception thrown, or null if the decode did not run.
+     */
+    public void onUpgradeFailed(int sampleSize, Exception e) {
+        upgrading = false;
+        if (e != null && e.getCause() instanceof OutOfMemoryError) {
+            minUpgradeSampleSize = sampleSize * 2;
+            refreshImageData(true);
+        } else if (e != null) {
+            minUpgradeSampleSize = Integer.MAX_VALUE;
+        }
+    }
 
     @Override
     protected boolean isInitialImageDataLoaded() {
@@ -6,6 +6,7 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.PointF;
 import android.graphics.Rect;
+import android.os.Build.VERSION;
 import android.os.Handler;
 import android.os.Message;
 import android.support.annotation.NonNull;
@@ -13,10 +14,15 @@ import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.util.FloatMath;
 import android.util.TypedValue;
+import android.view.Choreographer;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
 
+import com.davemorrissey.labs.subscaleview.marker.MarkerLayer;
+
+import java.util.Arrays;
+
 public abstract  class ScaleImageViewBase<ImageDataSource> extends View implements DeprecatedConstants {
 
     public static final String FILE_SCHEME = "file:///";
@@ -28,6 +34,9 @@ public abstract  class ScaleImageViewBase<ImageDataSource> extends View implemen
     private boolean debug = false;
     private boolean imageSourceAvailable;
 
+    // Incremented each time the image is changed or reset, so results of tasks started for an earlier image are dropped
+    private int imageGeneration;
+
     // Source image dimensions and orientation - dimensions relate to the unrotated image
     private int sourceWidth;
     private int sourceHeight;
@@ -92,6 +101,21 @@ public abstract  class ScaleImageViewBase<ImageDataSource> extends View implemen
     // Scale and center animation tracking
     protected Animation animation;
 
+    // Frame clock shared by animations and subclasses. On SDK 16 and above ticks come from the Choreographer, and the
+    // time of the latest frame in milliseconds on the System.nanoTime base drives animations.
+    private boolean frameTickScheduled;
+    private long frameTime;
+    private Object frameCallback;
+    private final Runnable frameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatchFrameTick(System.nanoTime());
+        }
+    };
+
+    // Markers drawn over the image
+    private MarkerLayer markerLayer;
+
     private OnLongClickListener onLongClickListener;
     private ImageSizeDecoderListener imageSizeListener;
 
@@ -100,6 +124,9 @@ public abstract  class ScaleImageViewBase<ImageDataSource> extends View implemen
     private static final int MESSAGE_LONG_CLICK = 1;
 
     private Paint bitmapPaint;
+
+    // Whether bitmaps are drawn without filtering while the image is moving
+    private boolean reducedQualityInMotion;
     private Paint debugPaint;
     private Paint backgroundPaint;
 
@@ -311,6 +338,9 @@ public abstract  class ScaleImageViewBase<ImageDataSource> extends View implemen
 
             @Override
             public boolean onSingleTapConfirmed(MotionEvent e) {
+                if (markerLayer != null && markerLayer.onTap(ScaleImageViewBase.this, e.getX(), e.getY())) {
+                    return true;
+                }
                 performClick();
                 return true;
             }
@@ -853,6 +883,75 @@ public abstract  class ScaleImageViewBase<ImageDataSource> extends View implemen
         return vTarget;
     }
 
+    /**
+     * Convert an array of source coordinates to screen coordinates in place. Points are stored as x, y pairs. No
+     * objects are allocated, so this is suitable for drawing overlays with many points on every frame. Until the image
+     * has been scaled to fit the view, the coordinates are set to NaN.
+     * @param points Source coordinates, replaced with screen coordinates.
+     */
+    public final void sourceToViewPoints(float[] points) {
+        sourceToViewPoints(points, 0, points, 0, points.length / 2);
+    }
+
+    /**
+     * Convert source coordinates to screen coordinates in bulk. Points are stored as x, y pairs. The source and target
+     * can be the same array and offset, in which case the points are converted in place. Until the image has been
+     * scaled to fit the view, the target coordinates are set to NaN.
+     * @param src Array of source coordinates.
+     * @param srcOffset Index of the first source x coordinate.
+     * @param dst Array the screen coordinates are written to.
+     * @param dstOffset Index the first screen x coordinate is written to.
+     * @param pointCount Number of points to convert.
+     */
+    public final void sourceToViewPoints(float[] src, int srcOffset, float[] dst, int dstOffset, int pointCount) {
+        final float scale = this.scale;
+        if (scale == 0) {
+            Arrays.fill(dst, dstOffset, dstOffset + pointCount * 2, Float.NaN);
+            return;
+        }
+        final float translateX = vTranslate.x;
+        final float translateY = vTranslate.y;
+        final int end = srcOffset + pointCount * 2;
+        for (int s = srcOffset, d = dstOffset; s < end; s += 2, d += 2) {
+            dst[d] = src[s] * scale + translateX;
+            dst[d + 1] = src[s + 1] * scale + translateY;
+        }
+    }
+
+    /**
+     * Convert an array of screen coordinates to source coordinates in place. Points are stored as x, y pairs. Until
+     * the image has been scaled to fit the view, the coordinates are set to NaN.
+     * @param points Screen coordinates, replaced with source coordinates.
+     */
+    public final void viewToSourcePoints(float[] points) {
+        viewToSourcePoints(points, 0, points, 0, points.length / 2);
+    }
+
+    /**
+     * Convert screen coordinates to source coordinates in bulk. Points are stored as x, y pairs. The source and target
+     * can be the same array and offset, in which case the points are converted in place. Until the image has been
+     * scaled to fit the view, the target coordinates are set to NaN.
+     * @param src Array of screen coordinates.
+     * @param srcOffset Index of the first screen x coordinate.
+     * @param dst Array the source coordinates are written to.
+     * @param dstOffset Index the first source x coordinate is written to.
+     * @param pointCount Number of points to convert.
+     */
+    public final void viewToSourcePoints(float[] src, int srcOffset, float[] dst, int dstOffset, int pointCount) {
+        final float scale = this.scale;
+        if (scale == 0) {
+            Arrays.fill(dst, dstOffset, dstOffset + pointCount * 2, Float.NaN);
+            return;
+        }
+        final float translateX = vTranslate.x;
+        final float translateY = vTranslate.y;
+        final int end = srcOffset + pointCount * 2;
+        for (int s = srcOffset, d = dstOffset; s < end; s += 2, d += 2) {
+            dst[d] = (src[s] - translateX) / scale;
+            dst[d + 1] = (src[s + 1] - translateY) / scale;
+        }
+    }
+
     /**
      * Convert source rect to screen rect, integer values.
      */
@@ -924,6 +1023,7 @@ public abstract  class ScaleImageViewBase<ImageDataSource> extends View implemen
             setSourceSize(0, 0);
             sourceOrientation = 0;
             imageSourceAvailable = false;
+            imageGeneration++;
             discardImageDataSource();
             imageDataSource = null;
         }
@@ -965,11 +1065,22 @@ public abstract  class ScaleImageViewBase<ImageDataSource> extends View implemen
             return;
         }
         if (!isInitialImageDataLoaded()) {
+            // Initial image data may be available immediately, for example from a cache, so it can be drawn now
             preloadInitialImageData(canvas);
-            return;
+            if (!isInitialImageDataLoaded()) {
+                return;
+            }
         }
         updateAnimation();
+        if (reducedQualityInMotion) {
+            boolean atRest = !isInMotion();
+            bitmapPaint.setFilterBitmap(atRest);
+            bitmapPaint.setDither(atRest);
+        }
         drawImageData(canvas);
+        if (markerLayer != null) {
+            markerLayer.draw(canvas, this);
+        }
         if (debug) {
             drawDebugInformation(canvas);
         }
@@ -997,8 +1108,13 @@ public abstract  class ScaleImageViewBase<ImageDataSource> extends View implemen
     protected void updateAnimation() {
         // If animating scale, calculate current scale and center with easing equations
         if (animation != null) {
-            long scaleElapsed = System.currentTimeMillis() - animation.time;
-            boolean finished = scaleElapsed > animation.duration;
+            if (VERSION.SDK_INT >= 16) {
+                // Restart the ticks if they stopped while the view was hidden or detached
+                requestFrameTick();
+            }
+            long now = VERSION.SDK_INT >= 16 ? frameTime : frameClock();
+            long scaleElapsed = Math.max(0, now - animation.time);
+            boolean finished = scaleElapsed >= animation.duration;
             scaleElapsed = Math.min(scaleElapsed, animation.duration);
             scale = ease(animation.easing, scaleElapsed, animation.scaleStart, animation.scaleEnd - animation.scaleStart, animation.duration);
 
@@ -1015,10 +1131,87 @@ public abstract  class ScaleImageViewBase<ImageDataSource> extends View implemen
             if (finished) {
                 animation = null;
             }
+            if (VERSION.SDK_INT < 16) {
+                invalidate();
+            }
+        }
+    }
+
+    /**
+     * Returns the current time on the frame clock's base, in milliseconds.
+     */
+    private static long frameClock() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Request a call to {@link #onFrameTick(long)} on the next frame, unless one is already pending. While an animation
+     * is running the view requests a tick every frame, and subclasses can share these ticks for other per frame work.
+     * Before SDK 16 the tick is posted to the UI thread instead.
+     */
+    protected final void requestFrameTick() {
+        if (frameTickScheduled) {
+            return;
+        }
+        frameTickScheduled = true;
+        if (VERSION.SDK_INT >= 16) {
+            if (frameCallback == null) {
+                frameCallback = new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        dispatchFrameTick(frameTimeNanos);
+                    }
+                };
+            }
+            Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback)frameCallback);
+        } else {
+            post(frameRunnable);
+        }
+    }
+
+    private void dispatchFrameTick(long frameTimeNanos) {
+        frameTickScheduled = false;
+        frameTime = frameTimeNanos / 1000000;
+        if (animation != null) {
+            // Advance the animation to this frame's timestamp when it is drawn. Ticks stop while the view can't be
+            // drawn, and the next draw restarts them.
             invalidate();
+            if (VERSION.SDK_INT >= 16 && getWindowToken() != null && isShown()) {
+                requestFrameTick();
+            }
         }
+        onFrameTick(frameTimeNanos);
     }
 
+    /**
+     * Remove a pending frame tick, so the Choreographer or the view's queue does not hold the view once it is detached.
+     */
+    private void cancelFrameTick() {
+        if (!frameTickScheduled) {
+            return;
+        }
+        frameTickScheduled = false;
+        if (VERSION.SDK_INT >= 16) {
+            Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback)frameCallback);
+        } else {
+            removeCallbacks(frameRunnable);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        cancelFrameTick();
+    }
+
+    /**
+     * Called on the UI thread for each frame tick requested with {@link #requestFrameTick()}, and for every frame
+     * while an animation runs. Subclasses can override this to do per frame work, such as adding loaded tiles, in step
+     * with animations.
+     * @param frameTimeNanos Time the frame started, on the System.nanoTime base.
+     */
+    protected void onFrameTick(long frameTimeNanos) { }
+
     protected abstract void drawImageData(Canvas canvas);
 
     protected void drawDebugInformation(Canvas canvas) {
@@ -1267,6 +1460,10 @@ public abstract  class ScaleImageViewBase<ImageDataSource> extends View implemen
                     }
                     // load of more image data
                     refreshImageData(true);
+                    if (!isInMotion()) {
+                        // Redraw at full quality now the image is at rest, in case quality was reduced while moving
+                        invalidate();
+                    }
                     return true;
                 }
                 if (touchCount == 1) {
@@ -1279,10 +1476,54 @@ public abstract  class ScaleImageViewBase<ImageDataSource> extends View implemen
         return super.onTouchEvent(event);
     }
 
+    /**
+     * Set a layer of markers to draw over the image. Taps on markers are reported to the layer's listener instead of
+     * the view's click listener.
+     * @param markerLayer Marker layer, or null to remove the current layer.
+     */
+    public final void setMarkerLayer(MarkerLayer markerLayer) {
+        this.markerLayer = markerLayer;
+        invalidate();
+    }
+
+    public final MarkerLayer getMarkerLayer() {
+        return markerLayer;
+    }
+
+    /**
+     * Returns true while the image is being panned or zoomed by touch, or is animating.
+     */
+    protected boolean isInMotion() {
+        return isZooming || isPanning || isQuickScaling || animation != null;
+    }
+
+    /**
+     * Draw bitmaps without filtering or dithering while the image is being panned, zoomed or animated, and with full
+     * quality once it comes to rest. Filtering large tiles is a significant part of the cost of each frame on low end
+     * devices, and the difference is hard to see while the image is moving. Disabled by default.
+     * @param reducedQualityInMotion true to reduce drawing quality while the image moves.
+     */
+    public final void setReducedQualityInMotion(boolean reducedQualityInMotion) {
+        this.reducedQualityInMotion = reducedQualityInMotion;
+        if (!reducedQualityInMotion && bitmapPaint != null) {
+            bitmapPaint.setFilterBitmap(true);
+            bitmapPaint.setDither(true);
+        }
+        invalidate();
+    }
+
     protected boolean isImageSourceAvailable() {
         return imageSourceAvailable;
     }
 
+    /**
+     * Returns a number that changes each time the image is changed or reset. Tasks loading image data record it when
+     * they are started, and discard their results if it has changed by the time they finish.
+     */
+    public final int getImageGeneration() {
+        return imageGeneration;
+    }
+
     /**
      * Subclasses can override this method to be informed when the view is set up and ready for rendering, so they can
      * skip their own rendering until the base layer (and its scale and translate) are known.
@@ -1300,6 +1541,15 @@ public abstract  class ScaleImageViewBase<ImageDataSource> extends View implemen
         this.scale = 0f;
     }
 
+    /**
+     * Called on the UI thread with the fingerprint of the source found by an
+     * {@link com.davemorrissey.labs.subscaleview.task.ImageRegionDecoderTask} that was asked for one, before the
+     * decoder is initialised. See {@link BaseLayerCache#fingerprint(android.content.Context, android.net.Uri)}. Does
+     * nothing by default.
+     * @param fingerprint The source URI and its fingerprint.
+     */
+    public void onSourceFingerprintAvailable(String fingerprint) { }
+
     public void onImageSourceAvailable(ImageDataSource imageDataSource, int imageWidth, int imageHeight, int orientation) {
         this.imageDataSource = imageDataSource;
         this.sourceOrientation = orientation;
@@ -1515,7 +1765,6 @@ public abstract  class ScaleImageViewBase<ImageDataSource> extends View implemen
             animation = new Animation();
             animation.scaleStart = scale;
             animation.scaleEnd = targetScale;
-            animation.time = System.currentTimeMillis();
             animation.sCenterEndRequested = targetSCenter;
             animation.sCenterStart = getCenter();
             animation.sCenterEnd = targetSCenter;
@@ -1527,7 +1776,7 @@ public abstract  class ScaleImageViewBase<ImageDataSource> extends View implemen
             animation.duration = duration;
             animation.interruptible = interruptible;
             animation.easing = easing;
-            animation.time = System.currentTimeMillis();
+            animation.time = frameClock();
 
             if (vFocus != null) {
                 // Calculate where translation will be at the end of the anim
@@ -1543,6 +1792,7 @@ public abstract  class ScaleImageViewBase<ImageDataSource> extends View implemen
                 );
             }
 
+            requestFrameTick();
             invalidate();
         }
     }
@@ -1559,7 +1809,7 @@ public abstract  class ScaleImageViewBase<ImageDataSource> extends View implemen
         public long duration = 500; // How long the anim takes
         public boolean interruptible = true; // Whether the anim can be interrupted by a touch
         public int easing = EASE_IN_OUT_QUAD; // Easing style
-        public long time = System.currentTimeMillis(); // Start time
+        public long time = System.nanoTime() / 1000000; // Start time, on the frame clock
 
     }
 
@@ -26,23 +26,35 @@ import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Point;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Build.VERSION;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.MotionEvent;
 
 import com.davemorrissey.labs.subscaleview.R.styleable;
+import com.davemorrissey.labs.subscaleview.decoder.CompatDecoderFactory;
+import com.davemorrissey.labs.subscaleview.decoder.ConcurrentImageRegionDecoder;
+import com.davemorrissey.labs.subscaleview.decoder.DecoderFactory;
 import com.davemorrissey.labs.subscaleview.decoder.ImageRegionDecoder;
+import com.davemorrissey.labs.subscaleview.decoder.Placeholder;
+import com.davemorrissey.labs.subscaleview.decoder.PlaceholderProvider;
 import com.davemorrissey.labs.subscaleview.decoder.SkiaImageRegionDecoder;
+import com.davemorrissey.labs.subscaleview.decoder.TileSource;
+import com.davemorrissey.labs.subscaleview.decoder.TileSourceRegionDecoder;
 import com.davemorrissey.labs.subscaleview.task.ImageRegionDecoderTask;
+import com.davemorrissey.labs.subscaleview.task.PlaceholderTask;
+import com.davemorrissey.labs.subscaleview.task.TileExecutor;
 
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Displays an image subsampled as necessary to avoid loading too much image data into memory. After a pinch to zoom in,
@@ -50,6 +62,8 @@ import java.util.Map;
  * zoom, tiles off screen or higher/lower resolution than required are discarded from memory.
  *
  * Tiles are no larger than the max supported bitmap size, so with large images tiling may be used even when zoomed out.
+ * By default the tile grid is derived from the view size. Use {@link #setTileSize(int)} to use a fixed size grid
+ * instead, which decodes in smaller steps and doesn't change when the view is resized.
  *
  * v prefixes - coordinates, translations and distances measured in screen (view) pixels
  * s prefixes - coordinates, translations and distances measured in source image pixels (scaled)
@@ -58,21 +72,115 @@ public class SubsamplingScaleImageView extends ScaleImageViewBase<ImageRegionDec
 
     private static final String TAG = SubsamplingScaleImageView.class.getSimpleName();
 
+    // Scheme of the URIs given to images from tile sources, which are never opened
+    private static final String TILE_SOURCE_SCHEME = "tilesource";
+
+    // Time without a refresh after which unused higher resolution tile grids are released
+    private static final long LEVEL_RELEASE_DELAY = 30000;
+
+    // Number of values stored in the level plan for each level
+    private static final int LEVEL_PLAN_STRIDE = 6;
+
+    // Scale applied to bitmaps decoded for intermediate levels, giving 1.5 times the decoded sample size
+    private static final float INTERMEDIATE_LEVEL_SCALE = 2f/3f;
+
+    /** Tile size used to derive the tile grid from the view size. This is the default. */
+    public static final int TILE_SIZE_AUTO = 0;
+
     // Density to reach before loading higher resolution tiles
     private int minimumTileDpi = -1;
 
+    // Fixed width and height of tile bitmaps, or TILE_SIZE_AUTO
+    private int tileSize = TILE_SIZE_AUTO;
+
+    // Whether to add levels between power of two sample sizes
+    private boolean intermediateLevels = false;
+
+    // Fraction the scale must move past a level boundary before the displayed level changes
+    private float levelHysteresis = 0.1f;
+
+    // Level currently displayed, or -1 before the first refresh
+    private int displayedLevel = -1;
+
+    // Level the scale has crossed into without the displayed level changing, or -1
+    private int heldLevel = -1;
+
+    // Number of times the displayed level has changed, and the number of boundary crossings that did not change it
+    private int levelChangeCount;
+    private int preventedLevelChangeCount;
+
     // Tile decoder
-    private Class<? extends ImageRegionDecoder> decoderClass = SkiaImageRegionDecoder.class;
-    private final Object decoderLock = new Object();
+    private DecoderFactory<ImageRegionDecoder> regionDecoderFactory = new CompatDecoderFactory<ImageRegionDecoder>(SkiaImageRegionDecoder.class);
+    // Factory that created the current decoder, which it is released to
+    private DecoderFactory<ImageRegionDecoder> imageDataSourceFactory = regionDecoderFactory;
+    // Whether a coarser level that is already loaded is drawn while the image is moving
+    private boolean coarseTilesInMotion;
+
+    // Tiles loaded by worker threads, handed to their grids together once per frame
+    private final ConcurrentLinkedQueue<LoadedTile> loadedTiles = new ConcurrentLinkedQueue<LoadedTile>();
+    private boolean tileHandoffScheduled;
+    private int maxTileUploadsPerFrame = 0;
+    // Held for reading while a concurrent decoder decodes a tile, and for writing by other decoders and on recycle
+    private final ReentrantReadWriteLock decoderLock = new ReentrantReadWriteLock();
 
     // Sample size used to display the whole image when fully zoomed out
     private int fullImageSampleSize;
 
-    // Map of zoom level to tile grid
-    private Map<Integer, List<Tile>> tileMap;
+    // Tile grid of each sample size, from the base layer down to sample size 1. Grids other than the base layer are
+    // created when first needed, and are null until then or after being released.
+    private TileGrid[] tileGrids;
+
+    // Decoded sample size, intermediate flag, number of columns and rows and source tile width and height of each
+    // level's grid
+    private int[] levelPlan;
+
+    // Releases unused tile grids after a period without refreshes. Refreshes only record their time; a single posted
+    // runnable reposts itself until the delay has passed since the last one, so moving the image doesn't post a
+    // message every frame.
+    private long lastRefreshTime;
+    private boolean levelReleaseScheduled;
+    private final Runnable levelRelease = new Runnable() {
+        @Override
+        public void run() {
+            long remaining = lastRefreshTime + LEVEL_RELEASE_DELAY - SystemClock.uptimeMillis();
+            if (remaining > 0) {
+                postDelayed(this, remaining);
+            } else {
+                levelReleaseScheduled = false;
+                releaseUnusedLevels();
+            }
+        }
+    };
+
+    // Rectangles updated before use to avoid allocation while drawing
+    private final Rect sTileRect = new Rect();
+    private final Rect vTileRect = new Rect();
 
     // Whether a base layer loaded notification has been sent to subclasses
     private boolean baseLayerReadySent = false;
+
+    // Whether the base layer has been replaced with a downsampled copy under memory pressure
+    private boolean baseLayerDownsampled = false;
+
+    // Whether tiles released under memory pressure should be reloaded on the next draw
+    private boolean reloadTilesOnDraw = false;
+
+    // Identity of the decoder for the current image and the source fingerprint found on a worker, which with the
+    // memory state the base layer was decoded in make its cache key, and a cached base layer waiting for the tile map
+    // to be created
+    private String baseLayerDecoderKey;
+    private String baseLayerFingerprint;
+    private boolean baseLayerConstrained;
+    private BaseLayerCache.Entry cachedBaseLayer;
+
+    // Providers consulted for a placeholder, the URI a placeholder is awaited for, and the placeholder displayed until
+    // the base layer is ready. There are none by default, as each provider reads the source again.
+    private PlaceholderProvider[] placeholderProviders = {};
+    private Uri placeholderUri;
+    private Placeholder placeholder;
+    private final Matrix placeholderMatrix = new Matrix();
+    private final RectF placeholderRect = new RectF();
+
     private TileImageLoaderListener tileLoaderListener;
 
     public SubsamplingScaleImageView(Context context, AttributeSet attr) {
@@ -101,6 +209,9 @@ public class SubsamplingScaleImageView extends ScaleImageViewBase<ImageRegionDec
             if (typedAttr.hasValue(styleable.SubsamplingScaleImageView_tileBackgroundColor)) {
                 setTileBackgroundColor(typedAttr.getColor(styleable.SubsamplingScaleImageView_tileBackgroundColor, Color.argb(0, 0, 0, 0)));
             }
+            if (typedAttr.hasValue(styleable.SubsamplingScaleImageView_tileSize)) {
+                setTileSize(typedAttr.getInt(styleable.SubsamplingScaleImageView_tileSize, TILE_SIZE_AUTO));
+            }
             typedAttr.recycle();
         }
     }
@@ -243,49 +354,300 @@ public class SubsamplingScaleImageView extends ScaleImageViewBase<ImageRegionDec
      * @param state State to be restored. Nullable.
      */
     public final void setImageUri(Uri uri, ImageViewState state) {
+        setImage(uri, state, regionDecoderFactory, true);
+    }
+
+    /**
+     * Display an image whose tiles are computed by a {@link TileSource} rather than decoded. Tiles are rendered in
+     * parallel, and cached and released like the tiles of any other image. The source is recycled when the image is
+     * changed or the view is recycled.
+     * @param tileSource source of the image's tiles.
+     */
+    public final void setTileSource(TileSource tileSource) {
+        setTileSource(tileSource, null);
+    }
+
+    /**
+     * Display an image whose tiles are computed by a {@link TileSource}, starting with a given orientation setting,
+     * scale and center.
+     * @param tileSource source of the image's tiles.
+     * @param state State to be restored. Nullable.
+     */
+    public final void setTileSource(final TileSource tileSource, ImageViewState state) {
+        if (tileSource == null) {
+            throw new IllegalArgumentException("Tile source cannot be null");
+        }
+        DecoderFactory<ImageRegionDecoder> factory = new DecoderFactory<ImageRegionDecoder>() {
+            @Override
+            public ImageRegionDecoder make() {
+                return new TileSourceRegionDecoder(tileSource);
+            }
+            @Override
+            public void release(ImageRegionDecoder decoder) { }
+        };
+        setImage(Uri.parse(TILE_SOURCE_SCHEME + "://" + System.identityHashCode(tileSource)), state, factory, false);
+    }
+
+    /**
+     * Start loading an image with the given decoder factory. Computed images have nothing to find a placeholder in,
+     * and no stable identity to cache their base layer under.
+     */
+    private void setImage(Uri uri, ImageViewState state, DecoderFactory<ImageRegionDecoder> factory, boolean decoded) {
         reset(true);
+        TileMemoryManager.getInstance().onInteraction(this);
         if (state != null) { restoreState(state); }
-        ImageRegionDecoderTask task = new ImageRegionDecoderTask(this, getContext(), decoderClass, uri);
+        imageDataSourceFactory = factory;
+
+        // The decoder task finds the source fingerprint first, so a cached base layer can be displayed before the
+        // decoder is initialised. See onSourceFingerprintAvailable.
+        baseLayerDecoderKey = decoded ? decoderKey(factory) : null;
+
+        // Look for a placeholder to display while the decoder is initialised and the base layer decoded
+        if (decoded && placeholderProviders.length > 0) {
+            placeholderUri = uri;
+            PlaceholderTask placeholderTask = new PlaceholderTask(this, getContext(), placeholderProviders, uri);
+            if (VERSION.SDK_INT >= 11) {
+                placeholderTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            } else {
+                placeholderTask.execute();
+            }
+        }
+
+        ImageRegionDecoderTask task = new ImageRegionDecoderTask(this, getContext(), factory, uri, decoded);
         task.execute();
         invalidate();
     }
 
+    /**
+     * Identify the decoders a factory makes, so base layers are only reused by views with the same decoder.
+     */
+    private static String decoderKey(DecoderFactory<ImageRegionDecoder> factory) {
+        if (factory instanceof CompatDecoderFactory) {
+            return ((CompatDecoderFactory<ImageRegionDecoder>)factory).getDecoderClass().getName();
+        }
+        return factory.getClass().getName();
+    }
+
+    /**
+     * Returns the base layer cache key for the current image. The memory state is included because it decides the
+     * bitmap config decoders choose for subsampled levels.
+     */
+    private String baseLayerCacheKey(boolean constrained) {
+        return baseLayerFingerprint + "|" + baseLayerDecoderKey + "|" + (constrained ? "constrained" : "unconstrained");
+    }
+
+    /**
+     * If the base layer of the source is cached, display it immediately. The decoder is still needed for higher
+     * resolution tiles, and is attached when it is ready.
+     */
+    @Override
+    public void onSourceFingerprintAvailable(String fingerprint) {
+        if (baseLayerDecoderKey == null || isImageSourceAvailable()) {
+            return;
+        }
+        baseLayerFingerprint = fingerprint;
+        baseLayerConstrained = TileMemoryManager.getInstance().isMemoryConstrained();
+        cachedBaseLayer = BaseLayerCache.getInstance().take(baseLayerCacheKey(baseLayerConstrained));
+        if (cachedBaseLayer != null) {
+            placeholderUri = null;
+            discardPlaceholder();
+            onImageSourceAvailable(null, cachedBaseLayer.sourceWidth, cachedBaseLayer.sourceHeight, cachedBaseLayer.sourceOrientation);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        // The next refresh after the view is attached again schedules the release
+        removeCallbacks(levelRelease);
+        levelReleaseScheduled = false;
+    }
+
     /**
      * Reset all state before setting/changing image or setting new rotation.
      */
     protected void reset(boolean newImage) {
+        if (newImage) {
+            cacheBaseLayer();
+        }
         super.reset(newImage);
         fullImageSampleSize = 0;
+        displayedLevel = -1;
+        heldLevel = -1;
+        baseLayerDownsampled = false;
+        reloadTilesOnDraw = false;
         if (newImage) {
             baseLayerReadySent = false;
+            levelChangeCount = 0;
+            preventedLevelChangeCount = 0;
         }
-        if (tileMap != null) {
-            for (Map.Entry<Integer, List<Tile>> tileMapEntry : tileMap.entrySet()) {
-                for (Tile tile : tileMapEntry.getValue()) {
-                    tile.visible = false;
-                    if (tile.bitmap != null) {
-                        tile.bitmap.recycle();
-                        tile.bitmap = null;
-                    }
+        if (tileGrids != null) {
+            for (TileGrid grid : tileGrids) {
+                if (grid == null) {
+                    continue;
                 }
+                for (int i = 0; i < grid.count; i++) {
+                    grid.setVisible(i, false);
+                    recycleTileBitmap(grid, i);
+                }
+            }
+            tileGrids = null;
+            levelPlan = null;
+            removeCallbacks(levelRelease);
+            levelReleaseScheduled = false;
+        }
+        if (newImage) {
+            TileMemoryManager.getInstance().unregister(this);
+            baseLayerDecoderKey = null;
+            baseLayerFingerprint = null;
+            placeholderUri = null;
+            discardPlaceholder();
+            if (cachedBaseLayer != null) {
+                cachedBaseLayer.recycle();
+                cachedBaseLayer = null;
             }
-            tileMap = null;
+        }
+    }
+
+    /**
+     * Moves a complete, full quality base layer into the shared {@link BaseLayerCache} so it can be displayed
+     * immediately if this image is shown again.
+     */
+    private void cacheBaseLayer() {
+        if (tileGrids == null || baseLayerFingerprint == null || !baseLayerReadySent || baseLayerDownsampled) {
+            return;
+        }
+        TileGrid baseGrid = tileGrids[0];
+        int[] sRects = new int[baseGrid.count * 4];
+        Bitmap[] bitmaps = new Bitmap[baseGrid.count];
+        for (int i = 0; i < baseGrid.count; i++) {
+            if (!baseGrid.isLoaded(i)) {
+                return;
+            }
+            sRects[i * 4] = baseGrid.left(i);
+            sRects[i * 4 + 1] = baseGrid.top(i);
+            sRects[i * 4 + 2] = baseGrid.right(i);
+            sRects[i * 4 + 3] = baseGrid.bottom(i);
+            bitmaps[i] = baseGrid.getBitmap(i);
+        }
+        for (int i = 0; i < baseGrid.count; i++) {
+            TileMemoryManager.getInstance().onTileRecycled(this, baseGrid.getBitmap(i));
+            baseGrid.setBitmap(i, null);
+        }
+        BaseLayerCache.getInstance().put(baseLayerCacheKey(baseLayerConstrained), new BaseLayerCache.Entry(
+            getSourceWidth(), getSourceHeight(), sourceOrientation, getRequiredRotation(), fullImageSampleSize, sRects, bitmaps
+        ));
+    }
+
+    /**
+     * When the base layer was taken from the cache, the decoder arrives after the image has been displayed. In that
+     * case the decoder is attached without resetting scale and center, and higher resolution tiles can be loaded.
+     */
+    @Override
+    public void onImageSourceAvailable(ImageRegionDecoder decoder, int imageWidth, int imageHeight, int orientation) {
+        if (decoder != null && imageDataSource == null && isImageSourceAvailable() &&
+                imageWidth == getSourceWidth() && imageHeight == getSourceHeight() && orientation == sourceOrientation) {
+            imageDataSource = decoder;
+            refreshImageData(true);
+            invalidate();
+            return;
+        }
+        super.onImageSourceAvailable(decoder, imageWidth, imageHeight, orientation);
+    }
+
+    /**
+     * Records user interaction with the shared {@link TileMemoryManager} so this view is the last to have its tiles
+     * released, then handles the event.
+     */
+    @Override
+    public boolean onTouchEvent(@NonNull MotionEvent event) {
+        TileMemoryManager.getInstance().onInteraction(this);
+        return super.onTouchEvent(event);
+    }
+
+    /**
+     * Draws the image, or while the image dimensions are not yet known, the placeholder if there is one.
+     */
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (placeholder != null && tileGrids == null && getWidth() > 0 && getHeight() > 0) {
+            drawPlaceholder(canvas);
+        }
+    }
+
+    /**
+     * Called by the placeholder task when a placeholder has been found. It is displayed unless the image has changed
+     * or the base layer is already complete.
+     * @param uri The image URI the placeholder was requested for.
+     * @param placeholder The placeholder.
+     */
+    public void onPlaceholderAvailable(Uri uri, Placeholder placeholder) {
+        if (uri != placeholderUri || baseLayerReadySent) {
+            placeholder.recycle();
+            return;
+        }
+        discardPlaceholder();
+        this.placeholder = placeholder;
+        invalidate();
+    }
+
+    /**
+     * Draw the placeholder stretched over the image's position in the view, or before the image dimensions are known,
+     * centered to fit the view.
+     */
+    private void drawPlaceholder(Canvas canvas) {
+        Bitmap bitmap = placeholder.getBitmap();
+        if (bitmap.isRecycled()) {
+            return;
+        }
+        int rotation = getRequiredRotation();
+        if (!isImageSourceAvailable() && orientation == Orientation.EXIF) {
+            rotation = placeholder.getOrientation();
+        }
+        placeholderMatrix.setRotate(rotation);
+        placeholderRect.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        placeholderMatrix.mapRect(placeholderRect);
+        placeholderMatrix.postTranslate(-placeholderRect.left, -placeholderRect.top);
+        float width = placeholderRect.width();
+        float height = placeholderRect.height();
+        if (tileGrids != null) {
+            float left = sourceToViewX(0);
+            float top = sourceToViewY(0);
+            placeholderMatrix.postScale((sourceToViewX(rotatedSourceWidth()) - left) / width, (sourceToViewY(rotatedSourceHeight()) - top) / height);
+            placeholderMatrix.postTranslate(left, top);
+        } else {
+            float fit = Math.min(getWidth() / width, getHeight() / height);
+            placeholderMatrix.postScale(fit, fit);
+            placeholderMatrix.postTranslate((getWidth() - width * fit) / 2, (getHeight() - height * fit) / 2);
+        }
+        canvas.drawBitmap(bitmap, placeholderMatrix, getBitmapPaint());
+    }
+
+    private void discardPlaceholder() {
+        if (placeholder != null) {
+            placeholder.recycle();
+            placeholder = null;
         }
     }
 
     @Override
     protected void discardImageDataSource() {
         if (imageDataSource != null) {
-            synchronized (decoderLock) {
+            decoderLock.writeLock().lock();
+            try {
                 imageDataSource.recycle();
-                imageDataSource = null;
+            } finally {
+                decoderLock.writeLock().unlock();
             }
+            imageDataSourceFactory.release(imageDataSource);
+            imageDataSource = null;
         }
     }
 
     @Override
     protected boolean isInitialImageDataLoaded() {
-        return tileMap != null;
+        return tileGrids != null;
     }
 
     @Override
@@ -295,49 +657,110 @@ public class SubsamplingScaleImageView extends ScaleImageViewBase<ImageRegionDec
 
     @Override
     protected void drawImageData(Canvas canvas) {
-        // Optimum sample size for current scale
-        int sampleSize = Math.min(fullImageSampleSize, calculateInSampleSize());
+        // Reload tiles released under memory pressure once it has passed
+        if (reloadTilesOnDraw) {
+            reloadTilesOnDraw = false;
+            refreshImageData(true);
+        }
 
-        // First check for missing tiles - if there are any we need the base layer underneath to avoid gaps
+        // Optimum level for current scale. While the image is moving a coarser level can be drawn instead.
+        int level = currentLevel();
+        if (coarseTilesInMotion && isInMotion()) {
+            level = coarserLoadedLevel(level);
+        }
+
+        // First check for missing tiles - if there are any we need the base layer underneath to avoid gaps. Base layer
+        // tiles may also be missing if they were released while the view was off screen, so reload them now.
         boolean hasMissingTiles = false;
-        for (Map.Entry<Integer, List<Tile>> tileMapEntry : tileMap.entrySet()) {
-            if (tileMapEntry.getKey() == sampleSize) {
-                for (Tile tile : tileMapEntry.getValue()) {
-                    if (tile.visible && (tile.loading || tile.bitmap == null)) {
-                        hasMissingTiles = true;
-                    }
+        TileGrid grid = tileGrid(level);
+        for (int i = 0; i < grid.count; i++) {
+            if (grid.isVisible(i) && !grid.hasBitmap(i)) {
+                hasMissingTiles = true;
+                break;
+            }
+        }
+        if (imageDataSource != null) {
+            TileGrid baseGrid = tileGrids[0];
+            for (int i = 0; i < baseGrid.count; i++) {
+                if (baseGrid.isMissing(i)) {
+                    loadTile(baseGrid, i);
                 }
             }
         }
 
-        // Render all loaded tiles. LinkedHashMap used for bottom up rendering - lower res tiles underneath.
+        // Until the base layer is complete, the placeholder fills the gaps
+        if (placeholder != null) {
+            drawPlaceholder(canvas);
+        }
+
+        // Render all loaded tiles that are on screen. Grids are ordered for bottom up rendering - lower res tiles
+        // underneath. View rects are cached by the grids until the scale or translation changes.
         final boolean debugEnabled = isDebugEnabled();
         final Paint debugPaint = getDebugPaint();
         final Paint backgroundPaint = getBackgroundPaint();
         final Paint bitmapPaint = getBitmapPaint();
-        for (Map.Entry<Integer, List<Tile>> tileMapEntry : tileMap.entrySet()) {
-            if (tileMapEntry.getKey() == sampleSize || hasMissingTiles) {
-                for (Tile tile : tileMapEntry.getValue()) {
-                    sourceToViewRect(tile.sRect, tile.vRect);
-                    if (!tile.loading && tile.bitmap != null) {
+        final int width = getWidth();
+        final int height = getHeight();
+        for (int l = 0; l < tileGrids.length; l++) {
+            TileGrid tileGrid = tileGrids[l];
+            if (tileGrid != null && (l == level || hasMissingTiles)) {
+                tileGrid.updateViewRects(scale, vTranslate.x, vTranslate.y);
+                for (int i = 0; i < tileGrid.count; i++) {
+                    if (!tileGrid.isInView(i, width, height)) {
+                        continue;
+                    }
+                    tileGrid.getViewRect(i, vTileRect);
+                    if (tileGrid.hasBitmap(i)) {
                         if (backgroundPaint != null) {
-                            canvas.drawRect(tile.vRect, backgroundPaint);
+                            canvas.drawRect(vTileRect, backgroundPaint);
                         }
-                        canvas.drawBitmap(tile.bitmap, null, tile.vRect, bitmapPaint);
+                        canvas.drawBitmap(tileGrid.getBitmap(i), null, vTileRect, bitmapPaint);
                         if (debugEnabled) {
-                            canvas.drawRect(tile.vRect, debugPaint);
+                            canvas.drawRect(vTileRect, debugPaint);
                         }
-                    } else if (tile.loading && debugEnabled) {
-                        canvas.drawText("LOADING", tile.vRect.left + 5, tile.vRect.top + 35, debugPaint);
                     }
-                    if (tile.visible && debugEnabled) {
-                        canvas.drawText("ISS " + tile.sampleSize + " RECT " + tile.sRect.top + "," + tile.sRect.left + "," + tile.sRect.bottom + "," + tile.sRect.right, tile.vRect.left + 5, tile.vRect.top + 15, debugPaint);
+                    if (tileGrid.isLoading(i) && debugEnabled) {
+                        canvas.drawText("LOADING", vTileRect.left + 5, vTileRect.top + 35, debugPaint);
+                    }
+                    if (tileGrid.isVisible(i) && debugEnabled) {
+                        tileGrid.getRect(i, sTileRect);
+                        canvas.drawText("ISS " + tileGrid.sampleSize / tileGrid.bitmapScale + " RECT " + sTileRect.top + "," + sTileRect.left + "," + sTileRect.bottom + "," + sTileRect.right, vTileRect.left + 5, vTileRect.top + 15, debugPaint);
                     }
                 }
             }
         }
     }
 
+    /**
+     * Returns the highest resolution level below the given level whose tiles are all loaded where they are on screen,
+     * or the given level if there is none.
+     */
+    private int coarserLoadedLevel(int level) {
+        int width = getWidth();
+        int height = getHeight();
+        for (int l = level - 1; l >= 0; l--) {
+            TileGrid grid = tileGrids[l];
+            if (grid == null) {
+                continue;
+            }
+            grid.updateViewRects(scale, vTranslate.x, vTranslate.y);
+            boolean loaded = true;
+            for (int i = 0; loaded && i < grid.count; i++) {
+                loaded = grid.hasBitmap(i) || !grid.isInView(i, width, height);
+            }
+            if (loaded) {
+                return l;
+            }
+        }
+        return level;
+    }
+
+    @Override
+    protected void drawDebugInformation(Canvas canvas) {
+        super.drawDebugInformation(canvas);
+        canvas.drawText("Level changes: " + levelChangeCount + " prevented: " + preventedLevelChangeCount, 5, 75, getDebugPaint());
+    }
+
     /**
      * Called on first draw when the view has dimensions. Calculates the initial sample size and starts async loading of
      * the base layer image - the whole source subsampled as necessary.
@@ -347,21 +770,53 @@ public class SubsamplingScaleImageView extends ScaleImageViewBase<ImageRegionDec
 
         // Load double resolution - next level will be split into four tiles and at the center all four are required,
         // so don't bother with tiling until the next level 16 tiles are needed.
-        fullImageSampleSize = calculateInSampleSize();
+        fullImageSampleSize = calculateInSampleSize(scale);
         if (fullImageSampleSize > 1) {
             fullImageSampleSize /= 2;
         }
 
         initialiseTileMap(maxTileDimensions);
 
-        List<Tile> baseGrid = tileMap.get(fullImageSampleSize);
-        for (Tile baseTile : baseGrid) {
-            BitmapTileTask task = new BitmapTileTask(this, imageDataSource, baseTile);
-            task.execute();
+        TileGrid baseGrid = tileGrids[0];
+        if (useCachedBaseLayer(baseGrid)) {
+            onTileLoaded();
+            return;
+        }
+        if (imageDataSource != null) {
+            baseLayerConstrained = TileMemoryManager.getInstance().isMemoryConstrained();
+            for (int i = 0; i < baseGrid.count; i++) {
+                loadTile(baseGrid, i);
+            }
         }
 
     }
 
+    /**
+     * If a base layer was taken from the cache and it matches the new base layer grid, use its bitmaps. If it doesn't
+     * match, for example because the view size has changed, it is discarded.
+     */
+    private boolean useCachedBaseLayer(TileGrid baseGrid) {
+        BaseLayerCache.Entry cached = cachedBaseLayer;
+        cachedBaseLayer = null;
+        if (cached == null) {
+            return false;
+        }
+        boolean matches = cached.fullImageSampleSize == fullImageSampleSize && cached.rotation == getRequiredRotation() && cached.bitmaps.length == baseGrid.count;
+        for (int i = 0; matches && i < baseGrid.count; i++) {
+            matches = cached.sRects[i * 4] == baseGrid.left(i) && cached.sRects[i * 4 + 1] == baseGrid.top(i) &&
+                cached.sRects[i * 4 + 2] == baseGrid.right(i) && cached.sRects[i * 4 + 3] == baseGrid.bottom(i);
+        }
+        if (!matches) {
+            cached.recycle();
+            return false;
+        }
+        for (int i = 0; i < baseGrid.count; i++) {
+            baseGrid.setBitmap(i, cached.bitmaps[i]);
+            TileMemoryManager.getInstance().onTileLoaded(this, cached.bitmaps[i]);
+        }
+        return true;
+    }
+
     /**
      * Loads the optimum tiles for display at the current scale and translate, so the screen can be filled with tiles
      * that are at least as high resolution as the screen. Frees up bitmaps that are now off the screen.
@@ -371,62 +826,306 @@ public class SubsamplingScaleImageView extends ScaleImageViewBase<ImageRegionDec
         if (!isInitialImageDataLoaded()) {
             return;
         }
-        int sampleSize = Math.min(fullImageSampleSize, calculateInSampleSize());
+        updateDisplayedLevel();
+        int level = currentLevel();
 
-        // Load tiles of the correct sample size that are on screen. Discard tiles off screen, and those that are higher
+        // Load tiles of the correct level that are on screen. Discard tiles off screen, and those that are higher
         // resolution than required, or lower res than required but not the base layer, so the base layer is always present.
-        for (Map.Entry<Integer, List<Tile>> tileMapEntry : tileMap.entrySet()) {
-            for (Tile tile : tileMapEntry.getValue()) {
-                if (tile.sampleSize < sampleSize || (tile.sampleSize > sampleSize && tile.sampleSize != fullImageSampleSize)) {
-                    tile.visible = false;
-                    if (tile.bitmap != null) {
-                        tile.bitmap.recycle();
-                        tile.bitmap = null;
-                    }
+        float sVisLeft = viewToSourceX(0),
+            sVisRight = viewToSourceX(getWidth()),
+            sVisTop = viewToSourceY(0),
+            sVisBottom = viewToSourceY(getHeight());
+        tileGrid(level);
+        for (int l = 0; l < tileGrids.length; l++) {
+            TileGrid grid = tileGrids[l];
+            if (grid == null) {
+                continue;
+            }
+            boolean base = l == 0;
+            for (int i = 0; i < grid.count; i++) {
+                if (l > level || (l < level && !base)) {
+                    grid.setVisible(i, false);
+                    recycleTileBitmap(grid, i);
                 }
-                if (tile.sampleSize == sampleSize) {
-                    if (tileVisible(tile)) {
-                        tile.visible = true;
-                        if (!tile.loading && tile.bitmap == null && load) {
-                            BitmapTileTask task = new BitmapTileTask(this, imageDataSource, tile);
-                            task.execute();
-                        }
-                    } else if (tile.sampleSize != fullImageSampleSize) {
-                        tile.visible = false;
-                        if (tile.bitmap != null) {
-                            tile.bitmap.recycle();
-                            tile.bitmap = null;
+                if (l == level) {
+                    if (!(sVisLeft > grid.right(i) || grid.left(i) > sVisRight || sVisTop > grid.bottom(i) || grid.top(i) > sVisBottom)) {
+                        grid.setVisible(i, true);
+                        if (grid.isMissing(i) && load && imageDataSource != null) {
+                            loadTile(grid, i);
                         }
+                    } else if (!base) {
+                        grid.setVisible(i, false);
+                        recycleTileBitmap(grid, i);
                     }
-                } else if (tile.sampleSize == fullImageSampleSize) {
-                    tile.visible = true;
+                } else if (base) {
+                    grid.setVisible(i, true);
                 }
             }
         }
 
+        lastRefreshTime = SystemClock.uptimeMillis();
+        if (!levelReleaseScheduled) {
+            levelReleaseScheduled = true;
+            postDelayed(levelRelease, LEVEL_RELEASE_DELAY);
+        }
+
     }
 
     /**
-     * Determine whether tile is visible.
+     * Called by the shared {@link TileMemoryManager} when the total memory used by all views is over budget. Releases
+     * all tiles above the base layer, and optionally the base layer too. When the view is next drawn, the base layer is
+     * reloaded if necessary, and the higher resolution tiles are reloaded on the next pan or zoom.
+     * @param includeBaseLayer Whether to release the base layer. This should only be done while the view is off screen.
      */
-    private boolean tileVisible(Tile tile) {
-        float sVisLeft = viewToSourceX(0),
-            sVisRight = viewToSourceX(getWidth()),
-            sVisTop = viewToSourceY(0),
-            sVisBottom = viewToSourceY(getHeight());
-        return !(sVisLeft > tile.sRect.right || tile.sRect.left > sVisRight || sVisTop > tile.sRect.bottom || tile.sRect.top > sVisBottom);
+    void releaseTiles(boolean includeBaseLayer) {
+        if (tileGrids == null) {
+            return;
+        }
+        for (int l = 0; l < tileGrids.length; l++) {
+            TileGrid grid = tileGrids[l];
+            if (grid != null && (includeBaseLayer || l != 0)) {
+                for (int i = 0; i < grid.count; i++) {
+                    recycleTileBitmap(grid, i);
+                }
+            }
+        }
+        if (!includeBaseLayer) {
+            invalidate();
+        }
     }
 
     /**
-     * Calculates sample size to fit the source image in given bounds.
+     * Called by the shared {@link TileMemoryManager} when the system reports memory pressure. Releases tiles according
+     * to the pressure stage, from tiles that are not on screen, through resolution levels not being displayed and then
+     * all tiles above the base layer. At the critical stage the base layer is replaced by a downsampled copy.
+     * @param pressure One of the MEMORY_PRESSURE constants of {@link TileMemoryManager}.
+     */
+    void shedTiles(int pressure) {
+        if (tileGrids == null) {
+            return;
+        }
+        int level = displayedLevel >= 0 ? displayedLevel : calculateLevel(scale);
+        for (int l = 1; l < tileGrids.length; l++) {
+            TileGrid grid = tileGrids[l];
+            if (grid != null) {
+                for (int i = 0; i < grid.count; i++) {
+                    if (!grid.isVisible(i) ||
+                            (pressure >= TileMemoryManager.MEMORY_PRESSURE_HIDDEN_LEVELS && l != level) ||
+                            pressure >= TileMemoryManager.MEMORY_PRESSURE_VISIBLE_TILES) {
+                        recycleTileBitmap(grid, i);
+                    }
+                }
+            }
+        }
+        if (pressure >= TileMemoryManager.MEMORY_PRESSURE_CRITICAL && !baseLayerDownsampled) {
+            downsampleBaseLayer();
+        }
+        reloadTilesOnDraw = false;
+        invalidate();
+    }
+
+    /**
+     * Called by the shared {@link TileMemoryManager} when memory pressure has passed. A downsampled base layer is
+     * replaced with a full quality one, and released tiles are reloaded when the view is next drawn. The downsampled
+     * tiles are kept and drawn until each replacement is handed off, so the image doesn't disappear while they load.
+     */
+    void onMemoryPressureRelieved() {
+        if (tileGrids == null) {
+            return;
+        }
+        if (baseLayerDownsampled && imageDataSource != null) {
+            baseLayerDownsampled = false;
+            TileGrid baseGrid = tileGrids[0];
+            for (int i = 0; i < baseGrid.count; i++) {
+                if (!baseGrid.isLoading(i)) {
+                    loadTile(baseGrid, i);
+                }
+            }
+        }
+        reloadTilesOnDraw = true;
+        invalidate();
+    }
+
+    /**
+     * Replaces each base layer tile with a copy at half the width and height, using a quarter of the memory. The
+     * tiles are drawn into the same view rectangles so this only reduces quality.
+     */
+    private void downsampleBaseLayer() {
+        TileGrid baseGrid = tileGrids[0];
+        for (int i = 0; i < baseGrid.count; i++) {
+            if (baseGrid.isLoaded(i)) {
+                Bitmap bitmap = baseGrid.getBitmap(i);
+                try {
+                    Bitmap downsampled = Bitmap.createScaledBitmap(bitmap, Math.max(1, bitmap.getWidth()/2), Math.max(1, bitmap.getHeight()/2), true);
+                    recycleTileBitmap(baseGrid, i);
+                    baseGrid.setBitmap(i, downsampled);
+                    TileMemoryManager.getInstance().onTileLoaded(this, downsampled);
+                } catch (OutOfMemoryError e) {
+                    Log.w(TAG, "Could not downsample base layer tile", e);
+                    return;
+                }
+            }
+        }
+        baseLayerDownsampled = true;
+    }
+
+    /**
+     * Start a task to load a tile. Decoders that support concurrent decoding load tiles in parallel on the
+     * {@link TileExecutor}, which accepts any number of tiles; others use the serial executor.
+     */
+    private void loadTile(TileGrid grid, int index) {
+        BitmapTileTask task = new BitmapTileTask(this, imageDataSource, grid, index);
+        if (VERSION.SDK_INT >= 11 && isConcurrent(imageDataSource)) {
+            task.executeOnExecutor(TileExecutor.getInstance());
+        } else {
+            task.execute();
+        }
+    }
+
+    /**
+     * Determine whether a decoder can decode regions of its current image on several threads at once.
+     */
+    private static boolean isConcurrent(ImageRegionDecoder decoder) {
+        return decoder instanceof ConcurrentImageRegionDecoder && ((ConcurrentImageRegionDecoder)decoder).isConcurrent();
+    }
+
+    /**
+     * Recycles the bitmap of a tile, if it has one, and deducts it from the shared memory budget.
+     */
+    private void recycleTileBitmap(TileGrid grid, int index) {
+        Bitmap bitmap = grid.getBitmap(index);
+        if (bitmap != null) {
+            TileMemoryManager.getInstance().onTileRecycled(this, bitmap);
+            bitmap.recycle();
+            grid.setBitmap(index, null);
+        }
+    }
+
+    /**
+     * Determine whether a grid belongs to the current tile map. Grids are discarded when the image is changed or reset.
+     */
+    private boolean isCurrentGrid(TileGrid grid) {
+        if (tileGrids == null) {
+            return false;
+        }
+        for (TileGrid tileGrid : tileGrids) {
+            if (tileGrid == grid) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the tile grid for a level, creating it if necessary.
+     */
+    private TileGrid tileGrid(int level) {
+        if (tileGrids[level] == null) {
+            tileGrids[level] = createTileGrid(level);
+        }
+        return tileGrids[level];
+    }
+
+    /**
+     * Releases the tile grids of levels that are not the base layer or the current level and have no tiles loading
+     * or loaded. They are created again if the user zooms back to them.
      */
-    private int calculateInSampleSize() {
-        float adjustedScale = scale;
+    private void releaseUnusedLevels() {
+        if (tileGrids == null) {
+            return;
+        }
+        int currentLevel = currentLevel();
+        for (int level = 1; level < tileGrids.length; level++) {
+            TileGrid grid = tileGrids[level];
+            if (grid == null || level == currentLevel) {
+                continue;
+            }
+            boolean unused = true;
+            for (int i = 0; unused && i < grid.count; i++) {
+                unused = grid.isMissing(i);
+            }
+            if (unused) {
+                tileGrids[level] = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the level of tiles to be displayed. While memory pressure is high, only the base layer is displayed.
+     */
+    private int currentLevel() {
+        if (TileMemoryManager.getInstance().getMemoryPressure() >= TileMemoryManager.MEMORY_PRESSURE_VISIBLE_TILES) {
+            return 0;
+        }
+        return displayedLevel >= 0 ? displayedLevel : calculateLevel(scale);
+    }
+
+    /**
+     * Updates the displayed level for the current scale. The level only changes once the scale has moved past the
+     * boundary by the hysteresis fraction, so pinching back and forth across a boundary doesn't discard and decode the
+     * same tiles repeatedly. Each crossing that doesn't change the level is counted as a prevented change.
+     */
+    private void updateDisplayedLevel() {
+        int level = calculateLevel(scale);
+        if (displayedLevel < 0 || level == displayedLevel) {
+            displayedLevel = level;
+            heldLevel = -1;
+            return;
+        }
+        // Find the level the scale would select if it were moved back towards the displayed level by the band
+        int bandLevel = level > displayedLevel ? calculateLevel(scale / (1 + levelHysteresis)) : calculateLevel(scale * (1 + levelHysteresis));
+        if (bandLevel != displayedLevel) {
+            displayedLevel = level;
+            heldLevel = -1;
+            levelChangeCount++;
+        } else if (level != heldLevel) {
+            heldLevel = level;
+            preventedLevelChangeCount++;
+        }
+    }
+
+    /**
+     * Calculates the level for a scale. This is the level of the power of two sample size from
+     * {@link #calculateInSampleSize(float)}, or the intermediate level above it if that still has at least as many
+     * pixels as the screen.
+     */
+    private int calculateLevel(float scale) {
+        int sampleSize = Math.min(fullImageSampleSize, calculateInSampleSize(scale));
+        int level = 0;
+        while (level < tileGrids.length - 1 && levelSampleSize(level) > sampleSize) {
+            level++;
+        }
+        if (level > 0 && levelPlan[(level - 1) * LEVEL_PLAN_STRIDE + 1] != 0 && levelSampleSize(level - 1) * adjustedScale(scale) <= 1) {
+            level--;
+        }
+        return level;
+    }
+
+    /**
+     * Returns the effective sample size of a level, which is fractional for intermediate levels.
+     */
+    private float levelSampleSize(int level) {
+        int offset = level * LEVEL_PLAN_STRIDE;
+        return levelPlan[offset + 1] != 0 ? levelPlan[offset] / INTERMEDIATE_LEVEL_SCALE : levelPlan[offset];
+    }
+
+    /**
+     * Returns the scale adjusted for the minimum tile DPI.
+     */
+    private float adjustedScale(float scale) {
         if (minimumTileDpi > 0) {
             DisplayMetrics metrics = getResources().getDisplayMetrics();
             float averageDpi = (metrics.xdpi + metrics.ydpi)/2;
-            adjustedScale = (minimumTileDpi/averageDpi) * scale;
+            return (minimumTileDpi/averageDpi) * scale;
         }
+        return scale;
+    }
+
+    /**
+     * Calculates sample size to fit the source image in given bounds.
+     */
+    private int calculateInSampleSize(float scale) {
+        float adjustedScale = adjustedScale(scale);
 
         int reqWidth = (int)(rotatedSourceWidth() * adjustedScale);
         int reqHeight = (int)(rotatedSourceHeight() * adjustedScale);
@@ -459,47 +1158,130 @@ public class SubsamplingScaleImageView extends ScaleImageViewBase<ImageRegionDec
     }
 
     /**
-     * Once source image and view dimensions are known, creates a map of sample size to tile grid.
+     * Once source image and view dimensions are known, plans the tile grid of each sample size and creates the base
+     * layer grid. Other grids are created when first needed.
      */
     private void initialiseTileMap(Point maxTileDimensions) {
-        this.tileMap = new LinkedHashMap<Integer, List<Tile>>();
-        int sampleSize = fullImageSampleSize;
+        int levels = levelCount();
+        this.tileGrids = new TileGrid[levels];
+        this.levelPlan = new int[levels * LEVEL_PLAN_STRIDE];
+        planLevels();
+        if (tileSize != TILE_SIZE_AUTO) {
+            int maxTileSize = Math.min(maxTileDimensions.x, maxTileDimensions.y);
+            planFixedTileMap(Math.min(tileSize, maxTileSize), maxTileSize);
+        } else {
+            planTileMap(maxTileDimensions);
+        }
+        tileGrids[0] = createTileGrid(0);
+    }
+
+    /**
+     * Plans a grid for each level in which tiles are no larger than the max bitmap size, and above the base layer no
+     * more than 1.25 times the view size. The decoded tile must also fit before an intermediate level downscales it.
+     */
+    private void planTileMap(Point maxTileDimensions) {
         int xTiles = 1;
         int yTiles = 1;
-        while (true) {
+        for (int level = 0; level < tileGrids.length; level++) {
+            int sampleSize = levelPlan[level * LEVEL_PLAN_STRIDE];
+            float levelSampleSize = levelSampleSize(level);
             int sTileWidth = rotatedSourceWidth()/xTiles;
             int sTileHeight = rotatedSourceHeight()/yTiles;
-            int subTileWidth = sTileWidth/sampleSize;
-            int subTileHeight = sTileHeight/sampleSize;
-            while (subTileWidth > maxTileDimensions.x || (subTileWidth > getWidth() * 1.25 && sampleSize < fullImageSampleSize)) {
+            while (sTileWidth/sampleSize > maxTileDimensions.x || (sTileWidth/levelSampleSize > getWidth() * 1.25 && level > 0)) {
                 xTiles += 1;
                 sTileWidth = rotatedSourceWidth()/xTiles;
-                subTileWidth = sTileWidth/sampleSize;
             }
-            while (subTileHeight > maxTileDimensions.y || (subTileHeight > getHeight() * 1.25 && sampleSize < fullImageSampleSize)) {
+            while (sTileHeight/sampleSize > maxTileDimensions.y || (sTileHeight/levelSampleSize > getHeight() * 1.25 && level > 0)) {
                 yTiles += 1;
                 sTileHeight = rotatedSourceHeight()/yTiles;
-                subTileHeight = sTileHeight/sampleSize;
-            }
-            List<Tile> tileGrid = new ArrayList<Tile>(xTiles * yTiles);
-            for (int x = 0; x < xTiles; x++) {
-                for (int y = 0; y < yTiles; y++) {
-                    Tile tile = new Tile(
-                        x * sTileWidth, y * sTileHeight,
-                        sTileWidth, sTileHeight,
-                        sampleSize
-                    );
-                    tile.visible = sampleSize == fullImageSampleSize;
-                    tileGrid.add(tile);
-                }
             }
-            tileMap.put(sampleSize, tileGrid);
-            if (sampleSize == 1) {
-                break;
+            planGrid(level, xTiles, yTiles, sTileWidth, sTileHeight);
+        }
+    }
+
+    /**
+     * Plans a grid for each sample size in which every tile bitmap is at most the given size. At each sample size the
+     * grid starts at the image origin and tiles cover tileSize * sampleSize source pixels, so each tile covers exactly
+     * four tiles of the next level and the grid doesn't depend on the view size. Tiles on the right and bottom edges
+     * are cropped to the image. Intermediate levels are aligned to tileSize * 1.5 * sampleSize, and their tiles are
+     * decoded at up to 1.5 times the tile size before being scaled down. If that would exceed the max bitmap size,
+     * intermediate tiles instead cover the same source area as a tile of the next level, so they are decoded at the
+     * tile size and stored at two thirds of it.
+     */
+    private void planFixedTileMap(int tileSize, int maxTileSize) {
+        boolean clampIntermediate = tileSize / INTERMEDIATE_LEVEL_SCALE > maxTileSize;
+        for (int level = 0; level < tileGrids.length; level++) {
+            int offset = level * LEVEL_PLAN_STRIDE;
+            int sTileSize;
+            if (clampIntermediate && levelPlan[offset + 1] != 0) {
+                sTileSize = tileSize * levelPlan[offset];
             } else {
-                sampleSize /= 2;
+                sTileSize = (int)(tileSize * levelSampleSize(level));
+            }
+            int xTiles = (rotatedSourceWidth() + sTileSize - 1)/sTileSize;
+            int yTiles = (rotatedSourceHeight() + sTileSize - 1)/sTileSize;
+            planGrid(level, xTiles, yTiles, sTileSize, sTileSize);
+        }
+    }
+
+    /**
+     * Plans the sample size of each level, from the base layer down to sample size 1. When intermediate levels are
+     * enabled, a level between each pair of power of two sample sizes decodes at the lower sample size and scales the
+     * bitmaps down to 1.5 times that sample size.
+     */
+    private void planLevels() {
+        int level = 0;
+        for (int sampleSize = fullImageSampleSize; sampleSize >= 1; sampleSize /= 2) {
+            levelPlan[level++ * LEVEL_PLAN_STRIDE] = sampleSize;
+            if (intermediateLevels && sampleSize > 1) {
+                levelPlan[level * LEVEL_PLAN_STRIDE] = sampleSize / 2;
+                levelPlan[level++ * LEVEL_PLAN_STRIDE + 1] = 1;
+            }
+        }
+    }
+
+    private void planGrid(int level, int xTiles, int yTiles, int sTileWidth, int sTileHeight) {
+        int offset = level * LEVEL_PLAN_STRIDE;
+        levelPlan[offset + 2] = xTiles;
+        levelPlan[offset + 3] = yTiles;
+        levelPlan[offset + 4] = sTileWidth;
+        levelPlan[offset + 5] = sTileHeight;
+    }
+
+    /**
+     * Creates the tile grid for a level from its plan.
+     */
+    private TileGrid createTileGrid(int level) {
+        int offset = level * LEVEL_PLAN_STRIDE;
+        int sampleSize = levelPlan[offset];
+        float bitmapScale = levelPlan[offset + 1] != 0 ? INTERMEDIATE_LEVEL_SCALE : 1f;
+        int xTiles = levelPlan[offset + 2];
+        int yTiles = levelPlan[offset + 3];
+        int sTileWidth = levelPlan[offset + 4];
+        int sTileHeight = levelPlan[offset + 5];
+        TileGrid grid = new TileGrid(sampleSize, bitmapScale, xTiles * yTiles);
+        int index = 0;
+        for (int x = 0; x < xTiles; x++) {
+            for (int y = 0; y < yTiles; y++) {
+                int sLeft = x * sTileWidth;
+                int sTop = y * sTileHeight;
+                grid.setRect(index, sLeft, sTop, Math.min(sLeft + sTileWidth, rotatedSourceWidth()), Math.min(sTop + sTileHeight, rotatedSourceHeight()));
+                grid.setVisible(index, level == 0);
+                index++;
             }
         }
+        return grid;
+    }
+
+    /**
+     * Returns the number of levels from the base layer down to sample size 1.
+     */
+    private int levelCount() {
+        int levels = 1;
+        for (int sampleSize = fullImageSampleSize; sampleSize > 1; sampleSize /= 2) {
+            levels += intermediateLevels ? 2 : 1;
+        }
+        return levels;
     }
 
     /**
@@ -511,17 +1293,16 @@ public class SubsamplingScaleImageView extends ScaleImageViewBase<ImageRegionDec
         // If all base layer tiles are ready, inform subclasses the image is ready to display on next draw.
         if (!baseLayerReadySent) {
             boolean baseLayerReady = true;
-            for (Map.Entry<Integer, List<Tile>> tileMapEntry : tileMap.entrySet()) {
-                if (tileMapEntry.getKey() == fullImageSampleSize) {
-                    for (Tile tile : tileMapEntry.getValue()) {
-                        if (tile.loading || tile.bitmap == null) {
-                            baseLayerReady = false;
-                        }
-                    }
+            TileGrid baseGrid = tileGrids[0];
+            for (int i = 0; i < baseGrid.count; i++) {
+                if (!baseGrid.isLoaded(i)) {
+                    baseLayerReady = false;
+                    break;
                 }
             }
             if (baseLayerReady) {
                 baseLayerReadySent = true;
+                discardPlaceholder();
                 onBaseLayerReady();
                 if (tileLoaderListener != null) {
                     tileLoaderListener.onBaseLayerReady();
@@ -533,69 +1314,155 @@ public class SubsamplingScaleImageView extends ScaleImageViewBase<ImageRegionDec
     /**
      * Async task used to load images without blocking the UI thread.
      */
-    private static class BitmapTileTask extends AsyncTask<Void, Void, Bitmap> {
+    private static class BitmapTileTask extends AsyncTask<Void, Void, Boolean> {
         private final WeakReference<SubsamplingScaleImageView> viewRef;
         private final WeakReference<ImageRegionDecoder> decoderRef;
-        private final WeakReference<Tile> tileRef;
+        private final WeakReference<TileGrid> gridRef;
+        private final int index;
         private Exception exception;
 
-        public BitmapTileTask(SubsamplingScaleImageView view, ImageRegionDecoder decoder, Tile tile) {
+        public BitmapTileTask(SubsamplingScaleImageView view, ImageRegionDecoder decoder, TileGrid grid, int index) {
             this.viewRef = new WeakReference<SubsamplingScaleImageView>(view);
             this.decoderRef = new WeakReference<ImageRegionDecoder>(decoder);
-            this.tileRef = new WeakReference<Tile>(tile);
-            tile.loading = true;
+            this.gridRef = new WeakReference<TileGrid>(grid);
+            this.index = index;
+            grid.setLoading(index, true);
         }
 
         @Override
-        protected Bitmap doInBackground(Void... params) {
+        protected Boolean doInBackground(Void... params) {
+            Bitmap bitmap = decode();
+            final SubsamplingScaleImageView view = viewRef.get();
+            final TileGrid grid = gridRef.get();
+            if (view != null && grid != null) {
+                // Grids are only changed on the UI thread, so tiles that were not decoded are queued too, for their
+                // loading flags to be cleared when they are handed off
+                view.loadedTiles.offer(new LoadedTile(grid, index, bitmap, exception));
+                return true;
+            }
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            return false;
+        }
+
+        private Bitmap decode() {
             try {
                 final ImageRegionDecoder decoder = decoderRef.get();
-                final Tile tile = tileRef.get();
+                final TileGrid grid = gridRef.get();
                 final SubsamplingScaleImageView view = viewRef.get();
-                if (decoder != null && tile != null && view != null && decoder.isReady()) {
-                    synchronized (view.decoderLock) {
-                        // Update tile's file sRect according to rotation
-                        view.fileSRect(tile.sRect, tile.fileSRect);
-                        Bitmap bitmap = decoder.decodeRegion(tile.fileSRect, tile.sampleSize);
+                if (decoder != null && grid != null && view != null && decoder.isReady()) {
+                    Lock lock = isConcurrent(decoder) ? view.decoderLock.readLock() : view.decoderLock.writeLock();
+                    lock.lock();
+                    try {
+                        // Find the tile's file sRect according to rotation
+                        Rect sRect = new Rect();
+                        Rect fileSRect = new Rect();
+                        grid.getRect(index, sRect);
+                        view.fileSRect(sRect, fileSRect);
+                        Bitmap bitmap = decoder.decodeRegion(fileSRect, grid.sampleSize);
+                        // Rotate, and for intermediate levels scale down, in a single pass
                         int rotation = view.getRequiredRotation();
-                        if (rotation != 0) {
+                        if (rotation != 0 || grid.bitmapScale != 1f) {
                             Matrix matrix = new Matrix();
+                            matrix.postScale(grid.bitmapScale, grid.bitmapScale);
                             matrix.postRotate(rotation);
-                            bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+                            Bitmap transformed = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+                            if (transformed != bitmap) {
+                                bitmap.recycle();
+                            }
+                            bitmap = transformed;
                         }
                         return bitmap;
+                    } finally {
+                        lock.unlock();
                     }
-                } else if (tile != null) {
-                    tile.loading = false;
                 }
             } catch (Exception e) {
+                // The listener is notified on the UI thread when the tile is handed off
                 Log.e(TAG, "Failed to decode tile", e);
                 this.exception = e;
-                final SubsamplingScaleImageView subsamplingScaleImageView = viewRef.get();
-                if (subsamplingScaleImageView != null && subsamplingScaleImageView.getTileImageLoaderListener() != null) {
-                    subsamplingScaleImageView.getTileImageLoaderListener().onTileLoadError(e);
-                }
             }
             return null;
         }
 
         @Override
-        protected void onPostExecute(Bitmap bitmap) {
+        protected void onPostExecute(Boolean queued) {
             final SubsamplingScaleImageView subsamplingScaleImageView = viewRef.get();
-            final Tile tile = tileRef.get();
-            if (subsamplingScaleImageView != null && tile != null) {
-                if (bitmap != null) {
-                    tile.bitmap = bitmap;
-                    tile.loading = false;
-                    subsamplingScaleImageView.onTileLoaded();
-                } else if (exception != null) {
-                    final TileImageLoaderListener listener = subsamplingScaleImageView.getTileImageLoaderListener();
-                    if (listener != null) {
-                        listener.onTileLoadError(exception);
-                    }
+            if (subsamplingScaleImageView != null && queued) {
+                subsamplingScaleImageView.scheduleTileHandoff();
+            }
+        }
+    }
+
+    /**
+     * A tile decoded on a worker thread, or a tile that was not decoded and the error if there was one, waiting to be
+     * handed to the view.
+     */
+    private static final class LoadedTile {
+        private final TileGrid grid;
+        private final int index;
+        private final Bitmap bitmap;
+        private final Exception exception;
+
+        private LoadedTile(TileGrid grid, int index, Bitmap bitmap, Exception exception) {
+            this.grid = grid;
+            this.index = index;
+            this.bitmap = bitmap;
+            this.exception = exception;
+        }
+    }
+
+    /**
+     * Request a handoff of loaded tiles on the next frame tick, which is shared with any running animation.
+     */
+    private void scheduleTileHandoff() {
+        tileHandoffScheduled = true;
+        requestFrameTick();
+    }
+
+    @Override
+    protected void onFrameTick(long frameTimeNanos) {
+        if (tileHandoffScheduled) {
+            handOffLoadedTiles();
+        }
+    }
+
+    /**
+     * Hand tiles loaded since the last frame to their grids, up to the per frame limit, and invalidate once. Tiles
+     * left over are handed off on the next frame.
+     */
+    private void handOffLoadedTiles() {
+        tileHandoffScheduled = false;
+        int handedOff = 0;
+        LoadedTile tile;
+        while ((maxTileUploadsPerFrame <= 0 || handedOff < maxTileUploadsPerFrame) && (tile = loadedTiles.poll()) != null) {
+            if (tile.bitmap != null && !isCurrentGrid(tile.grid)) {
+                // The image was changed or reset while this tile was loading
+                tile.bitmap.recycle();
+            } else if (tile.bitmap != null) {
+                recycleTileBitmap(tile.grid, tile.index);
+                tile.grid.setBitmap(tile.index, tile.bitmap);
+                tile.grid.setLoading(tile.index, false);
+                TileMemoryManager.getInstance().onTileLoaded(this, tile.bitmap);
+                handedOff++;
+            } else {
+                // Not decoded, so the tile can be requested again. The flag is cleared before the listener is told of
+                // an error, so the listener sees the tile as missing.
+                if (isCurrentGrid(tile.grid)) {
+                    tile.grid.setLoading(tile.index, false);
+                }
+                if (tile.exception != null && tileLoaderListener != null) {
+                    tileLoaderListener.onTileLoadError(tile.exception);
                 }
             }
         }
+        if (handedOff > 0) {
+            onTileLoaded();
+        }
+        if (!loadedTiles.isEmpty()) {
+            scheduleTileHandoff();
+        }
     }
 
     /**
@@ -642,7 +1509,30 @@ public class SubsamplingScaleImageView extends ScaleImageViewBase<ImageRegionDec
         if (decoderClass == null) {
             throw new IllegalArgumentException("Decoder class cannot be set to null");
         }
-        this.decoderClass = decoderClass;
+        this.regionDecoderFactory = new CompatDecoderFactory<ImageRegionDecoder>(decoderClass);
+    }
+
+    /**
+     * Supply region decoders from a factory instead of instantiating a class for every image. Decoders are returned
+     * to the factory, after being recycled, when the image is reset, so a {@link com.davemorrissey.labs.subscaleview.decoder.DecoderPool}
+     * can be used to reuse warm decoders across images. You must do this before setting the image.
+     * @param regionDecoderFactory The factory that creates {@link ImageRegionDecoder} instances.
+     */
+    public final void setRegionDecoderFactory(DecoderFactory<ImageRegionDecoder> regionDecoderFactory) {
+        if (regionDecoderFactory == null) {
+            throw new IllegalArgumentException("Decoder factory cannot be set to null");
+        }
+        this.regionDecoderFactory = regionDecoderFactory;
+    }
+
+    /**
+     * Set the providers consulted, in order, for a placeholder to display from the moment an image is set until its
+     * base layer is ready. There are no providers by default, as each one reads the source again before the decoder
+     * is ready. Call with no providers to disable placeholders. This must be called before setting the image.
+     * @param providers The {@link PlaceholderProvider} implementations to use.
+     */
+    public final void setPlaceholderProviders(PlaceholderProvider... providers) {
+        this.placeholderProviders = providers.clone();
     }
 
      /**
@@ -663,6 +1553,92 @@ public class SubsamplingScaleImageView extends ScaleImageViewBase<ImageRegionDec
         }
     }
 
+    /**
+     * Set how far the scale must move past the boundary between two levels before the view switches to the new level.
+     * Without this, a pinch hovering around a boundary repeatedly discards one level and decodes the other. Within
+     * the band, zooming in briefly displays tiles at slightly lower resolution than the screen, and zooming out keeps
+     * higher resolution tiles slightly longer. The default is 0.1.
+     * @param levelHysteresis Fraction of the scale, 0 to switch levels exactly at the boundary.
+     */
+    public final void setLevelHysteresis(float levelHysteresis) {
+        if (levelHysteresis < 0) {
+            throw new IllegalArgumentException("Invalid level hysteresis: " + levelHysteresis);
+        }
+        this.levelHysteresis = levelHysteresis;
+    }
+
+    /**
+     * Returns the number of times the displayed tile level has changed since the image was set.
+     */
+    public final int getLevelChangeCount() {
+        return levelChangeCount;
+    }
+
+    /**
+     * Returns the number of times since the image was set that the scale crossed into another tile level but the
+     * displayed level was kept because the scale stayed within the hysteresis band. Each is a discard and decode of a
+     * level that was avoided.
+     */
+    public final int getPreventedLevelChangeCount() {
+        return preventedLevelChangeCount;
+    }
+
+    /**
+     * Enable levels between the power of two sample sizes. A tile for an intermediate level is decoded at the next
+     * power of two and scaled down once to 1.5 times that sample size before it is stored, so zoom levels just below
+     * a power of two boundary hold up to 44% fewer pixels. This costs an extra scaling pass per tile, and each tile is
+     * briefly held at its decoded size, up to 1.5 times its stored size, while it is scaled. Disabled by default.
+     * @param intermediateLevels Whether to use intermediate levels.
+     */
+    public final void setIntermediateLevels(boolean intermediateLevels) {
+        this.intermediateLevels = intermediateLevels;
+        if (isImageReady()) {
+            reset(false);
+            invalidate();
+        }
+    }
+
+    /**
+     * Use a fixed size tile grid instead of one derived from the view size. Each tile bitmap is at most tileSize
+     * pixels wide and tall, and at every sample size tile boundaries are aligned to multiples of tileSize *
+     * sampleSize source pixels. Smaller tiles decode faster and fill the screen progressively, and the grid is the same
+     * for any view size so tiles stay valid when the view is resized. 256 or 512 are good values. Tiles are never
+     * larger than the maximum bitmap size supported by the canvas.
+     * @param tileSize Tile size in pixels, a power of two, or {@link #TILE_SIZE_AUTO} for the default grid.
+     */
+    public final void setTileSize(int tileSize) {
+        if (tileSize < 0 || (tileSize & (tileSize - 1)) != 0) {
+            throw new IllegalArgumentException("Invalid tile size: " + tileSize);
+        }
+        this.tileSize = tileSize;
+        if (isImageReady()) {
+            reset(false);
+            invalidate();
+        }
+    }
+
+    /**
+     * While the image is being panned, zoomed or animated, draw the best lower resolution level whose tiles are
+     * already loaded on screen, usually the base layer, instead of the tiles for the current scale. Fewer, smaller
+     * bitmaps are drawn each frame. Full resolution tiles are still loaded, and shown once the image comes to rest.
+     * Combine with {@link #setReducedQualityInMotion(boolean)} for the cheapest drawing. Disabled by default.
+     * @param coarseTilesInMotion true to draw a coarser level while the image moves.
+     */
+    public final void setCoarseTilesInMotion(boolean coarseTilesInMotion) {
+        this.coarseTilesInMotion = coarseTilesInMotion;
+        invalidate();
+    }
+
+    /**
+     * Limit the number of newly loaded tiles handed to the view in each frame. Tiles that finish loading together are
+     * then displayed over several frames, so uploading them to the GPU never makes a frame miss its deadline. By
+     * default there is no limit, and every tile loaded since the last frame is displayed in the next.
+     * @param maxTileUploadsPerFrame Maximum number of tiles added per frame, or 0 for no limit.
+     */
+    public final void setMaxTileUploadsPerFrame(int maxTileUploadsPerFrame) {
+        this.maxTileUploadsPerFrame = Math.max(0, maxTileUploadsPerFrame);
+    }
+
      /**
      * Subclasses can override this method to be informed when the base layer tiles have been loaded -
      * this is called immediately before the view draws them. You can also use an {@link OnImageEventListener}
@@ -0,0 +1,180 @@
+/*
+Copyright 2013-2015 David Morrissey
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.davemorrissey.labs.subscaleview;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+/**
+ * The tiles of one sample size level, stored in parallel primitive arrays instead of one object per tile, so grids
+ * of many thousands of tiles have little overhead and can be iterated without allocation. Each tile is identified by
+ * its index. Rectangles are in rotated source coordinates. Grids are not thread safe, and are only changed on the UI
+ * thread: workers read the rectangles, and their results are applied when loaded tiles are handed off.
+ */
+final class TileGrid {
+
+    private static final byte STATE_VISIBLE = 0x01;
+    private static final byte STATE_LOADING = 0x02;
+
+    // Sample size used to decode all tiles in the grid
+    final int sampleSize;
+
+    // Scale applied to decoded bitmaps, less than 1 for intermediate levels
+    final float bitmapScale;
+
+    // Number of tiles
+    final int count;
+
+    // Left, top, right and bottom of each tile
+    private final int[] rects;
+
+    // Left, top, right and bottom of each tile in view coordinates, and the scale and translation they were
+    // calculated for
+    private final int[] vRects;
+    private float vRectsScale = Float.NaN;
+    private float vRectsTranslateX;
+    private float vRectsTranslateY;
+
+    // Visible and loading flags of each tile
+    private final byte[] states;
+
+    // Bitmap of each tile, null if not loaded
+    private final Bitmap[] bitmaps;
+
+    TileGrid(int sampleSize, float bitmapScale, int count) {
+        this.sampleSize = sampleSize;
+        this.bitmapScale = bitmapScale;
+        this.count = count;
+        this.rects = new int[count * 4];
+        this.vRects = new int[count * 4];
+        this.states = new byte[count];
+        this.bitmaps = new Bitmap[count];
+    }
+
+    void setRect(int index, int left, int top, int right, int bottom) {
+        int offset = index * 4;
+        rects[offset] = left;
+        rects[offset + 1] = top;
+        rects[offset + 2] = right;
+        rects[offset + 3] = bottom;
+    }
+
+    /**
+     * Copy the source rectangle of a tile into a target rectangle.
+     */
+    void getRect(int index, Rect target) {
+        int offset = index * 4;
+        target.set(rects[offset], rects[offset + 1], rects[offset + 2], rects[offset + 3]);
+    }
+
+    int left(int index) {
+        return rects[index * 4];
+    }
+
+    int top(int index) {
+        return rects[index * 4 + 1];
+    }
+
+    int right(int index) {
+        return rects[index * 4 + 2];
+    }
+
+    int bottom(int index) {
+        return rects[index * 4 + 3];
+    }
+
+    /**
+     * Calculate the view rectangles of the tiles for a scale and translation. They are only recalculated when either
+     * has changed since the last call, so a static image costs nothing per frame.
+     */
+    void updateViewRects(float scale, float translateX, float translateY) {
+        if (scale == vRectsScale && translateX == vRectsTranslateX && translateY == vRectsTranslateY) {
+            return;
+        }
+        for (int i = 0; i < vRects.length; i += 2) {
+            vRects[i] = (int)(rects[i] * scale + translateX);
+            vRects[i + 1] = (int)(rects[i + 1] * scale + translateY);
+        }
+        vRectsScale = scale;
+        vRectsTranslateX = translateX;
+        vRectsTranslateY = translateY;
+    }
+
+    /**
+     * Copy the view rectangle of a tile, as last calculated by {@link #updateViewRects(float, float, float)}, into a
+     * target rectangle.
+     */
+    void getViewRect(int index, Rect target) {
+        int offset = index * 4;
+        target.set(vRects[offset], vRects[offset + 1], vRects[offset + 2], vRects[offset + 3]);
+    }
+
+    /**
+     * Returns true if the tile's view rectangle overlaps a view of the given size.
+     */
+    boolean isInView(int index, int width, int height) {
+        int offset = index * 4;
+        return vRects[offset] < width && vRects[offset + 1] < height && vRects[offset + 2] > 0 && vRects[offset + 3] > 0;
+    }
+
+    boolean isVisible(int index) {
+        return (states[index] & STATE_VISIBLE) != 0;
+    }
+
+    void setVisible(int index, boolean visible) {
+        states[index] = (byte)(visible ? states[index] | STATE_VISIBLE : states[index] & ~STATE_VISIBLE);
+    }
+
+    boolean isLoading(int index) {
+        return (states[index] & STATE_LOADING) != 0;
+    }
+
+    void setLoading(int index, boolean loading) {
+        states[index] = (byte)(loading ? states[index] | STATE_LOADING : states[index] & ~STATE_LOADING);
+    }
+
+    Bitmap getBitmap(int index) {
+        return bitmaps[index];
+    }
+
+    void setBitmap(int index, Bitmap bitmap) {
+        bitmaps[index] = bitmap;
+    }
+
+    /**
+     * Returns true if the tile is neither loading nor loaded.
+     */
+    boolean isMissing(int index) {
+        return bitmaps[index] == null && (states[index] & STATE_LOADING) == 0;
+    }
+
+    /**
+     * Returns true if the tile has a bitmap that can be drawn. The bitmap may be a lower quality copy that is being
+     * reloaded, in which case it is drawn until its replacement is handed off.
+     */
+    boolean hasBitmap(int index) {
+        return bitmaps[index] != null;
+    }
+
+    /**
+     * Returns true if the tile has a bitmap and is not being reloaded.
+     */
+    boolean isLoaded(int index) {
+        return bitmaps[index] != null && (states[index] & STATE_LOADING) == 0;
+    }
+
+}
@@ -12,7 +12,8 @@ public interface TileImageLoaderListener {
     /**
      * Called when an image tile could not be loaded. This method cannot be relied upon; certain
      * encoding types of supported image formats can result in corrupt or blank images being loaded
-     * and displayed with no detectable error.
+     * and displayed with no detectable error. Called on the UI thread, once per failed load; the tile is requested
+     * again the next time it is needed.
      * @param e The exception thrown. This error is logged by the view.
      */
     void onTileLoadError(Exception e);
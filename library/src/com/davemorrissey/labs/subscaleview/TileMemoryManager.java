@@ -0,0 +1,399 @@
+/*
+Copyright 2013-2015 David Morrissey
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.davemorrissey.labs.subscaleview;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Build.VERSION;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Process-wide tile memory budget shared by all {@link SubsamplingScaleImageView} instances. Every view reports the
+ * tile bitmaps it holds, and when the total goes over the budget tiles are released from other views, starting with
+ * views that are off screen and then in order of least recent interaction. The view most recently touched is never
+ * asked to release tiles, so its total can exceed the budget on its own.
+ *
+ * This allows a view pager or list holding several views to have a predictable memory ceiling. Methods that may
+ * release tiles call out to views, and must be called on the UI thread. The getters and {@link #isMemoryConstrained()}
+ * can be called from any thread, including tile decoding threads. Views are never called while the manager's lock is
+ * held, so decoding threads checking for pressure are not blocked by view work.
+ *
+ * On API 14 and above, the manager also subscribes to {@link ComponentCallbacks2#onTrimMemory(int)} and sheds tiles in
+ * stages as memory pressure rises. See the MEMORY_PRESSURE constants. Views reload their tiles once no trim callback has
+ * been received for a while, as set by {@link #setPressureRecoveryDelay(long)}.
+ */
+public final class TileMemoryManager {
+
+    /** No memory pressure. Views load tiles as normal. */
+    public static final int MEMORY_PRESSURE_NONE = 0;
+    /** Loaded tiles that are not on screen are released, and the {@link BaseLayerCache} is cleared. */
+    public static final int MEMORY_PRESSURE_CACHES = 1;
+    /** Tiles from resolution levels not currently displayed are released, along with all tiles of off screen views. */
+    public static final int MEMORY_PRESSURE_HIDDEN_LEVELS = 2;
+    /** All tiles above the base layer are released, including those on screen, and no more are loaded. */
+    public static final int MEMORY_PRESSURE_VISIBLE_TILES = 3;
+    /** As above, and base layers are replaced with downsampled copies. */
+    public static final int MEMORY_PRESSURE_CRITICAL = 4;
+
+    private static TileMemoryManager instance;
+
+    // Registered views, least recently interacted first
+    private final List<Registration> registrations = new ArrayList<Registration>();
+
+    // Maximum bytes of tile bitmaps to be held by all views. Written under the lock, read from any thread.
+    private volatile long budget = Runtime.getRuntime().maxMemory() / 4;
+
+    // Total bytes of tile bitmaps currently held. Written under the lock, read from any thread.
+    private volatile long usedBytes;
+
+    // The view most recently touched, which is never asked to release tiles
+    private WeakReference<SubsamplingScaleImageView> activeViewRef;
+
+    // Current memory pressure stage, raised by trim callbacks and cleared after the recovery delay. Written under the
+    // lock, read from any thread.
+    private volatile int pressure = MEMORY_PRESSURE_NONE;
+    private long pressureRecoveryDelay = 10000;
+    private boolean trimCallbacksRegistered;
+    private Handler handler;
+
+    // Volatile field used to reduce object creation
+    private final Rect visibleRect = new Rect();
+
+    private final Runnable pressureRecovery = new Runnable() {
+        @Override
+        public void run() {
+            onPressureRelieved();
+        }
+    };
+
+    private TileMemoryManager() { }
+
+    /**
+     * Returns the single instance shared by all views in the process.
+     */
+    public static synchronized TileMemoryManager getInstance() {
+        if (instance == null) {
+            instance = new TileMemoryManager();
+        }
+        return instance;
+    }
+
+    /**
+     * Set the maximum total size in bytes of the tile bitmaps held by all views. The default is a quarter of the
+     * maximum heap size. If the new budget is lower than current usage, tiles are released immediately.
+     * @param budget Budget in bytes.
+     */
+    public void setBudget(long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Budget must be greater than zero");
+        }
+        synchronized (this) {
+            this.budget = budget;
+        }
+        trimToBudget();
+    }
+
+    /**
+     * Returns the maximum total size in bytes of the tile bitmaps held by all views.
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the total size in bytes of the tile bitmaps currently held by all views.
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Returns the current memory pressure stage. See the MEMORY_PRESSURE constants.
+     */
+    public int getMemoryPressure() {
+        return pressure;
+    }
+
+    /**
+     * Returns true while there is any memory pressure, or the tiles held by all views are at or over budget. Decoders
+     * can use this to choose cheaper bitmap configs for low resolution tiles. This does not take the manager's lock.
+     */
+    public boolean isMemoryConstrained() {
+        return pressure > MEMORY_PRESSURE_NONE || usedBytes >= budget;
+    }
+
+    /**
+     * Set how long after the last trim memory callback views should wait before reloading the tiles they released.
+     * The default is 10 seconds.
+     * @param pressureRecoveryDelay Delay in milliseconds.
+     */
+    public synchronized void setPressureRecoveryDelay(long pressureRecoveryDelay) {
+        this.pressureRecoveryDelay = pressureRecoveryDelay;
+    }
+
+    /**
+     * Handle a trim level from {@link ComponentCallbacks2#onTrimMemory(int)}. This is called automatically on API 14
+     * and above, but can also be called by an application that manages its own callbacks. Levels are mapped to
+     * pressure stages; the stage only rises until the recovery delay has passed without another callback.
+     * @param level The trim level.
+     */
+    public void onTrimMemory(int level) {
+        int stage;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            stage = MEMORY_PRESSURE_CRITICAL;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            stage = MEMORY_PRESSURE_VISIBLE_TILES;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            stage = MEMORY_PRESSURE_HIDDEN_LEVELS;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            stage = MEMORY_PRESSURE_CACHES;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            stage = MEMORY_PRESSURE_CRITICAL;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            stage = MEMORY_PRESSURE_HIDDEN_LEVELS;
+        } else {
+            stage = MEMORY_PRESSURE_CACHES;
+        }
+        onMemoryPressure(stage);
+    }
+
+    /**
+     * Raise the pressure stage and shed tiles from every view accordingly. Off screen views release all their tiles
+     * from {@link #MEMORY_PRESSURE_HIDDEN_LEVELS} upwards.
+     */
+    private void onMemoryPressure(int stage) {
+        int pressure;
+        List<SubsamplingScaleImageView> views;
+        synchronized (this) {
+            this.pressure = pressure = Math.max(this.pressure, stage);
+            views = getViews();
+            if (handler == null) {
+                handler = new Handler(Looper.getMainLooper());
+            }
+            handler.removeCallbacks(pressureRecovery);
+            handler.postDelayed(pressureRecovery, pressureRecoveryDelay);
+        }
+        BaseLayerCache.getInstance().clear();
+        for (SubsamplingScaleImageView view : views) {
+            if (pressure >= MEMORY_PRESSURE_HIDDEN_LEVELS && !isOnScreen(view)) {
+                view.releaseTiles(true);
+            } else {
+                view.shedTiles(pressure);
+            }
+        }
+    }
+
+    /**
+     * Called when the recovery delay has passed since the last trim callback. Views reload their tiles when next drawn.
+     */
+    private void onPressureRelieved() {
+        List<SubsamplingScaleImageView> views;
+        synchronized (this) {
+            pressure = MEMORY_PRESSURE_NONE;
+            views = getViews();
+        }
+        for (SubsamplingScaleImageView view : views) {
+            view.onMemoryPressureRelieved();
+        }
+    }
+
+    /**
+     * Returns the registered views that have not been garbage collected, least recently interacted first. Called with
+     * the lock held so the views can then be called without it.
+     */
+    private List<SubsamplingScaleImageView> getViews() {
+        List<SubsamplingScaleImageView> views = new ArrayList<SubsamplingScaleImageView>(registrations.size());
+        for (Registration registration : registrations) {
+            SubsamplingScaleImageView view = registration.viewRef.get();
+            if (view != null) {
+                views.add(view);
+            }
+        }
+        return views;
+    }
+
+    /**
+     * Subscribe to trim memory callbacks the first time a view registers. These are only available on API 14 and above.
+     */
+    private void registerTrimCallbacks(Context context) {
+        if (!trimCallbacksRegistered && VERSION.SDK_INT >= 14) {
+            context.getApplicationContext().registerComponentCallbacks(new TrimCallbacks());
+            trimCallbacksRegistered = true;
+        }
+    }
+
+    /**
+     * Returns the size in bytes of a bitmap. {@link Bitmap#getByteCount()} is not available on API 10.
+     */
+    static int byteCount(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Called by a view when the user interacts with it, or it is given a new image. Moves the view to the end of the
+     * eviction order and protects it from eviction until another view is touched.
+     */
+    synchronized void onInteraction(SubsamplingScaleImageView view) {
+        Registration registration = findRegistration(view, true);
+        registrations.remove(registration);
+        registrations.add(registration);
+        activeViewRef = new WeakReference<SubsamplingScaleImageView>(view);
+        registerTrimCallbacks(view.getContext());
+    }
+
+    /**
+     * Called by a view when a tile bitmap has been loaded. Releases tiles from other views if this takes the total
+     * over budget.
+     */
+    void onTileLoaded(SubsamplingScaleImageView view, Bitmap bitmap) {
+        int bytes = byteCount(bitmap);
+        synchronized (this) {
+            findRegistration(view, true).bytes += bytes;
+            usedBytes += bytes;
+        }
+        trimToBudget();
+    }
+
+    /**
+     * Called by a view when a tile bitmap has been recycled.
+     */
+    synchronized void onTileRecycled(SubsamplingScaleImageView view, Bitmap bitmap) {
+        int bytes = byteCount(bitmap);
+        Registration registration = findRegistration(view, false);
+        if (registration != null) {
+            registration.bytes -= bytes;
+            usedBytes -= bytes;
+        }
+    }
+
+    /**
+     * Called by a view when it has released all its tiles and no longer needs to be tracked.
+     */
+    synchronized void unregister(SubsamplingScaleImageView view) {
+        Registration registration = findRegistration(view, false);
+        if (registration != null) {
+            usedBytes -= registration.bytes;
+            registrations.remove(registration);
+        }
+    }
+
+    /**
+     * Releases tiles until usage is within budget. Off screen views release all tiles, including the base layer,
+     * before any visible view is affected. Visible views then release tiles above the base layer in order of least
+     * recent interaction. The candidates are copied under the lock and released without it; each release updates the
+     * total through {@link #onTileRecycled(SubsamplingScaleImageView, Bitmap)}.
+     */
+    private void trimToBudget() {
+        if (usedBytes <= budget) {
+            return;
+        }
+        List<SubsamplingScaleImageView> candidates;
+        synchronized (this) {
+            SubsamplingScaleImageView activeView = activeViewRef == null ? null : activeViewRef.get();
+            candidates = new ArrayList<SubsamplingScaleImageView>(registrations.size());
+            for (Registration registration : registrations) {
+                SubsamplingScaleImageView view = registration.viewRef.get();
+                if (view != null && view != activeView && registration.bytes > 0) {
+                    candidates.add(view);
+                }
+            }
+        }
+        for (SubsamplingScaleImageView view : candidates) {
+            if (usedBytes <= budget) {
+                return;
+            }
+            if (!isOnScreen(view)) {
+                view.releaseTiles(true);
+            }
+        }
+        for (SubsamplingScaleImageView view : candidates) {
+            if (usedBytes <= budget) {
+                return;
+            }
+            view.releaseTiles(false);
+        }
+    }
+
+    /**
+     * Determine whether any part of the view is currently on screen.
+     */
+    private boolean isOnScreen(SubsamplingScaleImageView view) {
+        return view.isShown() && view.getGlobalVisibleRect(visibleRect);
+    }
+
+    /**
+     * Find the registration for a view, optionally creating one. Registrations for views that have been garbage
+     * collected are removed, and their bytes deducted from the total.
+     */
+    private Registration findRegistration(SubsamplingScaleImageView view, boolean create) {
+        Registration found = null;
+        Iterator<Registration> iterator = registrations.iterator();
+        while (iterator.hasNext()) {
+            Registration registration = iterator.next();
+            SubsamplingScaleImageView registered = registration.viewRef.get();
+            if (registered == null) {
+                usedBytes -= registration.bytes;
+                iterator.remove();
+            } else if (registered == view) {
+                found = registration;
+            }
+        }
+        if (found == null && create) {
+            found = new Registration(view);
+            registrations.add(0, found);
+        }
+        return found;
+    }
+
+    /**
+     * Forwards trim callbacks to the manager. This is a separate class so that {@link ComponentCallbacks2} is never
+     * loaded on API levels that don't have it.
+     */
+    private static class TrimCallbacks implements ComponentCallbacks2 {
+        @Override
+        public void onTrimMemory(int level) {
+            getInstance().onTrimMemory(level);
+        }
+
+        @Override
+        public void onLowMemory() {
+            getInstance().onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) { }
+    }
+
+    private static class Registration {
+        private final WeakReference<SubsamplingScaleImageView> viewRef;
+        private long bytes;
+
+        private Registration(SubsamplingScaleImageView view) {
+            this.viewRef = new WeakReference<SubsamplingScaleImageView>(view);
+        }
+    }
+
+}
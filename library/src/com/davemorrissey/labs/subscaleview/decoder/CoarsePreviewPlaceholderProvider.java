@@ -0,0 +1,41 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.net.Uri;
+
+/**
+ * Placeholder provider that decodes the whole image with a large sample size. This works for any image the Skia
+ * decoder can read, but must read the whole file, so it is best used after a provider for embedded or cached
+ * thumbnails. It is still much quicker than decoding the base layer of a large image.
+ */
+public class CoarsePreviewPlaceholderProvider implements PlaceholderProvider {
+
+    private final int maxDimension;
+
+    /**
+     * @param maxDimension The preview is decoded with the smallest power of two sample size that makes its width and
+     *                     height no larger than this.
+     */
+    public CoarsePreviewPlaceholderProvider(int maxDimension) {
+        this.maxDimension = maxDimension;
+    }
+
+    @Override
+    public Placeholder getPlaceholder(Context context, Uri uri) throws Exception {
+        // Placeholders for several views may be decoded in parallel, and the decoder keeps the header it read
+        SkiaImageDecoder decoder = new SkiaImageDecoder();
+        Point dimensions = decoder.decodeBounds(context, uri);
+        if (dimensions.x <= 0 || dimensions.y <= 0) {
+            return null;
+        }
+        int sampleSize = 1;
+        while (dimensions.x / sampleSize > maxDimension || dimensions.y / sampleSize > maxDimension) {
+            sampleSize *= 2;
+        }
+        Bitmap bitmap = decoder.decode(context, uri, sampleSize);
+        return bitmap == null ? null : new Placeholder(bitmap, decoder.getImageHeader().getOrientation(), false);
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+/**
+ * Factory that creates a new instance of a decoder class for every image, as decoders were created before factories
+ * were introduced. The class must have a public default constructor.
+ * @param <T> The type of decoder.
+ */
+public class CompatDecoderFactory<T> implements DecoderFactory<T> {
+
+    private final Class<? extends T> clazz;
+
+    public CompatDecoderFactory(Class<? extends T> clazz) {
+        if (clazz == null) {
+            throw new IllegalArgumentException("Decoder class cannot be null");
+        }
+        this.clazz = clazz;
+    }
+
+    /**
+     * Returns the class of the decoders created.
+     */
+    public Class<? extends T> getDecoderClass() {
+        return clazz;
+    }
+
+    @Override
+    public T make() throws Exception {
+        return clazz.newInstance();
+    }
+
+    @Override
+    public void release(T decoder) {
+        // Instances are not reused
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+/**
+ * Interface for region decoders whose {@link #decodeRegion(android.graphics.Rect, int)} method can be thread safe.
+ * While {@link #isConcurrent()} returns true, tiles from these decoders are loaded in parallel on the
+ * {@link com.davemorrissey.labs.subscaleview.task.TileExecutor} (on API 11 and above) instead of one at a time.
+ * {@link #recycle()} is still never called while a region is being decoded.
+ */
+public interface ConcurrentImageRegionDecoder extends ImageRegionDecoder {
+
+    /**
+     * Returns true if regions of the current image can be decoded on several threads at once. This is checked after
+     * {@link #init(android.content.Context, android.net.Uri)}, so a decoder that falls back to a serial implementation
+     * for some images can return false for them.
+     */
+    boolean isConcurrent();
+
+}
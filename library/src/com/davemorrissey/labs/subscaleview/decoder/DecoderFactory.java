@@ -0,0 +1,26 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+/**
+ * Interface for factories that supply decoder instances, allowing decoders to be created by something other than
+ * reflection, and to be reused across images.
+ * @param <T> The type of decoder, {@link ImageDecoder} or {@link ImageRegionDecoder}.
+ */
+public interface DecoderFactory<T> {
+
+    /**
+     * Produce a decoder instance ready to be initialised with a new image. This method is called on a background
+     * thread.
+     * @return A decoder.
+     * @throws Exception if a decoder cannot be created.
+     */
+    T make() throws Exception;
+
+    /**
+     * Called when a decoder produced by this factory is no longer needed, after a region decoder has been recycled or
+     * an image decoder has finished decoding. Factories that pool decoders may keep it and return it from
+     * {@link #make()} again. This method may be called on any thread.
+     * @param decoder The decoder.
+     */
+    void release(T decoder);
+
+}
@@ -0,0 +1,123 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Factory that keeps released decoders and reuses them for later images, so decoders that are expensive to create,
+ * for example because they allocate native resources or initialise a library, are only created once. Decoders can
+ * also be created in advance with {@link #prewarm(int)}, for example while a gallery is opening.
+ *
+ * Pooled decoders must support being initialised again after they have been recycled. One pool can be shared by many
+ * views, and is thread safe.
+ * @param <T> The type of decoder.
+ */
+public class DecoderPool<T> implements DecoderFactory<T> {
+
+    private static final String TAG = DecoderPool.class.getSimpleName();
+
+    // Creates decoders for every pool one at a time, so prewarming never competes with itself for CPU or memory
+    private static Executor prewarmExecutor;
+
+    private final DecoderFactory<? extends T> source;
+    private final int maxIdle;
+    private final Deque<T> idle = new ArrayDeque<T>();
+
+    // Number of decoders queued to be created by prewarm
+    private int prewarming;
+
+    /**
+     * @param source Factory used to create new decoders when none are idle.
+     * @param maxIdle Maximum number of idle decoders kept. Decoders released while this many are idle are discarded.
+     */
+    public DecoderPool(DecoderFactory<? extends T> source, int maxIdle) {
+        this.source = source;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Create decoders on a background thread until the given number are idle. Decoders already idle or queued by an
+     * earlier call are counted, so repeated calls do not create more.
+     * @param count Number of idle decoders wanted, limited to the maximum idle count.
+     */
+    public void prewarm(int count) {
+        final int needed;
+        synchronized (this) {
+            needed = Math.min(count, maxIdle) - idle.size() - prewarming;
+            if (needed <= 0) {
+                return;
+            }
+            prewarming += needed;
+        }
+        getPrewarmExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < needed; i++) {
+                    T decoder;
+                    try {
+                        decoder = source.make();
+                    } catch (Exception e) {
+                        Log.w(TAG, "Failed to create decoder", e);
+                        synchronized (DecoderPool.this) {
+                            prewarming -= needed - i;
+                        }
+                        return;
+                    }
+                    synchronized (DecoderPool.this) {
+                        prewarming--;
+                        release(decoder);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the number of idle decoders.
+     */
+    public synchronized int idleCount() {
+        return idle.size();
+    }
+
+    @Override
+    public T make() throws Exception {
+        synchronized (this) {
+            T decoder = idle.poll();
+            if (decoder != null) {
+                return decoder;
+            }
+        }
+        return source.make();
+    }
+
+    @Override
+    public synchronized void release(T decoder) {
+        if (decoder != null && idle.size() < maxIdle) {
+            idle.push(decoder);
+        }
+    }
+
+    private static synchronized Executor getPrewarmExecutor() {
+        if (prewarmExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            prewarmExecutor = executor;
+        }
+        return prewarmExecutor;
+    }
+
+}
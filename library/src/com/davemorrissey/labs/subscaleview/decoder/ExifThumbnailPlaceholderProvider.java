@@ -0,0 +1,39 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import java.io.InputStream;
+
+/**
+ * Placeholder provider that uses the thumbnail embedded in the EXIF data of JPEG files, which most cameras write. The
+ * thumbnail is found with {@link ImageHeader} and decoded from the same read, so only the start of the file is read.
+ */
+public class ExifThumbnailPlaceholderProvider implements PlaceholderProvider {
+
+    @Override
+    public Placeholder getPlaceholder(Context context, Uri uri) throws Exception {
+        byte[] data = new byte[ImageHeader.HEADER_LENGTH];
+        int length;
+        InputStream stream = UriStreams.open(context, uri);
+        try {
+            length = ImageHeader.readFully(stream, data);
+        } finally {
+            stream.close();
+        }
+        ImageHeader header = ImageHeader.parse(data, length);
+        int offset = header.getThumbnailOffset();
+        int thumbnailLength = header.getThumbnailLength();
+        if (offset < 0 || offset + thumbnailLength > length) {
+            return null;
+        }
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, offset, thumbnailLength);
+        if (bitmap == null) {
+            return null;
+        }
+        return new Placeholder(bitmap, header.getOrientation(), false);
+    }
+
+}
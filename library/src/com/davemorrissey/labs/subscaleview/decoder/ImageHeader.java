@@ -0,0 +1,404 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.graphics.Bitmap.Config;
+import android.net.Uri;
+
+import com.davemorrissey.labs.subscaleview.TileMemoryManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Basic properties of an image read from the first few kilobytes of the file, without decoding any pixels. This is
+ * used to choose a bitmap config for each image, so that 565 is used for opaque images and 8888 is only used where
+ * alpha or smooth gradients need it. The EXIF orientation and the location of the EXIF thumbnail are read in the same
+ * pass, so the file does not need to be opened again to rotate the image, whatever its source.
+ */
+public class ImageHeader {
+
+    /** The format could not be identified. */
+    public static final int FORMAT_UNKNOWN = 0;
+    public static final int FORMAT_JPEG = 1;
+    public static final int FORMAT_PNG = 2;
+    public static final int FORMAT_GIF = 3;
+    public static final int FORMAT_WEBP = 4;
+    public static final int FORMAT_BMP = 5;
+    public static final int FORMAT_TIFF = 6;
+    public static final int FORMAT_RAW = 7;
+
+    // Number of bytes read from the start of the file
+    static final int HEADER_LENGTH = 64 * 1024;
+
+    private static final int TAG_IMAGE_WIDTH = 0x0100;
+    private static final int TAG_IMAGE_LENGTH = 0x0101;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+    private int format = FORMAT_UNKNOWN;
+    private int width;
+    private int height;
+    private boolean alpha = true;
+    private boolean smoothTones = false;
+    private int orientation;
+    private int thumbnailOffset = -1;
+    private int thumbnailLength;
+
+    /**
+     * Read the header of an image from a stream. The stream is not closed. If the format is not recognised or the
+     * header is truncated, the result reports the image may have alpha so that a lossless config is used.
+     * @param stream Stream positioned at the start of the image.
+     * @return Header properties.
+     */
+    public static ImageHeader read(InputStream stream) throws IOException {
+        byte[] buffer = new byte[HEADER_LENGTH];
+        return parse(buffer, readFully(stream, buffer));
+    }
+
+    /**
+     * Read the header of an image from a URI. The URI formats are as for
+     * {@link ImageRegionDecoder#init(Context, Uri)}.
+     * @param context Application context.
+     * @param uri URI of the image.
+     * @return Header properties.
+     * @throws Exception if the image can't be opened.
+     */
+    public static ImageHeader read(Context context, Uri uri) throws Exception {
+        InputStream stream = UriStreams.open(context, uri);
+        try {
+            return read(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Read from a stream until the buffer is full or the stream ends.
+     * @return Number of bytes read.
+     */
+    static int readFully(InputStream stream, byte[] buffer) throws IOException {
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = stream.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+        }
+        return length;
+    }
+
+    /**
+     * Parse the header of an image from the first bytes of the file.
+     * @param data Bytes from the start of the file.
+     * @param length Number of valid bytes.
+     * @return Header properties.
+     */
+    public static ImageHeader parse(byte[] data, int length) {
+        ImageHeader header = new ImageHeader();
+        try {
+            if (length >= 3 && u8(data, 0) == 0xFF && u8(data, 1) == 0xD8 && u8(data, 2) == 0xFF) {
+                header.parseJpeg(data, length);
+            } else if (length >= 8 && u8(data, 0) == 0x89 && data[1] == 'P' && data[2] == 'N' && data[3] == 'G') {
+                header.parsePng(data, length);
+            } else if (length >= 6 && data[0] == 'G' && data[1] == 'I' && data[2] == 'F') {
+                header.parseGif(data, length);
+            } else if (length >= 12 && data[0] == 'R' && data[1] == 'I' && data[2] == 'F' && data[3] == 'F' && data[8] == 'W' && data[9] == 'E' && data[10] == 'B' && data[11] == 'P') {
+                header.parseWebp(data, length);
+            } else if (length >= 2 && data[0] == 'B' && data[1] == 'M') {
+                header.parseBmp(data, length);
+            } else if (length >= 4 && ((data[0] == 'I' && data[1] == 'I') || (data[0] == 'M' && data[1] == 'M'))) {
+                // The first IFD may be anywhere in the file, so it can only be read if it is within the header
+                header.format = FORMAT_TIFF;
+                header.parseIfds(data, 0, length, true);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Truncated header, keep the conservative defaults for anything not yet read
+        }
+        return header;
+    }
+
+    /**
+     * Create a header from properties read by a decoder that parses the file itself.
+     */
+    static ImageHeader create(int format, int width, int height, boolean alpha, boolean smoothTones) {
+        return create(format, width, height, alpha, smoothTones, 0);
+    }
+
+    /**
+     * Create a header from properties read by a decoder that parses the file itself, including the orientation in
+     * degrees.
+     */
+    static ImageHeader create(int format, int width, int height, boolean alpha, boolean smoothTones, int orientation) {
+        ImageHeader header = new ImageHeader();
+        header.format = format;
+        header.width = width;
+        header.height = height;
+        header.alpha = alpha;
+        header.smoothTones = smoothTones;
+        header.orientation = orientation;
+        return header;
+    }
+
+    /**
+     * Returns the image format. See the FORMAT constants.
+     */
+    public int getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the image width, or 0 if it could not be read from the header.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the image height, or 0 if it could not be read from the header.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the clockwise rotation in degrees (0, 90, 180 or 270) needed to display the image upright, according to
+     * its EXIF orientation. Mirrored orientations are not supported and return 0.
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * Returns the offset from the start of the file of the JPEG thumbnail in the EXIF data, or -1 if there is none.
+     */
+    public int getThumbnailOffset() {
+        return thumbnailOffset;
+    }
+
+    /**
+     * Returns the length of the JPEG thumbnail in the EXIF data, or 0 if there is none.
+     */
+    public int getThumbnailLength() {
+        return thumbnailLength;
+    }
+
+    /**
+     * Returns true if the image has, or may have, transparent pixels.
+     */
+    public boolean hasAlpha() {
+        return alpha;
+    }
+
+    /**
+     * Returns true if the image is grayscale or has more than 8 bits per channel, so that 565 would cause visible
+     * banding in gradients.
+     */
+    public boolean hasSmoothTones() {
+        return smoothTones;
+    }
+
+    /**
+     * Choose the bitmap config for decoding the image at a sample size. Images with alpha always use ARGB_8888.
+     * Grayscale and high bit depth images use ARGB_8888 except for subsampled levels while the shared
+     * {@link TileMemoryManager} is constrained. All other images use RGB_565.
+     * @param sampleSize The sample size being decoded.
+     * @return The config to request.
+     */
+    public Config getPreferredConfig(int sampleSize) {
+        if (alpha) {
+            return Config.ARGB_8888;
+        } else if (smoothTones && (sampleSize == 1 || !TileMemoryManager.getInstance().isMemoryConstrained())) {
+            return Config.ARGB_8888;
+        }
+        return Config.RGB_565;
+    }
+
+    private void parseJpeg(byte[] data, int length) {
+        format = FORMAT_JPEG;
+        alpha = false;
+        int offset = 2;
+        while (offset + 4 <= length) {
+            if (u8(data, offset) != 0xFF) {
+                return;
+            }
+            int marker = u8(data, offset + 1);
+            if (marker == 0xFF) {
+                // Fill byte
+                offset++;
+                continue;
+            }
+            int segmentLength = u16be(data, offset + 2);
+            boolean sof = marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+            if (sof) {
+                smoothTones = u8(data, offset + 4) > 8 || u8(data, offset + 9) == 1;
+                height = u16be(data, offset + 5);
+                width = u16be(data, offset + 7);
+                return;
+            } else if (marker == 0xDA) {
+                return;
+            } else if (marker == 0xE1 && segmentLength >= 16 && data[offset + 4] == 'E' && data[offset + 5] == 'x' &&
+                    data[offset + 6] == 'i' && data[offset + 7] == 'f' && data[offset + 8] == 0 && data[offset + 9] == 0) {
+                parseIfds(data, offset + 10, Math.min(length, offset + 2 + segmentLength), false);
+            }
+            offset += 2 + segmentLength;
+        }
+    }
+
+    /**
+     * Read the orientation from IFD0 and the thumbnail location from IFD1 of a TIFF structure, which is either an
+     * EXIF block or a TIFF file.
+     * @param start Offset of the TIFF header. Offsets within the structure are relative to this.
+     * @param end End of the data that can be read.
+     * @param dimensions Whether to read the image dimensions from IFD0.
+     */
+    private void parseIfds(byte[] data, int start, int end, boolean dimensions) {
+        boolean le = data[start] == 'I';
+        if (u16(data, start + 2, le) != 42) {
+            return;
+        }
+        int ifd = start + s32(data, start + 4, le);
+        for (int i = 0; i < 2 && ifd > start && ifd + 2 <= end; i++) {
+            int entries = u16(data, ifd, le);
+            if (ifd + 2 + entries * 12 + 4 > end) {
+                return;
+            }
+            int thumbnail = -1;
+            for (int e = 0; e < entries; e++) {
+                int entry = ifd + 2 + e * 12;
+                int tag = u16(data, entry, le);
+                int type = u16(data, entry + 2, le);
+                // Single SHORT or LONG values are stored in the entry
+                int value = type == 3 ? u16(data, entry + 8, le) : s32(data, entry + 8, le);
+                if (i == 0 && tag == TAG_ORIENTATION) {
+                    orientation = value == 6 ? 90 : value == 3 ? 180 : value == 8 ? 270 : 0;
+                } else if (i == 0 && dimensions && tag == TAG_IMAGE_WIDTH) {
+                    width = value;
+                } else if (i == 0 && dimensions && tag == TAG_IMAGE_LENGTH) {
+                    height = value;
+                } else if (i == 1 && tag == TAG_THUMBNAIL_OFFSET) {
+                    thumbnail = start + value;
+                } else if (i == 1 && tag == TAG_THUMBNAIL_LENGTH) {
+                    thumbnailLength = value;
+                }
+            }
+            if (thumbnail > start && thumbnailLength > 0) {
+                thumbnailOffset = thumbnail;
+            } else {
+                thumbnailLength = 0;
+            }
+            ifd = start + s32(data, ifd + 2 + entries * 12, le);
+        }
+    }
+
+    private void parsePng(byte[] data, int length) {
+        format = FORMAT_PNG;
+        width = s32be(data, 16);
+        height = s32be(data, 20);
+        int bitDepth = u8(data, 24);
+        int colorType = u8(data, 25);
+        smoothTones = bitDepth > 8 || colorType == 0 || colorType == 4;
+        if (colorType == 4 || colorType == 6) {
+            return;
+        }
+        // Other color types have alpha only if there is a tRNS chunk, which must come before the first IDAT
+        int offset = 8;
+        while (offset + 8 <= length) {
+            int chunkLength = s32be(data, offset);
+            if (data[offset + 4] == 't' && data[offset + 5] == 'R' && data[offset + 6] == 'N' && data[offset + 7] == 'S') {
+                return;
+            } else if (data[offset + 4] == 'I' && data[offset + 5] == 'D' && data[offset + 6] == 'A' && data[offset + 7] == 'T') {
+                alpha = false;
+                return;
+            } else if (chunkLength < 0) {
+                return;
+            }
+            offset += 12 + chunkLength;
+        }
+    }
+
+    private void parseGif(byte[] data, int length) {
+        format = FORMAT_GIF;
+        width = u16le(data, 6);
+        height = u16le(data, 8);
+        int flags = u8(data, 10);
+        int offset = 13;
+        if ((flags & 0x80) != 0) {
+            offset += 3 * (1 << ((flags & 0x07) + 1));
+        }
+        // Transparency is set in a graphic control extension before the first image descriptor
+        while (offset + 1 < length) {
+            int introducer = u8(data, offset);
+            if (introducer == 0x21) {
+                int label = u8(data, offset + 1);
+                if (label == 0xF9 && (u8(data, offset + 3) & 0x01) != 0) {
+                    return;
+                }
+                offset += 2;
+                int blockSize;
+                while ((blockSize = u8(data, offset)) != 0) {
+                    offset += blockSize + 1;
+                }
+                offset++;
+            } else {
+                alpha = introducer != 0x2C;
+                return;
+            }
+        }
+    }
+
+    private void parseWebp(byte[] data, int length) {
+        format = FORMAT_WEBP;
+        if (length < 30) {
+            return;
+        }
+        if (data[12] == 'V' && data[13] == 'P' && data[14] == '8' && data[15] == ' ') {
+            alpha = false;
+            width = u16le(data, 26) & 0x3FFF;
+            height = u16le(data, 28) & 0x3FFF;
+        } else if (data[12] == 'V' && data[13] == 'P' && data[14] == '8' && data[15] == 'L') {
+            int bits = s32le(data, 21);
+            width = (bits & 0x3FFF) + 1;
+            height = ((bits >> 14) & 0x3FFF) + 1;
+            alpha = ((bits >> 28) & 0x01) != 0;
+        } else if (data[12] == 'V' && data[13] == 'P' && data[14] == '8' && data[15] == 'X') {
+            alpha = (u8(data, 20) & 0x10) != 0;
+            width = (u8(data, 24) | u8(data, 25) << 8 | u8(data, 26) << 16) + 1;
+            height = (u8(data, 27) | u8(data, 28) << 8 | u8(data, 29) << 16) + 1;
+        }
+    }
+
+    private void parseBmp(byte[] data, int length) {
+        format = FORMAT_BMP;
+        width = s32le(data, 18);
+        height = Math.abs(s32le(data, 22));
+        alpha = u16le(data, 28) == 32;
+    }
+
+    private static int u8(byte[] data, int offset) {
+        return data[offset] & 0xFF;
+    }
+
+    private static int u16be(byte[] data, int offset) {
+        return u8(data, offset) << 8 | u8(data, offset + 1);
+    }
+
+    private static int u16le(byte[] data, int offset) {
+        return u8(data, offset) | u8(data, offset + 1) << 8;
+    }
+
+    private static int s32be(byte[] data, int offset) {
+        return u16be(data, offset) << 16 | u16be(data, offset + 2);
+    }
+
+    private static int s32le(byte[] data, int offset) {
+        return u16le(data, offset) | u16le(data, offset + 2) << 16;
+    }
+
+    private static int u16(byte[] data, int offset, boolean le) {
+        return le ? u16le(data, offset) : u16be(data, offset);
+    }
+
+    private static int s32(byte[] data, int offset, boolean le) {
+        return le ? s32le(data, offset) : s32be(data, offset);
+    }
+
+}
@@ -0,0 +1,14 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+/**
+ * Implemented by decoders that read the {@link ImageHeader} of the image while initialising, so that its EXIF
+ * orientation can be used without opening the image again.
+ */
+public interface ImageHeaderSource {
+
+    /**
+     * Returns the header of the image, or null if it has not been read.
+     */
+    ImageHeader getImageHeader();
+
+}
@@ -0,0 +1,121 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import com.davemorrissey.labs.subscaleview.decoder.jpeg.JpegRegionReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Region decoder for baseline JPEGs using {@link JpegRegionReader}, which indexes the compressed data once so that any
+ * tile can be decoded without decoding the data before it, and regions can be decoded on several threads at once.
+ * Files are memory mapped rather than read onto the heap. Other URIs are read into memory.
+ *
+ * Images the reader does not support or fails to index, including progressive JPEGs and other formats, are decoded with
+ * {@link SkiaImageRegionDecoder} instead. That decoder serializes its own calls, so {@link #isConcurrent()} returns
+ * false for these images and tiles are loaded one at a time.
+ */
+public class JpegImageRegionDecoder implements ConcurrentImageRegionDecoder, ImageHeaderSource {
+
+    private static final String FILE_PREFIX = "file://";
+    private static final String ASSET_PREFIX = FILE_PREFIX + "/android_asset/";
+
+    private volatile JpegRegionReader reader;
+    private ImageHeader header;
+    private ImageRegionDecoder fallback;
+
+    @Override
+    public Point init(Context context, Uri uri) throws Exception {
+        reader = null;
+        fallback = null;
+        ByteBuffer data = load(context, uri);
+        try {
+            JpegRegionReader jpegReader = new JpegRegionReader(data);
+            byte[] headerBytes = new byte[Math.min(data.limit(), ImageHeader.HEADER_LENGTH)];
+            for (int i = 0; i < headerBytes.length; i++) {
+                headerBytes[i] = data.get(i);
+            }
+            header = ImageHeader.parse(headerBytes, headerBytes.length);
+            reader = jpegReader;
+            return new Point(jpegReader.getWidth(), jpegReader.getHeight());
+        } catch (Exception e) {
+            fallback = new SkiaImageRegionDecoder();
+            return fallback.init(context, uri);
+        }
+    }
+
+    @Override
+    public Bitmap decodeRegion(Rect sRect, int sampleSize) {
+        if (fallback != null) {
+            return fallback.decodeRegion(sRect, sampleSize);
+        }
+        JpegRegionReader jpegReader = reader;
+        if (jpegReader == null) {
+            return null;
+        }
+        int[] pixels = jpegReader.decodeRegion(sRect.left, sRect.top, sRect.right, sRect.bottom, sampleSize);
+        int width = JpegRegionReader.sampledLength(sRect.width(), sampleSize);
+        int height = JpegRegionReader.sampledLength(sRect.height(), sampleSize);
+        return Bitmap.createBitmap(pixels, width, height, header.getPreferredConfig(sampleSize));
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return fallback == null;
+    }
+
+    @Override
+    public ImageHeader getImageHeader() {
+        return fallback instanceof ImageHeaderSource ? ((ImageHeaderSource)fallback).getImageHeader() : header;
+    }
+
+    @Override
+    public boolean isReady() {
+        return fallback != null ? fallback.isReady() : reader != null;
+    }
+
+    @Override
+    public void recycle() {
+        if (fallback != null) {
+            fallback.recycle();
+        }
+        reader = null;
+    }
+
+    /**
+     * Map a file into memory, or read any other URI into a heap buffer.
+     */
+    private static ByteBuffer load(Context context, Uri uri) throws Exception {
+        String uriString = uri.toString();
+        if (uriString.startsWith(FILE_PREFIX) && !uriString.startsWith(ASSET_PREFIX)) {
+            RandomAccessFile file = new RandomAccessFile(uriString.substring(FILE_PREFIX.length()), "r");
+            try {
+                FileChannel channel = file.getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                file.close();
+            }
+        }
+        InputStream stream = UriStreams.open(context, uri);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return ByteBuffer.wrap(out.toByteArray());
+        } finally {
+            stream.close();
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Describes an image held in memory as raw pixels, for display with {@link PixelBufferRegionDecoder}. The buffer is
+ * not copied, so it must not be modified or freed while the image is displayed. Rows are read from the buffer's
+ * position onwards, each starting rowStride bytes after the previous one.
+ */
+public final class PixelBuffer {
+
+    /** Four bytes per pixel in the order red, green, blue, alpha. Colors are not premultiplied by alpha. */
+    public static final int FORMAT_RGBA_8888 = 1;
+    /** Three bytes per pixel in the order red, green, blue. */
+    public static final int FORMAT_RGB_888 = 2;
+    /** Two bytes per pixel, little endian, with red in the top five bits, as used by {@link android.graphics.Bitmap.Config#RGB_565}. */
+    public static final int FORMAT_RGB_565 = 3;
+    /** One byte per pixel, luminance only. */
+    public static final int FORMAT_GRAY_8 = 4;
+
+    private final ByteBuffer buffer;
+    private final int width;
+    private final int height;
+    private final int rowStride;
+    private final int format;
+
+    /**
+     * @param buffer Pixel data. A direct buffer avoids holding the image on the Java heap.
+     * @param width Width of the image in pixels.
+     * @param height Height of the image in pixels.
+     * @param rowStride Number of bytes from the start of one row to the start of the next.
+     * @param format One of the FORMAT_ constants.
+     */
+    public PixelBuffer(ByteBuffer buffer, int width, int height, int rowStride, int format) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("Buffer cannot be null");
+        }
+        int bytesPerPixel = bytesPerPixel(format);
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+        }
+        if (rowStride < width * bytesPerPixel) {
+            throw new IllegalArgumentException("Row stride " + rowStride + " is too small for " + width + " pixels");
+        }
+        if ((long)rowStride * (height - 1) + width * bytesPerPixel > buffer.remaining()) {
+            throw new IllegalArgumentException("Buffer is too small for the image");
+        }
+        this.buffer = buffer.slice();
+        this.width = width;
+        this.height = height;
+        this.rowStride = rowStride;
+        this.format = format;
+    }
+
+    /**
+     * Returns the number of bytes used by each pixel in the given format.
+     */
+    public static int bytesPerPixel(int format) {
+        switch (format) {
+            case FORMAT_RGBA_8888: return 4;
+            case FORMAT_RGB_888: return 3;
+            case FORMAT_RGB_565: return 2;
+            case FORMAT_GRAY_8: return 1;
+            default: throw new IllegalArgumentException("Invalid pixel format: " + format);
+        }
+    }
+
+    /**
+     * Returns a view of the pixel data starting at the first row. Each caller gets its own position and limit.
+     */
+    ByteBuffer duplicate() {
+        return buffer.duplicate();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getRowStride() {
+        return rowStride;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public boolean hasAlpha() {
+        return format == FORMAT_RGBA_8888;
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Region decoder for images generated in memory, which builds tiles straight from the raw pixels of a
+ * {@link PixelBuffer} without encoding the image. Register the buffer to get a URI for it, then display that URI with
+ * this decoder:
+ *
+ *     imageView.setDecoderClass(PixelBufferRegionDecoder.class);
+ *     imageView.setImageUri(PixelBufferRegionDecoder.register(pixelBuffer));
+ *
+ * When a region is sampled, each output pixel is the average of a block of source pixels. For large sample sizes the
+ * average is taken from an evenly spaced grid of at most {@value #MAX_TAPS} by {@value #MAX_TAPS} pixels in the block,
+ * so low resolution tiles of very large images remain quick to build. Regions are decoded in parallel.
+ */
+public class PixelBufferRegionDecoder implements ConcurrentImageRegionDecoder, ImageHeaderSource {
+
+    private static final String SCHEME = "pixels";
+
+    // Maximum number of pixels averaged across and down each block
+    private static final int MAX_TAPS = 4;
+
+    private static final Map<String, PixelBuffer> registry = new HashMap<String, PixelBuffer>();
+    private static int nextId;
+
+    private volatile PixelBuffer pixelBuffer;
+    private ImageHeader header;
+
+    /**
+     * Register a pixel buffer, returning a URI that can be displayed using this decoder. Each call returns a new URI.
+     * The buffer is held until it is unregistered.
+     * @param pixelBuffer The image to register.
+     * @return URI for the image.
+     */
+    public static Uri register(PixelBuffer pixelBuffer) {
+        if (pixelBuffer == null) {
+            throw new IllegalArgumentException("Pixel buffer cannot be null");
+        }
+        synchronized (registry) {
+            String uri = SCHEME + "://" + (++nextId);
+            registry.put(uri, pixelBuffer);
+            return Uri.parse(uri);
+        }
+    }
+
+    /**
+     * Release a pixel buffer registered with {@link #register(PixelBuffer)}. Views already displaying the image keep
+     * their reference to it until they are reset.
+     * @param uri URI returned when the buffer was registered.
+     */
+    public static void unregister(Uri uri) {
+        synchronized (registry) {
+            registry.remove(uri.toString());
+        }
+    }
+
+    @Override
+    public Point init(Context context, Uri uri) throws Exception {
+        PixelBuffer buffer;
+        synchronized (registry) {
+            buffer = registry.get(uri.toString());
+        }
+        if (buffer == null) {
+            throw new FileNotFoundException("No pixel buffer registered for " + uri);
+        }
+        header = ImageHeader.create(ImageHeader.FORMAT_RAW, buffer.getWidth(), buffer.getHeight(), buffer.hasAlpha(), buffer.getFormat() != PixelBuffer.FORMAT_RGB_565);
+        pixelBuffer = buffer;
+        return new Point(buffer.getWidth(), buffer.getHeight());
+    }
+
+    @Override
+    public Bitmap decodeRegion(Rect sRect, int sampleSize) {
+        PixelBuffer buffer = pixelBuffer;
+        if (buffer == null) {
+            return null;
+        }
+        int left = Math.max(0, sRect.left);
+        int top = Math.max(0, sRect.top);
+        int right = Math.min(buffer.getWidth(), sRect.right);
+        int bottom = Math.min(buffer.getHeight(), sRect.bottom);
+        if (right <= left || bottom <= top) {
+            return null;
+        }
+        int sample = Math.max(1, sampleSize);
+        int width = (right - left + sample - 1) / sample;
+        int height = (bottom - top + sample - 1) / sample;
+        int[] pixels = new int[width * height];
+        decode(buffer, left, top, right, bottom, sample, width, height, pixels);
+        return Bitmap.createBitmap(pixels, width, height, header.getPreferredConfig(sampleSize));
+    }
+
+    /**
+     * Average each block of source pixels into one ARGB pixel. Source rows are read with a bulk copy, and only the
+     * rows and columns sampled are converted.
+     */
+    private static void decode(PixelBuffer buffer, int left, int top, int right, int bottom, int sample, int width, int height, int[] pixels) {
+        ByteBuffer data = buffer.duplicate();
+        int format = buffer.getFormat();
+        int bytesPerPixel = PixelBuffer.bytesPerPixel(format);
+        int rowStride = buffer.getRowStride();
+        boolean alpha = buffer.hasAlpha();
+        int step = (sample + MAX_TAPS - 1) / MAX_TAPS;
+        byte[] row = new byte[(right - left) * bytesPerPixel];
+        int[] sumA = new int[width];
+        int[] sumR = new int[width];
+        int[] sumG = new int[width];
+        int[] sumB = new int[width];
+        int[] count = new int[width];
+        for (int outY = 0; outY < height; outY++) {
+            for (int i = 0; i < width; i++) {
+                sumA[i] = sumR[i] = sumG[i] = sumB[i] = count[i] = 0;
+            }
+            int blockBottom = Math.min(bottom, top + (outY + 1) * sample);
+            for (int y = top + outY * sample; y < blockBottom; y += step) {
+                data.position(y * rowStride + left * bytesPerPixel);
+                data.get(row);
+                for (int outX = 0; outX < width; outX++) {
+                    int blockRight = Math.min(right, left + (outX + 1) * sample) - left;
+                    for (int x = outX * sample; x < blockRight; x += step) {
+                        int p = x * bytesPerPixel;
+                        int r, g, b;
+                        int a = 255;
+                        if (format == PixelBuffer.FORMAT_RGBA_8888) {
+                            r = row[p] & 0xFF;
+                            g = row[p + 1] & 0xFF;
+                            b = row[p + 2] & 0xFF;
+                            a = row[p + 3] & 0xFF;
+                        } else if (format == PixelBuffer.FORMAT_RGB_888) {
+                            r = row[p] & 0xFF;
+                            g = row[p + 1] & 0xFF;
+                            b = row[p + 2] & 0xFF;
+                        } else if (format == PixelBuffer.FORMAT_RGB_565) {
+                            int value = (row[p] & 0xFF) | (row[p + 1] & 0xFF) << 8;
+                            r = value >> 11 & 0x1F;
+                            g = value >> 5 & 0x3F;
+                            b = value & 0x1F;
+                            r = r << 3 | r >> 2;
+                            g = g << 2 | g >> 4;
+                            b = b << 3 | b >> 2;
+                        } else {
+                            r = g = b = row[p] & 0xFF;
+                        }
+                        if (alpha) {
+                            // Weight colors by alpha so transparent pixels don't darken the average
+                            r *= a;
+                            g *= a;
+                            b *= a;
+                        }
+                        sumA[outX] += a;
+                        sumR[outX] += r;
+                        sumG[outX] += g;
+                        sumB[outX] += b;
+                        count[outX]++;
+                    }
+                }
+            }
+            int out = outY * width;
+            for (int outX = 0; outX < width; outX++) {
+                int n = count[outX];
+                int a = sumA[outX];
+                int divisor = alpha ? a : n;
+                if (divisor == 0) {
+                    pixels[out + outX] = 0;
+                } else {
+                    pixels[out + outX] = (a / n) << 24 | (sumR[outX] / divisor) << 16 | (sumG[outX] / divisor) << 8 | (sumB[outX] / divisor);
+                }
+            }
+        }
+    }
+
+    @Override
+    public ImageHeader getImageHeader() {
+        return header;
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    @Override
+    public boolean isReady() {
+        return pixelBuffer != null;
+    }
+
+    @Override
+    public void recycle() {
+        pixelBuffer = null;
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.graphics.Bitmap;
+
+/**
+ * A low resolution image displayed scaled up while the full image is being decoded. See {@link PlaceholderProvider}.
+ */
+public final class Placeholder {
+
+    private final Bitmap bitmap;
+    private final int orientation;
+    private final boolean shared;
+
+    /**
+     * @param bitmap The placeholder image, in the same orientation as the pixels of the image file.
+     * @param orientation EXIF rotation of the image file in degrees, if known, otherwise 0. This is only used until
+     *                    the decoder has read the orientation of the full image.
+     * @param shared True if the bitmap is owned by someone else, such as a cache, so the view must not recycle it.
+     */
+    public Placeholder(Bitmap bitmap, int orientation, boolean shared) {
+        this.bitmap = bitmap;
+        this.orientation = orientation;
+        this.shared = shared;
+    }
+
+    public Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    public int getOrientation() {
+        return orientation;
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Recycle the bitmap, unless it is shared.
+     */
+    public void recycle() {
+        if (!shared) {
+            bitmap.recycle();
+        }
+    }
+
+}
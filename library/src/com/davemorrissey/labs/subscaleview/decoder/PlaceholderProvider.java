@@ -0,0 +1,24 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.net.Uri;
+
+/**
+ * Interface for classes that can quickly supply a low resolution version of an image, which
+ * {@link com.davemorrissey.labs.subscaleview.SubsamplingScaleImageView} displays scaled up from the moment the image
+ * is set until its base layer has been decoded. Providers are consulted in order, and the first placeholder returned
+ * is used. Implementations should be quick, because a placeholder that arrives after the base layer is discarded.
+ */
+public interface PlaceholderProvider {
+
+    /**
+     * Find or create a placeholder for an image. This method is called on a background thread. The URI formats are as
+     * for {@link ImageRegionDecoder#init(Context, Uri)}.
+     * @param context Application context. A reference must not be held.
+     * @param uri URI of the image.
+     * @return A placeholder, or null if this provider has none for the image.
+     * @throws Exception if the placeholder can't be loaded. The next provider is tried.
+     */
+    Placeholder getPlaceholder(Context context, Uri uri) throws Exception;
+
+}
@@ -0,0 +1,36 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.net.Uri;
+
+/**
+ * An {@link ImageDecoder} that can read the dimensions of an image without decoding it, and decode it subsampled.
+ * {@link com.davemorrissey.labs.subscaleview.ScaleImageView} uses this to decode images no larger than the view
+ * needs, and to decode at higher resolution as the user zooms in. Decoders that don't implement this interface always
+ * decode the full image.
+ */
+public interface SampledImageDecoder extends ImageDecoder {
+
+    /**
+     * Read the dimensions of an image without decoding it. The URI formats are as for
+     * {@link ImageDecoder#decode(Context, Uri)}.
+     * @param context Application context. A reference may be held, but must be cleared on recycle.
+     * @param uri URI of the image.
+     * @return Dimensions of the image.
+     * @throws Exception if the image can't be read.
+     */
+    Point decodeBounds(Context context, Uri uri) throws Exception;
+
+    /**
+     * Decode an image with the given sample size. The URI formats are as for {@link ImageDecoder#decode(Context, Uri)}.
+     * @param context Application context. A reference may be held, but must be cleared on recycle.
+     * @param uri URI of the image.
+     * @param sampleSize Sample size, a power of two.
+     * @return The decoded image.
+     * @throws Exception if decoding fails.
+     */
+    Bitmap decode(Context context, Uri uri, int sampleSize) throws Exception;
+
+}
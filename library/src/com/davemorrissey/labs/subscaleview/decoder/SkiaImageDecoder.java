@@ -2,56 +2,74 @@ package com.davemorrissey.labs.subscaleview.decoder;
 
 import android.content.ContentResolver;
 import android.content.Context;
-import android.content.pm.PackageManager;
-import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Point;
 import android.net.Uri;
-import android.text.TextUtils;
-
-import java.util.List;
 
 /**
  * Default implementation of {@link com.davemorrissey.labs.subscaleview.decoder.ImageDecoder}
  * using Android's {@link android.graphics.BitmapFactory}, based on the Skia library. This
  * works well in most circumstances and has reasonable performance, however it has some problems
  * with grayscale, indexed and CMYK images.
+ *
+ * The bitmap config is chosen per image from its header, see {@link ImageHeader#getPreferredConfig(int)}.
  */
-public class SkiaImageDecoder implements ImageDecoder {
+public class SkiaImageDecoder implements SampledImageDecoder, ImageHeaderSource {
 
     private static final String FILE_PREFIX = "file://";
     private static final String ASSET_PREFIX = FILE_PREFIX + "/android_asset/";
     private static final String RESOURCE_PREFIX = ContentResolver.SCHEME_ANDROID_RESOURCE + "://";
 
+    private ImageHeader header;
+    private Uri headerUri;
+
     @Override
     public Bitmap decode(Context context, Uri uri) throws Exception {
-        String uriString = uri.toString();
+        return decode(context, uri, 1);
+    }
+
+    @Override
+    public Point decodeBounds(Context context, Uri uri) throws Exception {
+        ImageHeader header = readHeader(context, uri);
+        if (header.getWidth() > 0 && header.getHeight() > 0) {
+            return new Point(header.getWidth(), header.getHeight());
+        }
         BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inPreferredConfig = Bitmap.Config.RGB_565;
-        options.inDither = true;
-        if (uriString.startsWith(RESOURCE_PREFIX)) {
-            Resources res;
-            String packageName = uri.getAuthority();
-            if (context.getPackageName().equals(packageName)) {
-                res = context.getResources();
-            } else {
-                PackageManager pm = context.getPackageManager();
-                res = pm.getResourcesForApplication(packageName);
-            }
+        options.inJustDecodeBounds = true;
+        decode(context, uri, options);
+        return new Point(options.outWidth, options.outHeight);
+    }
+
+    @Override
+    public Bitmap decode(Context context, Uri uri, int sampleSize) throws Exception {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = readHeader(context, uri).getPreferredConfig(sampleSize);
+        options.inDither = options.inPreferredConfig == Bitmap.Config.RGB_565;
+        return decode(context, uri, options);
+    }
+
+    @Override
+    public ImageHeader getImageHeader() {
+        return header;
+    }
 
-            int id = 0;
-            List<String> segments = uri.getPathSegments();
-            int size = segments.size();
-            if (size == 2 && segments.get(0).equals("drawable")) {
-                String resName = segments.get(1);
-                id = res.getIdentifier(resName, "drawable", packageName);
-            } else if (size == 1 && TextUtils.isDigitsOnly(segments.get(0))) {
-                try {
-                    id = Integer.parseInt(segments.get(0));
-                } catch (NumberFormatException ignored) {
-                }
-            }
+    /**
+     * Read the image header once per image, for the bitmap config and dimensions.
+     */
+    private ImageHeader readHeader(Context context, Uri uri) throws Exception {
+        if (header == null || !uri.equals(headerUri)) {
+            header = ImageHeader.read(context, uri);
+            headerUri = uri;
+        }
+        return header;
+    }
 
+    private Bitmap decode(Context context, Uri uri, BitmapFactory.Options options) throws Exception {
+        String uriString = uri.toString();
+        if (uriString.startsWith(RESOURCE_PREFIX)) {
+            int id = UriStreams.resourceId(context, uri);
             return BitmapFactory.decodeResource(context.getResources(), id, options);
         } else if (uriString.startsWith(ASSET_PREFIX)) {
             String assetName = uriString.substring(ASSET_PREFIX.length());
@@ -2,25 +2,23 @@ package com.davemorrissey.labs.subscaleview.decoder;
 
 import android.content.ContentResolver;
 import android.content.Context;
-import android.content.pm.PackageManager;
 import android.content.res.AssetManager;
-import android.content.res.Resources;
 import android.graphics.*;
 import android.graphics.Bitmap.Config;
 import android.net.Uri;
-import android.text.TextUtils;
-
-import java.util.List;
 
 /**
  * Default implementation of {@link com.davemorrissey.labs.subscaleview.decoder.ImageRegionDecoder}
  * using Android's {@link android.graphics.BitmapRegionDecoder}, based on the Skia library. This
  * works well in most circumstances and has reasonable performance due to the cached decoder instance,
  * however it has some problems with grayscale, indexed and CMYK images.
+ *
+ * The bitmap config is chosen per image from its header, see {@link ImageHeader#getPreferredConfig(int)}.
  */
-public class SkiaImageRegionDecoder implements ImageRegionDecoder {
+public class SkiaImageRegionDecoder implements ImageRegionDecoder, ImageHeaderSource {
 
     private BitmapRegionDecoder decoder;
+    private ImageHeader header;
     private final Object decoderLock = new Object();
 
     private static final String FILE_PREFIX = "file://";
@@ -29,30 +27,10 @@ public class SkiaImageRegionDecoder implements ImageRegionDecoder {
 
     @Override
     public Point init(Context context, Uri uri) throws Exception {
+        header = ImageHeader.read(context, uri);
         String uriString = uri.toString();
         if (uriString.startsWith(RESOURCE_PREFIX)) {
-            Resources res;
-            String packageName = uri.getAuthority();
-            if (context.getPackageName().equals(packageName)) {
-                res = context.getResources();
-            } else {
-                PackageManager pm = context.getPackageManager();
-                res = pm.getResourcesForApplication(packageName);
-            }
-
-            int id = 0;
-            List<String> segments = uri.getPathSegments();
-            int size = segments.size();
-            if (size == 2 && segments.get(0).equals("drawable")) {
-                String resName = segments.get(1);
-                id = res.getIdentifier(resName, "drawable", packageName);
-            } else if (size == 1 && TextUtils.isDigitsOnly(segments.get(0))) {
-                try {
-                    id = Integer.parseInt(segments.get(0));
-                } catch (NumberFormatException ignored) {
-                }
-            }
-
+            int id = UriStreams.resourceId(context, uri);
             decoder = BitmapRegionDecoder.newInstance(context.getResources().openRawResource(id), false);
         } else if (uriString.startsWith(ASSET_PREFIX)) {
             String assetName = uriString.substring(ASSET_PREFIX.length());
@@ -71,12 +49,17 @@ public class SkiaImageRegionDecoder implements ImageRegionDecoder {
         synchronized (decoderLock) {
             BitmapFactory.Options options = new BitmapFactory.Options();
             options.inSampleSize = sampleSize;
-            options.inPreferredConfig = Config.RGB_565;
-            options.inDither = true;
+            options.inPreferredConfig = header.getPreferredConfig(sampleSize);
+            options.inDither = options.inPreferredConfig == Config.RGB_565;
             return decoder.decodeRegion(sRect, options);
         }
     }
 
+    @Override
+    public ImageHeader getImageHeader() {
+        return header;
+    }
+
     @Override
     public boolean isReady() {
         return decoder != null && !decoder.isRecycled();
@@ -0,0 +1,66 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Placeholder provider backed by thumbnails the app already has, for example those displayed in a gallery grid
+ * before the user opens an image. Add thumbnails with {@link #put(Uri, Bitmap)}. The least recently used thumbnails
+ * are dropped when the cache is full. Bitmaps are shared with the app, so the view never recycles them.
+ *
+ * One instance can be shared by all views, and is thread safe.
+ */
+public class ThumbnailCachePlaceholderProvider implements PlaceholderProvider {
+
+    private final Map<String, Bitmap> thumbnails;
+
+    /**
+     * @param maxEntries Maximum number of thumbnails held.
+     */
+    public ThumbnailCachePlaceholderProvider(final int maxEntries) {
+        this.thumbnails = new LinkedHashMap<String, Bitmap>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Bitmap> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Add a thumbnail for an image. The thumbnail must have the same orientation as the pixels of the image file, and
+     * must not be recycled while it is in the cache.
+     * @param uri URI of the full image, as it will be passed to the view.
+     * @param thumbnail The thumbnail.
+     */
+    public synchronized void put(Uri uri, Bitmap thumbnail) {
+        thumbnails.put(uri.toString(), thumbnail);
+    }
+
+    /**
+     * Remove the thumbnail for an image, if there is one.
+     */
+    public synchronized void remove(Uri uri) {
+        thumbnails.remove(uri.toString());
+    }
+
+    /**
+     * Remove all thumbnails.
+     */
+    public synchronized void clear() {
+        thumbnails.clear();
+    }
+
+    @Override
+    public synchronized Placeholder getPlaceholder(Context context, Uri uri) {
+        Bitmap thumbnail = thumbnails.get(uri.toString());
+        if (thumbnail == null || thumbnail.isRecycled()) {
+            return null;
+        }
+        return new Placeholder(thumbnail, 0, true);
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import com.davemorrissey.labs.subscaleview.decoder.tiff.TiffReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Region decoder for tiled and stripped TIFF and BigTIFF images using {@link TiffReader}, which Android's
+ * {@link android.graphics.BitmapRegionDecoder} cannot read. Only the tiles overlapping each region are decompressed,
+ * and reduced resolution images embedded in the file are used for large sample sizes. Files are memory mapped rather
+ * than read onto the heap. Other URIs are read into memory. Regions are decoded in parallel.
+ */
+public class TiffImageRegionDecoder implements ConcurrentImageRegionDecoder, ImageHeaderSource {
+
+    private static final String FILE_PREFIX = "file://";
+    private static final String ASSET_PREFIX = FILE_PREFIX + "/android_asset/";
+
+    private volatile TiffReader reader;
+    private ImageHeader header;
+
+    @Override
+    public Point init(Context context, Uri uri) throws Exception {
+        String uriString = uri.toString();
+        TiffReader tiffReader;
+        if (uriString.startsWith(FILE_PREFIX) && !uriString.startsWith(ASSET_PREFIX)) {
+            RandomAccessFile file = new RandomAccessFile(uriString.substring(FILE_PREFIX.length()), "r");
+            try {
+                tiffReader = new TiffReader(file.getChannel());
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+        } else {
+            tiffReader = new TiffReader(read(context, uri));
+        }
+        header = ImageHeader.create(ImageHeader.FORMAT_TIFF, tiffReader.getWidth(), tiffReader.getHeight(), tiffReader.hasAlpha(), tiffReader.hasSmoothTones(), tiffReader.getOrientation());
+        reader = tiffReader;
+        return new Point(tiffReader.getWidth(), tiffReader.getHeight());
+    }
+
+    @Override
+    public Bitmap decodeRegion(Rect sRect, int sampleSize) {
+        TiffReader tiffReader = reader;
+        if (tiffReader == null) {
+            return null;
+        }
+        int[] pixels;
+        try {
+            pixels = tiffReader.decodeRegion(sRect.left, sRect.top, sRect.right, sRect.bottom, sampleSize);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to decode TIFF region " + sRect, e);
+        }
+        int width = TiffReader.sampledLength(sRect.width(), sampleSize);
+        int height = TiffReader.sampledLength(sRect.height(), sampleSize);
+        return Bitmap.createBitmap(pixels, width, height, header.getPreferredConfig(sampleSize));
+    }
+
+    @Override
+    public ImageHeader getImageHeader() {
+        return header;
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    @Override
+    public boolean isReady() {
+        return reader != null;
+    }
+
+    @Override
+    public void recycle() {
+        TiffReader tiffReader = reader;
+        reader = null;
+        if (tiffReader != null) {
+            try {
+                tiffReader.close();
+            } catch (IOException e) {
+                // Nothing more can be done
+            }
+        }
+    }
+
+    private static ByteBuffer read(Context context, Uri uri) throws Exception {
+        InputStream stream = UriStreams.open(context, uri);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return ByteBuffer.wrap(out.toByteArray());
+        } finally {
+            stream.close();
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.graphics.Rect;
+
+/**
+ * Interface for images whose tiles are computed rather than decoded from a file, for example heatmaps, fractals or
+ * composites of other images. Display one with
+ * {@link com.davemorrissey.labs.subscaleview.SubsamplingScaleImageView#setTileSource(TileSource)}. Tiles are
+ * requested, cached and released exactly as decoded tiles are, and rendered in parallel on the tile executor,
+ * so the image can be far larger than could ever be held in memory.
+ */
+public interface TileSource {
+
+    /**
+     * Prepare the source. This is called on a background thread before any tile is rendered.
+     * @param context Application context. A reference may be held, but must be cleared on recycle.
+     * @return Dimensions of the full resolution image.
+     * @throws Exception if the source cannot be prepared.
+     */
+    Point init(Context context) throws Exception;
+
+    /**
+     * Render a region of the image at reduced resolution. This method is called on worker threads, and may be called
+     * by several threads at once, so it must be thread safe.
+     * @param level Level of detail, 0 for full resolution. Each level above 0 halves the resolution.
+     * @param sRect Region of the full resolution image to render.
+     * @param sampleSize Reduction in resolution, 2 raised to the power of the level. The bitmap returned should be
+     *                   sRect's width and height divided by this, rounded up.
+     * @return The rendered tile. It is safe to return null if rendering fails.
+     */
+    Bitmap renderTile(int level, Rect sRect, int sampleSize);
+
+    /**
+     * Called when the source is no longer displayed. It should clean up any resources still in use.
+     */
+    void recycle();
+
+}
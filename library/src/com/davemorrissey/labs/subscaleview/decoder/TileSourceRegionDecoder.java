@@ -0,0 +1,66 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.net.Uri;
+
+/**
+ * Adapts a {@link TileSource} to the region decoder interface, so computed tiles are loaded by the same tasks as
+ * decoded ones. The URI is ignored. Regions are rendered in parallel.
+ */
+public class TileSourceRegionDecoder implements ConcurrentImageRegionDecoder, ImageHeaderSource {
+
+    private final TileSource tileSource;
+    private volatile boolean ready;
+    private ImageHeader header;
+
+    public TileSourceRegionDecoder(TileSource tileSource) {
+        if (tileSource == null) {
+            throw new IllegalArgumentException("Tile source cannot be null");
+        }
+        this.tileSource = tileSource;
+    }
+
+    @Override
+    public Point init(Context context, Uri uri) throws Exception {
+        Point dimensions = tileSource.init(context);
+        header = ImageHeader.create(ImageHeader.FORMAT_RAW, dimensions.x, dimensions.y, true, true);
+        ready = true;
+        return dimensions;
+    }
+
+    @Override
+    public Bitmap decodeRegion(Rect sRect, int sampleSize) {
+        if (!ready) {
+            return null;
+        }
+        int level = 31 - Integer.numberOfLeadingZeros(Math.max(1, sampleSize));
+        return tileSource.renderTile(level, sRect, sampleSize);
+    }
+
+    @Override
+    public ImageHeader getImageHeader() {
+        return header;
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public void recycle() {
+        if (ready) {
+            ready = false;
+            tileSource.recycle();
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Opens input streams for the URI formats supported by the default decoders.
+ */
+final class UriStreams {
+
+    private static final String FILE_PREFIX = "file://";
+    private static final String ASSET_PREFIX = FILE_PREFIX + "/android_asset/";
+    private static final String RESOURCE_PREFIX = ContentResolver.SCHEME_ANDROID_RESOURCE + "://";
+
+    private UriStreams() { }
+
+    /**
+     * Open a stream for an image URI. The URI can be in one of the following formats:
+     * File: file:///scard/picture.jpg
+     * Asset: file:///android_asset/picture.png
+     * Resource: android.resource://com.example.app/drawable/picture
+     * Any other URI is opened with the content resolver. The caller must close the stream.
+     */
+    static InputStream open(Context context, Uri uri) throws Exception {
+        String uriString = uri.toString();
+        if (uriString.startsWith(RESOURCE_PREFIX)) {
+            return context.getResources().openRawResource(resourceId(context, uri));
+        } else if (uriString.startsWith(ASSET_PREFIX)) {
+            return context.getAssets().open(uriString.substring(ASSET_PREFIX.length()));
+        } else if (uriString.startsWith(FILE_PREFIX)) {
+            return new FileInputStream(uriString.substring(FILE_PREFIX.length()));
+        } else {
+            ContentResolver contentResolver = context.getContentResolver();
+            return contentResolver.openInputStream(uri);
+        }
+    }
+
+    /**
+     * Resolve the resource ID from a resource URI, which can use either the drawable name or the numeric ID.
+     */
+    static int resourceId(Context context, Uri uri) throws PackageManager.NameNotFoundException {
+        Resources res;
+        String packageName = uri.getAuthority();
+        if (context.getPackageName().equals(packageName)) {
+            res = context.getResources();
+        } else {
+            PackageManager pm = context.getPackageManager();
+            res = pm.getResourcesForApplication(packageName);
+        }
+
+        int id = 0;
+        List<String> segments = uri.getPathSegments();
+        int size = segments.size();
+        if (size == 2 && segments.get(0).equals("drawable")) {
+            String resName = segments.get(1);
+            id = res.getIdentifier(resName, "drawable", packageName);
+        } else if (size == 1 && TextUtils.isDigitsOnly(segments.get(0))) {
+            try {
+                id = Integer.parseInt(segments.get(0));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return id;
+    }
+
+}
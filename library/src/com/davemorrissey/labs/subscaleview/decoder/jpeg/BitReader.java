@@ -0,0 +1,121 @@
+package com.davemorrissey.labs.subscaleview.decoder.jpeg;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads bits from JPEG entropy coded data, removing stuffed zero bytes. When a marker is reached, zero bits are
+ * returned until the reader is restarted or repositioned. The complete state is the byte position, bit buffer and bit
+ * count, so it can be saved in an index and restored to resume decoding from any point.
+ */
+final class BitReader {
+
+    private final ByteBuffer data;
+    private final int limit;
+
+    // Position of the next byte to load into the bit buffer
+    int position;
+
+    // Loaded bits, of which the lowest bitCount are unread
+    int bitBuffer;
+    int bitCount;
+
+    BitReader(ByteBuffer data) {
+        this.data = data;
+        this.limit = data.limit();
+    }
+
+    /**
+     * Restore a saved state.
+     */
+    void reset(int position, int bitBuffer, int bitCount) {
+        this.position = position;
+        this.bitBuffer = bitBuffer;
+        this.bitCount = bitCount;
+    }
+
+    /**
+     * Load bytes until at least 25 bits are available.
+     */
+    private void fill() {
+        while (bitCount <= 24) {
+            int b = 0;
+            if (position < limit) {
+                b = data.get(position) & 0xFF;
+                if (b == 0xFF) {
+                    int next = position + 1 < limit ? data.get(position + 1) & 0xFF : 0;
+                    if (next == 0) {
+                        position += 2;
+                    } else {
+                        // Marker, pad with zeros without consuming it
+                        b = 0;
+                    }
+                } else {
+                    position++;
+                }
+            }
+            bitBuffer = (bitBuffer << 8) | b;
+            bitCount += 8;
+        }
+    }
+
+    /**
+     * Returns the next n bits without consuming them. n must be no more than 16.
+     */
+    int peek(int n) {
+        if (bitCount < n) {
+            fill();
+        }
+        return (bitBuffer >>> (bitCount - n)) & ((1 << n) - 1);
+    }
+
+    /**
+     * Consume n bits that have been peeked.
+     */
+    void skip(int n) {
+        bitCount -= n;
+    }
+
+    /**
+     * Read n bits. n must be no more than 16.
+     */
+    int getBits(int n) {
+        if (n == 0) {
+            return 0;
+        }
+        if (bitCount < n) {
+            fill();
+        }
+        bitCount -= n;
+        return (bitBuffer >>> bitCount) & ((1 << n) - 1);
+    }
+
+    /**
+     * Read an n bit value and extend its sign as defined for coefficient magnitudes.
+     */
+    int receiveExtend(int n) {
+        int value = getBits(n);
+        return value < (1 << (n - 1)) ? value - (1 << n) + 1 : value;
+    }
+
+    /**
+     * Discard remaining bits of the current restart interval and move past the next RST marker.
+     */
+    void restart() {
+        bitBuffer = 0;
+        bitCount = 0;
+        while (position + 1 < limit) {
+            if ((data.get(position) & 0xFF) == 0xFF) {
+                int marker = data.get(position + 1) & 0xFF;
+                if (marker >= 0xD0 && marker <= 0xD7) {
+                    position += 2;
+                    return;
+                } else if (marker != 0xFF && marker != 0x00) {
+                    // Another marker, such as EOI. Leave it so zeros are returned.
+                    return;
+                }
+            }
+            position++;
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.davemorrissey.labs.subscaleview.decoder.jpeg;
+
+import java.io.IOException;
+
+/**
+ * A JPEG Huffman table. Codes of up to 9 bits are decoded with a single lookup, and longer codes by comparing against
+ * the first canonical code of each length.
+ */
+final class HuffmanTable {
+
+    private static final int FAST_BITS = 9;
+
+    // Length and symbol for each FAST_BITS prefix, as (length << 8) | symbol, or -1 for longer codes
+    private final short[] fast = new short[1 << FAST_BITS];
+
+    // First code, index of its symbol and number of codes for each code length
+    private final int[] firstCode = new int[17];
+    private final int[] firstIndex = new int[17];
+    private final int[] counts = new int[17];
+
+    private final byte[] symbols;
+
+    /**
+     * Create a table from the contents of a DHT segment.
+     * @param counts Number of codes of each length, indexed from 1 to 16.
+     * @param symbols Symbols in order of increasing code length.
+     */
+    HuffmanTable(int[] counts, byte[] symbols) throws IOException {
+        this.symbols = symbols;
+        for (int i = 0; i < fast.length; i++) {
+            fast[i] = -1;
+        }
+        int code = 0;
+        int index = 0;
+        for (int length = 1; length <= 16; length++) {
+            this.firstCode[length] = code;
+            this.firstIndex[length] = index;
+            this.counts[length] = counts[length];
+            for (int i = 0; i < counts[length]; i++) {
+                if (index >= symbols.length) {
+                    throw new IOException("Invalid Huffman table");
+                }
+                if (length <= FAST_BITS) {
+                    int shift = FAST_BITS - length;
+                    int base = code << shift;
+                    for (int j = 0; j < 1 << shift; j++) {
+                        fast[base + j] = (short)((length << 8) | (symbols[index] & 0xFF));
+                    }
+                }
+                code++;
+                index++;
+            }
+            if (code > 1 << length) {
+                throw new IOException("Invalid Huffman table");
+            }
+            code <<= 1;
+        }
+    }
+
+    /**
+     * Decode the next symbol. Invalid codes are decoded as zero, so corrupt data produces a damaged image rather than
+     * an error.
+     */
+    int decode(BitReader reader) {
+        int peek = reader.peek(16);
+        int entry = fast[peek >>> (16 - FAST_BITS)];
+        if (entry >= 0) {
+            reader.skip(entry >> 8);
+            return entry & 0xFF;
+        }
+        for (int length = FAST_BITS + 1; length <= 16; length++) {
+            int offset = (peek >>> (16 - length)) - firstCode[length];
+            if (offset >= 0 && offset < counts[length]) {
+                reader.skip(length);
+                return symbols[firstIndex[length] + offset] & 0xFF;
+            }
+        }
+        reader.skip(16);
+        return 0;
+    }
+
+}
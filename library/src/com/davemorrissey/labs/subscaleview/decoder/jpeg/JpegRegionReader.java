@@ -0,0 +1,683 @@
+package com.davemorrissey.labs.subscaleview.decoder.jpeg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes regions of a baseline JPEG with random access. The Huffman coded scan can only be read sequentially, so
+ * a decoder without an index must decode everything from the start of the scan to the end of the requested region,
+ * making tiles near the bottom of the image far slower to decode than those near the top. This class reads the whole
+ * scan once when it is created, without transforming any blocks, and records the decoder state at the start of each
+ * MCU row, and at each restart marker if the image has them. A region is then decoded by restoring the state for
+ * each MCU row it covers and decoding only as far as the right edge of the region.
+ *
+ * The index is immutable once built, so regions can be decoded on any number of threads at once.
+ *
+ * Only 8-bit baseline and extended sequential Huffman JPEGs with one grayscale or three YCbCr or RGB components in a
+ * single interleaved scan are supported. The constructor throws an IOException for anything else, including
+ * progressive and CMYK images. This class uses no Android APIs.
+ */
+public final class JpegRegionReader {
+
+    // Natural order index of each coefficient in zigzag order
+    private static final int[] ZIGZAG = {
+        0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5, 12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21,
+        28, 35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51, 58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61,
+        54, 47, 55, 62, 63
+    };
+
+    // Maximum number of restart interval positions recorded, to bound the index size
+    private static final int MAX_RESTART_ENTRIES = 1 << 20;
+
+    // Fixed point IDCT constants, scaled by 4096
+    private static final int C0_541 = f2f(0.5411961);
+    private static final int CM1_847 = f2f(-1.847759065);
+    private static final int C0_765 = f2f(0.765366865);
+    private static final int C1_175 = f2f(1.175875602);
+    private static final int C0_298 = f2f(0.298631336);
+    private static final int C2_053 = f2f(2.053119869);
+    private static final int C3_072 = f2f(3.072711026);
+    private static final int C1_501 = f2f(1.501321110);
+    private static final int CM0_899 = f2f(-0.899976223);
+    private static final int CM2_562 = f2f(-2.562915447);
+    private static final int CM1_961 = f2f(-1.961570560);
+    private static final int CM0_390 = f2f(-0.390180644);
+
+    private final ByteBuffer data;
+    private final boolean assumeRgb;
+
+    private int width;
+    private int height;
+    private int componentCount;
+    private int[] componentIds;
+    private int[] hSamples;
+    private int[] vSamples;
+    private int[] quantIndexes;
+    private int[] dcTableIndexes;
+    private int[] acTableIndexes;
+    private int hMax = 1;
+    private int vMax = 1;
+    private int mcusX;
+    private int mcusY;
+    private int restartInterval;
+    private int adobeTransform = -1;
+    private boolean rgb;
+    private int scanStart;
+
+    private final int[][] quantTables = new int[4][];
+    private final HuffmanTable[] dcTables = new HuffmanTable[4];
+    private final HuffmanTable[] acTables = new HuffmanTable[4];
+
+    // Bit reader state and DC predictions at the start of each MCU row
+    private int[] rowIndex;
+    private int rowIndexStride;
+
+    // Position after the RST marker at the start of each restart interval, or null
+    private int[] restartPositions;
+
+    /**
+     * Parse the headers of a JPEG and build the scan index.
+     * @param data The complete JPEG file. The buffer is read with absolute gets only, and must not be modified.
+     * @throws IOException if the image is not a supported JPEG.
+     */
+    public JpegRegionReader(ByteBuffer data) throws IOException {
+        this(data, false);
+    }
+
+    /**
+     * Parse the headers of a JPEG and build the scan index.
+     * @param data The complete JPEG file. The buffer is read with absolute gets only, and must not be modified.
+     * @param assumeRgb Treat three component images as RGB rather than YCbCr unless an Adobe marker says otherwise.
+     *                  Some containers such as TIFF record the color space outside the JPEG stream.
+     * @throws IOException if the image is not a supported JPEG.
+     */
+    public JpegRegionReader(ByteBuffer data, boolean assumeRgb) throws IOException {
+        this.data = data;
+        this.assumeRgb = assumeRgb;
+        parseHeaders();
+        buildIndex();
+    }
+
+    /**
+     * Returns the image width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the image height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns true if the image has a single grayscale component.
+     */
+    public boolean isGrayscale() {
+        return componentCount == 1;
+    }
+
+    /**
+     * Returns the number of pixels in one dimension of a decoded region.
+     * @param length Length of the region in source pixels.
+     * @param sampleSize Sample size.
+     */
+    public static int sampledLength(int length, int sampleSize) {
+        return (length + sampleSize - 1) / sampleSize;
+    }
+
+    /**
+     * Decode a region of the image. Each output pixel is the average of a sampleSize square of source pixels. For
+     * sample sizes of 8 and above only the DC coefficient of each block is used, so no inverse DCT is needed. This
+     * method is thread safe.
+     * @param left Left edge of the region.
+     * @param top Top edge of the region.
+     * @param right Right edge of the region, exclusive.
+     * @param bottom Bottom edge of the region, exclusive.
+     * @param sampleSize Sample size, at least 1.
+     * @return Opaque ARGB pixels, {@link #sampledLength(int, int)} wide and high.
+     */
+    public int[] decodeRegion(int left, int top, int right, int bottom, int sampleSize) {
+        if (left < 0 || top < 0 || right > width || bottom > height || left >= right || top >= bottom || sampleSize < 1) {
+            throw new IllegalArgumentException("Invalid region " + left + "," + top + "," + right + "," + bottom + " sample size " + sampleSize);
+        }
+        int outWidth = sampledLength(right - left, sampleSize);
+        int outHeight = sampledLength(bottom - top, sampleSize);
+        boolean dcOnly = sampleSize >= 8;
+        int cell = dcOnly ? 8 : 1;
+        int blockLength = 8 / cell;
+        int mcuWidth = 8 * hMax;
+        int mcuHeight = 8 * vMax;
+        int firstCol = left / mcuWidth;
+        int lastCol = (right - 1) / mcuWidth;
+        int firstRow = top / mcuHeight;
+        int lastRow = (bottom - 1) / mcuHeight;
+        int cols = lastCol - firstCol + 1;
+
+        // Component samples for one MCU row of the region, one sample per cell
+        int[][] planes = new int[componentCount][];
+        int[] planeWidths = new int[componentCount];
+        for (int c = 0; c < componentCount; c++) {
+            planeWidths[c] = cols * hSamples[c] * blockLength;
+            planes[c] = new int[planeWidths[c] * vSamples[c] * blockLength];
+        }
+        int[] sums = new int[outWidth * outHeight * 3];
+        int[] counts = new int[outWidth * outHeight];
+        int[] coefficients = new int[64];
+        int[] workspace = new int[64];
+        int[] predictions = new int[componentCount];
+        BitReader reader = new BitReader(data);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            int startCol = seek(reader, predictions, row, firstCol);
+            for (int col = startCol; col <= lastCol; col++) {
+                int mcu = row * mcusX + col;
+                if (col != startCol && restartInterval > 0 && mcu % restartInterval == 0) {
+                    reader.restart();
+                    clear(predictions);
+                }
+                boolean keep = col >= firstCol;
+                for (int c = 0; c < componentCount; c++) {
+                    HuffmanTable dcTable = dcTables[dcTableIndexes[c]];
+                    HuffmanTable acTable = acTables[acTableIndexes[c]];
+                    int[] quant = quantTables[quantIndexes[c]];
+                    int[] plane = planes[c];
+                    int planeWidth = planeWidths[c];
+                    for (int by = 0; by < vSamples[c]; by++) {
+                        for (int bx = 0; bx < hSamples[c]; bx++) {
+                            predictions[c] = decodeBlock(reader, dcTable, acTable, quant, predictions[c], keep ? coefficients : null, dcOnly);
+                            if (!keep) {
+                                continue;
+                            }
+                            int x = ((col - firstCol) * hSamples[c] + bx) * blockLength;
+                            int y = by * blockLength;
+                            if (dcOnly) {
+                                plane[y * planeWidth + x] = clamp((coefficients[0] + 4 >> 3) + 128);
+                            } else {
+                                idct(coefficients, workspace, plane, y * planeWidth + x, planeWidth);
+                            }
+                        }
+                    }
+                }
+            }
+            accumulate(planes, planeWidths, row * mcuHeight, firstCol * mcuWidth, cols * mcuWidth, mcuHeight, cell, left, top, right, bottom, sampleSize, outWidth, sums, counts);
+        }
+
+        int[] pixels = new int[outWidth * outHeight];
+        for (int i = 0; i < pixels.length; i++) {
+            int count = Math.max(1, counts[i]);
+            int r = sums[i * 3] / count;
+            int g = sums[i * 3 + 1] / count;
+            int b = sums[i * 3 + 2] / count;
+            pixels[i] = 0xFF000000 | r << 16 | g << 8 | b;
+        }
+        return pixels;
+    }
+
+    /**
+     * Convert the samples of one MCU row to RGB and add each cell inside the region to the output pixel it falls in.
+     * Chroma samples are upsampled by replication. Cells larger than a pixel are weighted by the number of their pixels
+     * inside the region, so blocks on the right and bottom edges of the image, which are mostly padding, don't
+     * outweigh whole blocks.
+     */
+    private void accumulate(int[][] planes, int[] planeWidths, int imageTop, int imageLeft, int rowWidth, int rowHeight, int cell,
+                            int left, int top, int right, int bottom, int sampleSize, int outWidth, int[] sums, int[] counts) {
+        int cellRows = rowHeight / cell;
+        int cellCols = rowWidth / cell;
+        for (int py = 0; py < cellRows; py++) {
+            int imageY = imageTop + py * cell;
+            if (imageY + cell <= top || imageY >= bottom) {
+                continue;
+            }
+            int outY = (Math.max(imageY, top) - top) / sampleSize;
+            int cellHeight = Math.min(imageY + cell, bottom) - Math.max(imageY, top);
+            for (int px = 0; px < cellCols; px++) {
+                int imageX = imageLeft + px * cell;
+                if (imageX + cell <= left || imageX >= right) {
+                    continue;
+                }
+                int outX = (Math.max(imageX, left) - left) / sampleSize;
+                int r, g, b;
+                if (componentCount == 1) {
+                    r = g = b = planes[0][py * planeWidths[0] + px];
+                } else {
+                    int s0 = planes[0][(py * vSamples[0] / vMax) * planeWidths[0] + px * hSamples[0] / hMax];
+                    int s1 = planes[1][(py * vSamples[1] / vMax) * planeWidths[1] + px * hSamples[1] / hMax];
+                    int s2 = planes[2][(py * vSamples[2] / vMax) * planeWidths[2] + px * hSamples[2] / hMax];
+                    if (rgb) {
+                        r = s0;
+                        g = s1;
+                        b = s2;
+                    } else {
+                        int cb = s1 - 128;
+                        int cr = s2 - 128;
+                        r = clamp(s0 + ((91881 * cr + 32768) >> 16));
+                        g = clamp(s0 - ((22554 * cb + 46802 * cr - 32768) >> 16));
+                        b = clamp(s0 + ((116130 * cb + 32768) >> 16));
+                    }
+                }
+                int weight = cell == 1 ? 1 : cellHeight * (Math.min(imageX + cell, right) - Math.max(imageX, left));
+                int out = outY * outWidth + outX;
+                sums[out * 3] += r * weight;
+                sums[out * 3 + 1] += g * weight;
+                sums[out * 3 + 2] += b * weight;
+                counts[out] += weight;
+            }
+        }
+    }
+
+    /**
+     * Position the reader to decode an MCU row from a column, using the nearest recorded restart position if there is
+     * one within the row before the column, otherwise the start of the row.
+     * @return The column decoding starts from.
+     */
+    private int seek(BitReader reader, int[] predictions, int row, int col) {
+        int rowStart = row * mcusX;
+        if (restartPositions != null) {
+            int interval = (rowStart + col) / restartInterval;
+            int intervalStart = interval * restartInterval;
+            if (intervalStart > rowStart) {
+                reader.reset(restartPositions[interval], 0, 0);
+                clear(predictions);
+                return intervalStart - rowStart;
+            }
+        }
+        int offset = row * rowIndexStride;
+        reader.reset(rowIndex[offset], rowIndex[offset + 1], rowIndex[offset + 2]);
+        System.arraycopy(rowIndex, offset + 3, predictions, 0, componentCount);
+        return 0;
+    }
+
+    /**
+     * Decode the whole scan without transforming any blocks, recording the state at the start of each MCU row after
+     * any restart marker there, and the position after each restart marker.
+     */
+    private void buildIndex() {
+        rowIndexStride = 3 + componentCount;
+        rowIndex = new int[mcusY * rowIndexStride];
+        int intervals = restartInterval > 0 ? (mcusX * mcusY + restartInterval - 1) / restartInterval : 0;
+        if (intervals > 1 && intervals <= MAX_RESTART_ENTRIES) {
+            restartPositions = new int[intervals];
+            restartPositions[0] = scanStart;
+        }
+        BitReader reader = new BitReader(data);
+        reader.reset(scanStart, 0, 0);
+        int[] predictions = new int[componentCount];
+        for (int row = 0; row < mcusY; row++) {
+            for (int col = 0; col < mcusX; col++) {
+                int mcu = row * mcusX + col;
+                if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                    reader.restart();
+                    clear(predictions);
+                    if (restartPositions != null) {
+                        restartPositions[mcu / restartInterval] = reader.position;
+                    }
+                }
+                if (col == 0) {
+                    int offset = row * rowIndexStride;
+                    rowIndex[offset] = reader.position;
+                    rowIndex[offset + 1] = reader.bitBuffer;
+                    rowIndex[offset + 2] = reader.bitCount;
+                    System.arraycopy(predictions, 0, rowIndex, offset + 3, componentCount);
+                }
+                for (int c = 0; c < componentCount; c++) {
+                    HuffmanTable dcTable = dcTables[dcTableIndexes[c]];
+                    HuffmanTable acTable = acTables[acTableIndexes[c]];
+                    int blocks = hSamples[c] * vSamples[c];
+                    for (int block = 0; block < blocks; block++) {
+                        predictions[c] = decodeBlock(reader, dcTable, acTable, null, predictions[c], null, false);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode one block. If coefficients is null the block is skipped, and only the DC prediction is updated.
+     * @return The new DC prediction.
+     */
+    private static int decodeBlock(BitReader reader, HuffmanTable dcTable, HuffmanTable acTable, int[] quant, int prediction, int[] coefficients, boolean dcOnly) {
+        int t = dcTable.decode(reader);
+        prediction += t == 0 ? 0 : reader.receiveExtend(t);
+        boolean store = coefficients != null && !dcOnly;
+        if (coefficients != null) {
+            if (store) {
+                clear(coefficients);
+            }
+            coefficients[0] = prediction * quant[0];
+        }
+        int k = 1;
+        while (k < 64) {
+            int rs = acTable.decode(reader);
+            int r = rs >> 4;
+            int s = rs & 15;
+            if (s == 0) {
+                if (r == 15) {
+                    k += 16;
+                    continue;
+                }
+                break;
+            }
+            k += r;
+            if (k > 63) {
+                break;
+            }
+            if (store) {
+                coefficients[ZIGZAG[k]] = reader.receiveExtend(s) * quant[k];
+            } else {
+                reader.getBits(s);
+            }
+            k++;
+        }
+        return prediction;
+    }
+
+    /**
+     * Integer inverse DCT of a dequantized block in natural order, writing clamped samples to the output.
+     */
+    private static void idct(int[] d, int[] v, int[] out, int offset, int stride) {
+        int t0, t1, t2, t3, p1, p2, p3, p4, p5, x0, x1, x2, x3;
+
+        // Columns
+        for (int i = 0; i < 8; i++) {
+            if (d[8 + i] == 0 && d[16 + i] == 0 && d[24 + i] == 0 && d[32 + i] == 0 && d[40 + i] == 0 && d[48 + i] == 0 && d[56 + i] == 0) {
+                int dc = d[i] << 2;
+                v[i] = v[8 + i] = v[16 + i] = v[24 + i] = v[32 + i] = v[40 + i] = v[48 + i] = v[56 + i] = dc;
+                continue;
+            }
+            p2 = d[16 + i];
+            p3 = d[48 + i];
+            p1 = (p2 + p3) * C0_541;
+            t2 = p1 + p3 * CM1_847;
+            t3 = p1 + p2 * C0_765;
+            p2 = d[i];
+            p3 = d[32 + i];
+            t0 = (p2 + p3) << 12;
+            t1 = (p2 - p3) << 12;
+            x0 = t0 + t3;
+            x3 = t0 - t3;
+            x1 = t1 + t2;
+            x2 = t1 - t2;
+            t0 = d[56 + i];
+            t1 = d[40 + i];
+            t2 = d[24 + i];
+            t3 = d[8 + i];
+            p3 = t0 + t2;
+            p4 = t1 + t3;
+            p1 = t0 + t3;
+            p2 = t1 + t2;
+            p5 = (p3 + p4) * C1_175;
+            t0 = t0 * C0_298;
+            t1 = t1 * C2_053;
+            t2 = t2 * C3_072;
+            t3 = t3 * C1_501;
+            p1 = p5 + p1 * CM0_899;
+            p2 = p5 + p2 * CM2_562;
+            p3 = p3 * CM1_961;
+            p4 = p4 * CM0_390;
+            t3 += p1 + p4;
+            t2 += p2 + p3;
+            t1 += p2 + p4;
+            t0 += p1 + p3;
+            // Remove the 12 bits of constant scaling, keeping 2 extra bits of precision
+            x0 += 512;
+            x1 += 512;
+            x2 += 512;
+            x3 += 512;
+            v[i] = (x0 + t3) >> 10;
+            v[56 + i] = (x0 - t3) >> 10;
+            v[8 + i] = (x1 + t2) >> 10;
+            v[48 + i] = (x1 - t2) >> 10;
+            v[16 + i] = (x2 + t1) >> 10;
+            v[40 + i] = (x2 - t1) >> 10;
+            v[24 + i] = (x3 + t0) >> 10;
+            v[32 + i] = (x3 - t0) >> 10;
+        }
+
+        // Rows
+        for (int i = 0; i < 8; i++) {
+            int r = i * 8;
+            int o = offset + i * stride;
+            p2 = v[r + 2];
+            p3 = v[r + 6];
+            p1 = (p2 + p3) * C0_541;
+            t2 = p1 + p3 * CM1_847;
+            t3 = p1 + p2 * C0_765;
+            p2 = v[r];
+            p3 = v[r + 4];
+            t0 = (p2 + p3) << 12;
+            t1 = (p2 - p3) << 12;
+            x0 = t0 + t3;
+            x3 = t0 - t3;
+            x1 = t1 + t2;
+            x2 = t1 - t2;
+            t0 = v[r + 7];
+            t1 = v[r + 5];
+            t2 = v[r + 3];
+            t3 = v[r + 1];
+            p3 = t0 + t2;
+            p4 = t1 + t3;
+            p1 = t0 + t3;
+            p2 = t1 + t2;
+            p5 = (p3 + p4) * C1_175;
+            t0 = t0 * C0_298;
+            t1 = t1 * C2_053;
+            t2 = t2 * C3_072;
+            t3 = t3 * C1_501;
+            p1 = p5 + p1 * CM0_899;
+            p2 = p5 + p2 * CM2_562;
+            p3 = p3 * CM1_961;
+            p4 = p4 * CM0_390;
+            t3 += p1 + p4;
+            t2 += p2 + p3;
+            t1 += p2 + p4;
+            t0 += p1 + p3;
+            // Remove 17 bits of scaling with rounding, and level shift by 128
+            x0 += 65536 + (128 << 17);
+            x1 += 65536 + (128 << 17);
+            x2 += 65536 + (128 << 17);
+            x3 += 65536 + (128 << 17);
+            out[o] = clamp((x0 + t3) >> 17);
+            out[o + 7] = clamp((x0 - t3) >> 17);
+            out[o + 1] = clamp((x1 + t2) >> 17);
+            out[o + 6] = clamp((x1 - t2) >> 17);
+            out[o + 2] = clamp((x2 + t1) >> 17);
+            out[o + 5] = clamp((x2 - t1) >> 17);
+            out[o + 3] = clamp((x3 + t0) >> 17);
+            out[o + 4] = clamp((x3 - t0) >> 17);
+        }
+    }
+
+    private void parseHeaders() throws IOException {
+        if (data.limit() < 4 || u8(0) != 0xFF || u8(1) != 0xD8) {
+            throw new IOException("Not a JPEG");
+        }
+        int pos = 2;
+        boolean frame = false;
+        while (true) {
+            if (pos + 4 > data.limit()) {
+                throw new IOException("No scan found");
+            }
+            if (u8(pos) != 0xFF) {
+                throw new IOException("Invalid marker at " + pos);
+            }
+            int marker = u8(pos + 1);
+            if (marker == 0xFF) {
+                pos++;
+                continue;
+            }
+            pos += 2;
+            if (marker == 0x01 || marker == 0xD8 || (marker >= 0xD0 && marker <= 0xD7)) {
+                continue;
+            }
+            int segment = pos + 2;
+            int end = pos + u16(pos);
+            if (marker == 0xC0 || marker == 0xC1) {
+                parseFrame(segment);
+                frame = true;
+            } else if (marker >= 0xC2 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                throw new IOException("Unsupported JPEG process: SOF" + (marker - 0xC0));
+            } else if (marker == 0xC4) {
+                parseHuffmanTables(segment, end);
+            } else if (marker == 0xDB) {
+                parseQuantTables(segment, end);
+            } else if (marker == 0xDD) {
+                restartInterval = u16(segment);
+            } else if (marker == 0xEE && end - segment >= 12 && u8(segment) == 'A' && u8(segment + 1) == 'd' && u8(segment + 2) == 'o' && u8(segment + 3) == 'b' && u8(segment + 4) == 'e') {
+                adobeTransform = u8(segment + 11);
+            } else if (marker == 0xDA) {
+                if (!frame) {
+                    throw new IOException("Scan before frame header");
+                }
+                parseScan(segment);
+                scanStart = end;
+                break;
+            } else if (marker == 0xD9) {
+                throw new IOException("No scan found");
+            }
+            pos = end;
+        }
+
+        if (componentCount == 3) {
+            boolean rgbIds = componentIds[0] == 'R' && componentIds[1] == 'G' && componentIds[2] == 'B';
+            rgb = adobeTransform == 0 || (adobeTransform == -1 && (rgbIds || assumeRgb));
+        }
+        for (int c = 0; c < componentCount; c++) {
+            if (quantTables[quantIndexes[c]] == null || dcTables[dcTableIndexes[c]] == null || acTables[acTableIndexes[c]] == null) {
+                throw new IOException("Missing JPEG table");
+            }
+        }
+        mcusX = (width + 8 * hMax - 1) / (8 * hMax);
+        mcusY = (height + 8 * vMax - 1) / (8 * vMax);
+    }
+
+    private void parseFrame(int segment) throws IOException {
+        if (u8(segment) != 8) {
+            throw new IOException("Unsupported JPEG precision: " + u8(segment));
+        }
+        height = u16(segment + 1);
+        width = u16(segment + 3);
+        componentCount = u8(segment + 5);
+        if (width == 0 || height == 0) {
+            throw new IOException("Unsupported JPEG dimensions");
+        }
+        if (componentCount != 1 && componentCount != 3) {
+            throw new IOException("Unsupported JPEG component count: " + componentCount);
+        }
+        componentIds = new int[componentCount];
+        hSamples = new int[componentCount];
+        vSamples = new int[componentCount];
+        quantIndexes = new int[componentCount];
+        dcTableIndexes = new int[componentCount];
+        acTableIndexes = new int[componentCount];
+        for (int c = 0; c < componentCount; c++) {
+            int offset = segment + 6 + c * 3;
+            componentIds[c] = u8(offset);
+            hSamples[c] = u8(offset + 1) >> 4;
+            vSamples[c] = u8(offset + 1) & 15;
+            quantIndexes[c] = u8(offset + 2) & 3;
+            if (hSamples[c] < 1 || hSamples[c] > 2 || vSamples[c] < 1 || vSamples[c] > 2) {
+                throw new IOException("Unsupported JPEG sampling factors");
+            }
+        }
+        if (componentCount == 1) {
+            // A single component scan has one block per MCU whatever its sampling factors
+            hSamples[0] = 1;
+            vSamples[0] = 1;
+        }
+        for (int c = 0; c < componentCount; c++) {
+            hMax = Math.max(hMax, hSamples[c]);
+            vMax = Math.max(vMax, vSamples[c]);
+        }
+    }
+
+    private void parseHuffmanTables(int pos, int end) throws IOException {
+        while (pos < end) {
+            int tableClass = u8(pos) >> 4;
+            int tableIndex = u8(pos) & 3;
+            int[] counts = new int[17];
+            int total = 0;
+            for (int length = 1; length <= 16; length++) {
+                counts[length] = u8(pos + length);
+                total += counts[length];
+            }
+            byte[] symbols = new byte[total];
+            for (int i = 0; i < total; i++) {
+                symbols[i] = data.get(pos + 17 + i);
+            }
+            HuffmanTable table = new HuffmanTable(counts, symbols);
+            if (tableClass == 0) {
+                dcTables[tableIndex] = table;
+            } else {
+                acTables[tableIndex] = table;
+            }
+            pos += 17 + total;
+        }
+    }
+
+    private void parseQuantTables(int pos, int end) {
+        while (pos < end) {
+            boolean sixteenBit = (u8(pos) >> 4) != 0;
+            int tableIndex = u8(pos) & 3;
+            int[] table = new int[64];
+            pos++;
+            for (int i = 0; i < 64; i++) {
+                if (sixteenBit) {
+                    table[i] = u16(pos);
+                    pos += 2;
+                } else {
+                    table[i] = u8(pos);
+                    pos++;
+                }
+            }
+            quantTables[tableIndex] = table;
+        }
+    }
+
+    private void parseScan(int segment) throws IOException {
+        int scanComponents = u8(segment);
+        if (scanComponents != componentCount) {
+            throw new IOException("Unsupported non-interleaved JPEG scan");
+        }
+        for (int i = 0; i < scanComponents; i++) {
+            int id = u8(segment + 1 + i * 2);
+            int tables = u8(segment + 2 + i * 2);
+            boolean found = false;
+            for (int c = 0; c < componentCount; c++) {
+                if (componentIds[c] == id) {
+                    dcTableIndexes[c] = (tables >> 4) & 3;
+                    acTableIndexes[c] = tables & 3;
+                    found = true;
+                }
+            }
+            if (!found) {
+                throw new IOException("Unknown JPEG scan component: " + id);
+            }
+        }
+    }
+
+    private int u8(int offset) {
+        return data.get(offset) & 0xFF;
+    }
+
+    private int u16(int offset) {
+        return u8(offset) << 8 | u8(offset + 1);
+    }
+
+    private static void clear(int[] array) {
+        for (int i = 0; i < array.length; i++) {
+            array[i] = 0;
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    private static int f2f(double x) {
+        return (int)(x * 4096 + 0.5);
+    }
+
+}
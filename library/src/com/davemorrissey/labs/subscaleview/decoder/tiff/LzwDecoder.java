@@ -0,0 +1,85 @@
+package com.davemorrissey.labs.subscaleview.decoder.tiff;
+
+/**
+ * Decoder for TIFF LZW compressed data: MSB first codes of 9 to 12 bits, with the code width increasing one code
+ * early as the TIFF specification requires.
+ */
+final class LzwDecoder {
+
+    private static final int CLEAR = 256;
+    private static final int END = 257;
+    private static final int MAX_CODES = 4096;
+
+    private LzwDecoder() { }
+
+    /**
+     * Decode into the output array, stopping when it is full or the data ends.
+     * @return Number of bytes written.
+     */
+    static int decode(byte[] input, byte[] output) {
+        int[] prefixes = new int[MAX_CODES];
+        byte[] suffixes = new byte[MAX_CODES];
+        byte[] firsts = new byte[MAX_CODES];
+        int[] lengths = new int[MAX_CODES];
+        for (int i = 0; i < 256; i++) {
+            suffixes[i] = (byte)i;
+            firsts[i] = (byte)i;
+            lengths[i] = 1;
+        }
+        int next = 258;
+        int width = 9;
+        int previous = -1;
+        int out = 0;
+        int bitBuffer = 0;
+        int bitCount = 0;
+        int in = 0;
+        while (out < output.length) {
+            while (bitCount < width && in < input.length) {
+                bitBuffer = (bitBuffer << 8) | (input[in++] & 0xFF);
+                bitCount += 8;
+            }
+            if (bitCount < width) {
+                break;
+            }
+            int code = (bitBuffer >>> (bitCount - width)) & ((1 << width) - 1);
+            bitCount -= width;
+            if (code == END) {
+                break;
+            }
+            if (code == CLEAR) {
+                next = 258;
+                width = 9;
+                previous = -1;
+                continue;
+            }
+            if (code > next || (code == next && previous < 0)) {
+                // Corrupt data
+                break;
+            }
+            if (previous >= 0 && next < MAX_CODES) {
+                prefixes[next] = previous;
+                firsts[next] = firsts[previous];
+                suffixes[next] = code == next ? firsts[previous] : firsts[code];
+                lengths[next] = lengths[previous] + 1;
+                next++;
+            }
+            // Write the string for the code backwards from its end
+            int length = lengths[code];
+            int end = out + length;
+            int c = code;
+            for (int i = end - 1; i >= out; i--) {
+                if (i < output.length) {
+                    output[i] = suffixes[c];
+                }
+                c = prefixes[c];
+            }
+            out = Math.min(end, output.length);
+            previous = code;
+            if (next >= (1 << width) - 1 && width < 12) {
+                width++;
+            }
+        }
+        return out;
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.davemorrissey.labs.subscaleview.decoder.tiff;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Random access to the bytes of a TIFF file. A file channel is memory mapped in windows of bounded size, so 32-bit
+ * devices are never asked for one large mapping, and the most recently used windows are kept mapped so reading a
+ * level of tiles maps each window once. Reads that cross a window boundary, and all reads once a window could not be
+ * mapped, are copied with positional reads instead. Reads do not change the state of any shared buffer, so they can
+ * be made from any thread.
+ */
+final class TiffData {
+
+    // Size of the mapped windows of a file
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    // Number of windows kept mapped
+    private static final int MAX_WINDOWS = 4;
+
+    private final ByteBuffer buffer;
+    private final FileChannel channel;
+    private final long length;
+    private final int windowSize;
+    private final Map<Long, ByteBuffer> windows;
+    private boolean mapFailed;
+    private ByteOrder order = ByteOrder.BIG_ENDIAN;
+
+    TiffData(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.channel = null;
+        this.length = buffer.limit();
+        this.windowSize = 0;
+        this.windows = null;
+    }
+
+    TiffData(FileChannel channel) throws IOException {
+        this(channel, WINDOW_SIZE);
+    }
+
+    TiffData(FileChannel channel, int windowSize) throws IOException {
+        this.buffer = null;
+        this.channel = channel;
+        this.length = channel.size();
+        this.windowSize = windowSize;
+        this.windows = new LinkedHashMap<Long, ByteBuffer>(MAX_WINDOWS * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ByteBuffer> eldest) {
+                return size() > MAX_WINDOWS;
+            }
+        };
+    }
+
+    void setOrder(ByteOrder order) {
+        this.order = order;
+    }
+
+    long length() {
+        return length;
+    }
+
+    /**
+     * Returns a buffer containing a range of the file, in the file's byte order.
+     */
+    ByteBuffer read(long offset, int count) throws IOException {
+        if (offset < 0 || count < 0 || offset + count > length) {
+            throw new IOException("TIFF offset out of range: " + offset);
+        }
+        if (buffer != null) {
+            return slice(buffer, (int)offset, count);
+        }
+        long windowStart = offset - offset % windowSize;
+        if (offset + count <= windowStart + windowSize) {
+            ByteBuffer window = window(windowStart);
+            if (window != null) {
+                return slice(window, (int)(offset - windowStart), count);
+            }
+        }
+        ByteBuffer range = ByteBuffer.allocate(count);
+        while (range.hasRemaining()) {
+            if (channel.read(range, offset + range.position()) < 0) {
+                throw new EOFException("TIFF offset out of range: " + (offset + range.position()));
+            }
+        }
+        range.flip();
+        return range.order(order);
+    }
+
+    /**
+     * Copy a range of the file into a new array.
+     */
+    byte[] readBytes(long offset, int count) throws IOException {
+        byte[] bytes = new byte[count];
+        read(offset, count).get(bytes);
+        return bytes;
+    }
+
+    void close() throws IOException {
+        if (channel != null) {
+            synchronized (windows) {
+                windows.clear();
+            }
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns the mapped window starting at an offset, mapping it if necessary, or null if mapping has failed.
+     */
+    private ByteBuffer window(long start) {
+        synchronized (windows) {
+            if (mapFailed) {
+                return null;
+            }
+            ByteBuffer window = windows.get(start);
+            if (window == null) {
+                try {
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, length - start));
+                } catch (IOException e) {
+                    // Usually no address space left for the mapping. Positional reads still work.
+                    mapFailed = true;
+                    return null;
+                }
+                windows.put(start, window);
+            }
+            return window;
+        }
+    }
+
+    private ByteBuffer slice(ByteBuffer source, int offset, int count) {
+        ByteBuffer range = source.duplicate();
+        range.limit(offset + count);
+        range.position(offset);
+        return range.slice().order(order);
+    }
+
+}
@@ -0,0 +1,298 @@
+package com.davemorrissey.labs.subscaleview.decoder.tiff;
+
+import com.davemorrissey.labs.subscaleview.decoder.jpeg.JpegRegionReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * One image (IFD) of a TIFF file, either the full resolution image or a reduced resolution copy. Strips are treated
+ * as tiles the full width of the image. Tiles are decoded to ARGB pixels on demand and not cached.
+ */
+final class TiffImage {
+
+    static final int COMPRESSION_NONE = 1;
+    static final int COMPRESSION_LZW = 5;
+    static final int COMPRESSION_JPEG = 7;
+    static final int COMPRESSION_DEFLATE = 8;
+    static final int COMPRESSION_ADOBE_DEFLATE = 32946;
+
+    static final int PHOTOMETRIC_WHITE_IS_ZERO = 0;
+    static final int PHOTOMETRIC_BLACK_IS_ZERO = 1;
+    static final int PHOTOMETRIC_RGB = 2;
+    static final int PHOTOMETRIC_PALETTE = 3;
+    static final int PHOTOMETRIC_YCBCR = 6;
+
+    int width;
+    int height;
+    int tileWidth;
+    int tileHeight;
+    int compression = COMPRESSION_NONE;
+    int photometric = -1;
+    int samplesPerPixel = 1;
+    int bitsPerSample = 1;
+    int planarConfiguration = 1;
+    int predictor = 1;
+    int subfileType;
+    int orientation = 1;
+    boolean associatedAlpha;
+    boolean unassociatedAlpha;
+    long[] offsets;
+    long[] byteCounts;
+    int[] colorMap;
+    byte[] jpegTables;
+
+    private int tilesAcross;
+
+    /**
+     * Check the image is one that can be decoded, and calculate the tile layout.
+     * @throws IOException if the image is not supported.
+     */
+    void validate() throws IOException {
+        if (width <= 0 || height <= 0 || offsets == null || byteCounts == null || offsets.length != byteCounts.length) {
+            throw new IOException("Invalid TIFF image");
+        }
+        if (tileWidth <= 0) {
+            // Stripped image
+            tileWidth = width;
+            if (tileHeight <= 0 || tileHeight > height) {
+                tileHeight = height;
+            }
+        } else if (tileHeight <= 0) {
+            throw new IOException("Invalid TIFF tile size");
+        }
+        if (compression != COMPRESSION_NONE && compression != COMPRESSION_LZW && compression != COMPRESSION_JPEG && compression != COMPRESSION_DEFLATE && compression != COMPRESSION_ADOBE_DEFLATE) {
+            throw new IOException("Unsupported TIFF compression: " + compression);
+        }
+        if (planarConfiguration != 1 && samplesPerPixel > 1) {
+            throw new IOException("Unsupported TIFF planar configuration");
+        }
+        if (predictor != 1 && predictor != 2) {
+            throw new IOException("Unsupported TIFF predictor: " + predictor);
+        }
+        if (compression == COMPRESSION_JPEG) {
+            if (photometric != PHOTOMETRIC_YCBCR && photometric != PHOTOMETRIC_RGB && photometric != PHOTOMETRIC_BLACK_IS_ZERO) {
+                throw new IOException("Unsupported TIFF JPEG photometric interpretation: " + photometric);
+            }
+        } else if (photometric == PHOTOMETRIC_WHITE_IS_ZERO || photometric == PHOTOMETRIC_BLACK_IS_ZERO) {
+            if (bitsPerSample != 1 && bitsPerSample != 8 && bitsPerSample != 16) {
+                throw new IOException("Unsupported TIFF bits per sample: " + bitsPerSample);
+            }
+            if (bitsPerSample == 1 && samplesPerPixel != 1) {
+                throw new IOException("Unsupported TIFF bilevel samples per pixel: " + samplesPerPixel);
+            }
+        } else if (photometric == PHOTOMETRIC_RGB) {
+            if ((bitsPerSample != 8 && bitsPerSample != 16) || samplesPerPixel < 3) {
+                throw new IOException("Unsupported TIFF RGB format");
+            }
+        } else if (photometric == PHOTOMETRIC_PALETTE) {
+            if (bitsPerSample != 8 || colorMap == null || colorMap.length < 3 * 256) {
+                throw new IOException("Unsupported TIFF palette format");
+            }
+        } else {
+            throw new IOException("Unsupported TIFF photometric interpretation: " + photometric);
+        }
+        tilesAcross = (width + tileWidth - 1) / tileWidth;
+        int tilesDown = (height + tileHeight - 1) / tileHeight;
+        if ((long)tilesAcross * tilesDown > offsets.length) {
+            throw new IOException("Missing TIFF tile offsets");
+        }
+    }
+
+    boolean hasAlpha() {
+        return compression != COMPRESSION_JPEG && (associatedAlpha || unassociatedAlpha);
+    }
+
+    boolean isGrayscale() {
+        return photometric == PHOTOMETRIC_WHITE_IS_ZERO || photometric == PHOTOMETRIC_BLACK_IS_ZERO;
+    }
+
+    int tilesAcross() {
+        return tilesAcross;
+    }
+
+    /**
+     * Decode a tile to ARGB pixels, tileWidth pixels wide. Rows beyond the end of the data, for example in the last
+     * strip, are transparent.
+     */
+    int[] decodeTile(TiffData data, int index, ByteOrder order) throws IOException {
+        long count = byteCounts[index];
+        if (count > Integer.MAX_VALUE) {
+            throw new IOException("TIFF tile too large");
+        }
+        int[] pixels = new int[tileWidth * tileHeight];
+        if (count == 0) {
+            return pixels;
+        }
+        if (compression == COMPRESSION_JPEG) {
+            decodeJpegTile(data.readBytes(offsets[index], (int)count), pixels);
+            return pixels;
+        }
+        int rowBytes = rowBytes();
+        byte[] raw;
+        int rows;
+        if (compression == COMPRESSION_NONE) {
+            int length = (int)Math.min(count, (long)rowBytes * tileHeight);
+            raw = data.readBytes(offsets[index], length);
+            rows = length / rowBytes;
+        } else {
+            byte[] input = data.readBytes(offsets[index], (int)count);
+            raw = new byte[rowBytes * tileHeight];
+            int length;
+            if (compression == COMPRESSION_LZW) {
+                length = LzwDecoder.decode(input, raw);
+            } else {
+                length = inflate(input, raw);
+            }
+            rows = length / rowBytes;
+        }
+        if (predictor == 2) {
+            undoPredictor(raw, rows, rowBytes, order);
+        }
+        unpack(raw, rows, rowBytes, order, pixels);
+        return pixels;
+    }
+
+    private int rowBytes() {
+        if (bitsPerSample == 1) {
+            return (tileWidth + 7) / 8;
+        }
+        return tileWidth * samplesPerPixel * (bitsPerSample / 8);
+    }
+
+    private static int inflate(byte[] input, byte[] output) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            int length = 0;
+            while (length < output.length && !inflater.finished()) {
+                int inflated = inflater.inflate(output, length, output.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            return length;
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid TIFF deflate data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Reverse horizontal differencing, for 8 and 16 bit samples.
+     */
+    private void undoPredictor(byte[] raw, int rows, int rowBytes, ByteOrder order) {
+        int stride = samplesPerPixel;
+        if (bitsPerSample == 8) {
+            for (int y = 0; y < rows; y++) {
+                int row = y * rowBytes;
+                for (int i = stride; i < tileWidth * stride; i++) {
+                    raw[row + i] += raw[row + i - stride];
+                }
+            }
+        } else if (bitsPerSample == 16) {
+            boolean bigEndian = order == ByteOrder.BIG_ENDIAN;
+            for (int y = 0; y < rows; y++) {
+                int row = y * rowBytes;
+                for (int i = stride; i < tileWidth * stride; i++) {
+                    int value = sample16(raw, row + i * 2, bigEndian) + sample16(raw, row + (i - stride) * 2, bigEndian);
+                    int offset = row + i * 2;
+                    raw[offset + (bigEndian ? 0 : 1)] = (byte)(value >> 8);
+                    raw[offset + (bigEndian ? 1 : 0)] = (byte)value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Convert decompressed samples to ARGB. 16 bit samples are reduced to their high byte.
+     */
+    private void unpack(byte[] raw, int rows, int rowBytes, ByteOrder order, int[] pixels) {
+        boolean invert = photometric == PHOTOMETRIC_WHITE_IS_ZERO;
+        if (bitsPerSample == 1) {
+            for (int y = 0; y < rows; y++) {
+                int row = y * rowBytes;
+                for (int x = 0; x < tileWidth; x++) {
+                    boolean set = (raw[row + (x >> 3)] & (0x80 >> (x & 7))) != 0;
+                    pixels[y * tileWidth + x] = set != invert ? 0xFFFFFFFF : 0xFF000000;
+                }
+            }
+            return;
+        }
+        int bytes = bitsPerSample / 8;
+        // Offset of the high byte within each sample
+        int high = bytes == 2 && order == ByteOrder.LITTLE_ENDIAN ? 1 : 0;
+        int pixelBytes = samplesPerPixel * bytes;
+        boolean alpha = associatedAlpha || unassociatedAlpha;
+        for (int y = 0; y < rows; y++) {
+            int row = y * rowBytes;
+            int out = y * tileWidth;
+            for (int x = 0; x < tileWidth; x++) {
+                int p = row + x * pixelBytes + high;
+                int r, g, b;
+                int a = 255;
+                if (photometric == PHOTOMETRIC_RGB) {
+                    r = raw[p] & 0xFF;
+                    g = raw[p + bytes] & 0xFF;
+                    b = raw[p + 2 * bytes] & 0xFF;
+                    if (alpha && samplesPerPixel > 3) {
+                        a = raw[p + 3 * bytes] & 0xFF;
+                    }
+                } else if (photometric == PHOTOMETRIC_PALETTE) {
+                    int i = raw[p] & 0xFF;
+                    r = colorMap[i] >> 8;
+                    g = colorMap[256 + i] >> 8;
+                    b = colorMap[512 + i] >> 8;
+                } else {
+                    r = g = b = invert ? 255 - (raw[p] & 0xFF) : raw[p] & 0xFF;
+                    if (alpha && samplesPerPixel > 1) {
+                        a = raw[p + bytes] & 0xFF;
+                    }
+                }
+                if (associatedAlpha && a != 255) {
+                    if (a == 0) {
+                        r = g = b = 0;
+                    } else {
+                        r = Math.min(255, r * 255 / a);
+                        g = Math.min(255, g * 255 / a);
+                        b = Math.min(255, b * 255 / a);
+                    }
+                }
+                pixels[out + x] = a << 24 | r << 16 | g << 8 | b;
+            }
+        }
+    }
+
+    /**
+     * Decode a JPEG compressed tile, adding the shared tables if the file has them.
+     */
+    private void decodeJpegTile(byte[] tile, int[] pixels) throws IOException {
+        byte[] stream = tile;
+        if (jpegTables != null && jpegTables.length > 4 && tile.length > 2) {
+            // Tables stream without its EOI, then the tile without its SOI
+            int tablesLength = jpegTables.length - 2;
+            stream = new byte[tablesLength + tile.length - 2];
+            System.arraycopy(jpegTables, 0, stream, 0, tablesLength);
+            System.arraycopy(tile, 2, stream, tablesLength, tile.length - 2);
+        }
+        JpegRegionReader reader = new JpegRegionReader(ByteBuffer.wrap(stream), photometric == PHOTOMETRIC_RGB);
+        int decodedWidth = Math.min(reader.getWidth(), tileWidth);
+        int decodedHeight = Math.min(reader.getHeight(), tileHeight);
+        int[] decoded = reader.decodeRegion(0, 0, decodedWidth, decodedHeight, 1);
+        for (int y = 0; y < decodedHeight; y++) {
+            System.arraycopy(decoded, y * decodedWidth, pixels, y * tileWidth, decodedWidth);
+        }
+    }
+
+    private static int sample16(byte[] raw, int offset, boolean bigEndian) {
+        int first = raw[offset] & 0xFF;
+        int second = raw[offset + 1] & 0xFF;
+        return bigEndian ? first << 8 | second : second << 8 | first;
+    }
+
+}
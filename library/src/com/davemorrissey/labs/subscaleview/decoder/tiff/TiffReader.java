@@ -0,0 +1,459 @@
+package com.davemorrissey.labs.subscaleview.decoder.tiff;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Decodes regions of tiled or stripped TIFF and BigTIFF images. The IFDs and their tile offset tables are parsed once
+ * when the reader is created. Decoding a region reads and decompresses only the tiles that overlap it, and uses the
+ * smallest reduced resolution image in the file, if there are any, that still has enough pixels for the sample size.
+ * Reduced resolution images are found in the main IFD chain (marked with the reduced resolution subfile type) and in
+ * the SubIFDs of the first image.
+ *
+ * Supported formats are uncompressed, LZW, Deflate and JPEG compression, with 1, 8 or 16 bit grayscale, 8 or 16 bit
+ * RGB, 8 bit palette and JPEG YCbCr photometric interpretations, and optional alpha. The reader is immutable once
+ * created, so regions can be decoded on any number of threads at once. This class uses no Android APIs.
+ */
+public final class TiffReader {
+
+    private static final int TAG_NEW_SUBFILE_TYPE = 254;
+    private static final int TAG_IMAGE_WIDTH = 256;
+    private static final int TAG_IMAGE_LENGTH = 257;
+    private static final int TAG_BITS_PER_SAMPLE = 258;
+    private static final int TAG_COMPRESSION = 259;
+    private static final int TAG_PHOTOMETRIC = 262;
+    private static final int TAG_STRIP_OFFSETS = 273;
+    private static final int TAG_ORIENTATION = 274;
+    private static final int TAG_SAMPLES_PER_PIXEL = 277;
+    private static final int TAG_ROWS_PER_STRIP = 278;
+    private static final int TAG_STRIP_BYTE_COUNTS = 279;
+    private static final int TAG_PLANAR_CONFIGURATION = 284;
+    private static final int TAG_PREDICTOR = 317;
+    private static final int TAG_COLOR_MAP = 320;
+    private static final int TAG_TILE_WIDTH = 322;
+    private static final int TAG_TILE_LENGTH = 323;
+    private static final int TAG_TILE_OFFSETS = 324;
+    private static final int TAG_TILE_BYTE_COUNTS = 325;
+    private static final int TAG_SUB_IFDS = 330;
+    private static final int TAG_EXTRA_SAMPLES = 338;
+    private static final int TAG_JPEG_TABLES = 347;
+
+    private static final int SUBFILE_REDUCED = 1;
+
+    // Limit on IFDs read, to stop on loops in corrupt files
+    private static final int MAX_IFDS = 1024;
+
+    private final TiffData data;
+    private ByteOrder order;
+    private boolean bigTiff;
+
+    // Full image first, then reduced resolution images in order of decreasing size
+    private final List<TiffImage> levels = new ArrayList<TiffImage>();
+
+    /**
+     * Create a reader for a TIFF held in memory.
+     * @param buffer The complete file. The buffer must not be modified.
+     * @throws IOException if the file is not a supported TIFF.
+     */
+    public TiffReader(ByteBuffer buffer) throws IOException {
+        this(new TiffData(buffer));
+    }
+
+    /**
+     * Create a reader for a TIFF file, which is memory mapped in windows as it is read. The channel is closed by
+     * {@link #close()}.
+     * @param channel Channel open for reading.
+     * @throws IOException if the file cannot be read or is not a supported TIFF.
+     */
+    public TiffReader(FileChannel channel) throws IOException {
+        this(new TiffData(channel));
+    }
+
+    private TiffReader(TiffData data) throws IOException {
+        this.data = data;
+        try {
+            parse();
+        } catch (IOException e) {
+            data.close();
+            throw e;
+        } catch (RuntimeException e) {
+            data.close();
+            throw new IOException("Invalid TIFF", e);
+        }
+    }
+
+    /**
+     * Returns the width of the full resolution image.
+     */
+    public int getWidth() {
+        return levels.get(0).width;
+    }
+
+    /**
+     * Returns the height of the full resolution image.
+     */
+    public int getHeight() {
+        return levels.get(0).height;
+    }
+
+    /**
+     * Returns the number of images available, including the full resolution image.
+     */
+    public int getLevelCount() {
+        return levels.size();
+    }
+
+    /**
+     * Returns the rotation of the full resolution image in degrees, from its orientation tag. Mirrored orientations are
+     * not supported and return 0.
+     */
+    public int getOrientation() {
+        int orientation = levels.get(0).orientation;
+        return orientation == 6 ? 90 : orientation == 3 ? 180 : orientation == 8 ? 270 : 0;
+    }
+
+    /**
+     * Returns true if the image has an alpha channel.
+     */
+    public boolean hasAlpha() {
+        return levels.get(0).hasAlpha();
+    }
+
+    /**
+     * Returns true if the image is grayscale or has 16 bit samples, so reducing it to 565 would cause banding.
+     */
+    public boolean hasSmoothTones() {
+        TiffImage image = levels.get(0);
+        return image.isGrayscale() || image.bitsPerSample == 16;
+    }
+
+    /**
+     * Returns the number of pixels in one dimension of a decoded region.
+     * @param length Length of the region in source pixels.
+     * @param sampleSize Sample size.
+     */
+    public static int sampledLength(int length, int sampleSize) {
+        return (length + sampleSize - 1) / sampleSize;
+    }
+
+    /**
+     * Decode a region of the full resolution image. Each output pixel is the average of the pixels of the chosen
+     * image that fall within it. This method is thread safe.
+     * @param left Left edge of the region.
+     * @param top Top edge of the region.
+     * @param right Right edge of the region, exclusive.
+     * @param bottom Bottom edge of the region, exclusive.
+     * @param sampleSize Sample size, at least 1.
+     * @return ARGB pixels, {@link #sampledLength(int, int)} wide and high.
+     * @throws IOException if the tile data cannot be read or decompressed.
+     */
+    public int[] decodeRegion(int left, int top, int right, int bottom, int sampleSize) throws IOException {
+        int width = getWidth();
+        int height = getHeight();
+        if (left < 0 || top < 0 || right > width || bottom > height || left >= right || top >= bottom || sampleSize < 1) {
+            throw new IllegalArgumentException("Invalid region " + left + "," + top + "," + right + "," + bottom + " sample size " + sampleSize);
+        }
+        int outWidth = sampledLength(right - left, sampleSize);
+        int outHeight = sampledLength(bottom - top, sampleSize);
+        TiffImage level = chooseLevel(sampleSize);
+
+        // Region in the coordinates of the chosen image, and its pixels per output pixel
+        double scaleX = (double)level.width / width;
+        double scaleY = (double)level.height / height;
+        int levelLeft = (int)(left * scaleX);
+        int levelTop = (int)(top * scaleY);
+        int levelRight = Math.max(levelLeft + 1, Math.min(level.width, (int)Math.ceil(right * scaleX)));
+        int levelBottom = Math.max(levelTop + 1, Math.min(level.height, (int)Math.ceil(bottom * scaleY)));
+        double stepX = sampleSize * scaleX;
+        double stepY = sampleSize * scaleY;
+
+        int[] sums = new int[outWidth * outHeight * 4];
+        int[] counts = new int[outWidth * outHeight];
+        // Pixels are assigned to outputs by their right and bottom edges. The steps are at least 1, so every output
+        // pixel gets at least one, including a last one that covers only part of a pixel of a reduced image.
+        int[] outColumns = new int[levelRight - levelLeft];
+        for (int x = levelLeft; x < levelRight; x++) {
+            outColumns[x - levelLeft] = outIndex(x - levelLeft, stepX, outWidth);
+        }
+
+        int firstTileX = levelLeft / level.tileWidth;
+        int lastTileX = (levelRight - 1) / level.tileWidth;
+        int firstTileY = levelTop / level.tileHeight;
+        int lastTileY = (levelBottom - 1) / level.tileHeight;
+        for (int tileY = firstTileY; tileY <= lastTileY; tileY++) {
+            for (int tileX = firstTileX; tileX <= lastTileX; tileX++) {
+                int[] tile = level.decodeTile(data, tileY * level.tilesAcross() + tileX, order);
+                int tileLeft = tileX * level.tileWidth;
+                int tileTop = tileY * level.tileHeight;
+                int x0 = Math.max(levelLeft, tileLeft);
+                int x1 = Math.min(levelRight, tileLeft + level.tileWidth);
+                int y0 = Math.max(levelTop, tileTop);
+                int y1 = Math.min(levelBottom, tileTop + level.tileHeight);
+                for (int y = y0; y < y1; y++) {
+                    int outRow = outIndex(y - levelTop, stepY, outHeight) * outWidth;
+                    int tileRow = (y - tileTop) * level.tileWidth - tileLeft;
+                    for (int x = x0; x < x1; x++) {
+                        int pixel = tile[tileRow + x];
+                        int out = outRow + outColumns[x - levelLeft];
+                        sums[out * 4] += pixel >>> 24;
+                        sums[out * 4 + 1] += (pixel >> 16) & 0xFF;
+                        sums[out * 4 + 2] += (pixel >> 8) & 0xFF;
+                        sums[out * 4 + 3] += pixel & 0xFF;
+                        counts[out]++;
+                    }
+                }
+            }
+        }
+
+        int[] pixels = new int[outWidth * outHeight];
+        for (int i = 0; i < pixels.length; i++) {
+            int count = counts[i];
+            if (count > 0) {
+                pixels[i] = (sums[i * 4] / count) << 24 | (sums[i * 4 + 1] / count) << 16 | (sums[i * 4 + 2] / count) << 8 | sums[i * 4 + 3] / count;
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Returns the output pixel that a pixel of the chosen image falls in, by its far edge.
+     */
+    private static int outIndex(int position, double step, int outLength) {
+        return Math.max(0, Math.min(outLength - 1, (int)Math.ceil((position + 1) / step) - 1));
+    }
+
+    /**
+     * Release the file. The reader cannot be used afterwards.
+     */
+    public void close() throws IOException {
+        data.close();
+    }
+
+    /**
+     * Choose the smallest image with at least one pixel for each output pixel at the sample size.
+     */
+    private TiffImage chooseLevel(int sampleSize) {
+        TiffImage full = levels.get(0);
+        TiffImage chosen = full;
+        for (int i = 1; i < levels.size(); i++) {
+            TiffImage level = levels.get(i);
+            if ((long)level.width * sampleSize >= full.width && (long)level.height * sampleSize >= full.height) {
+                chosen = level;
+            }
+        }
+        return chosen;
+    }
+
+    private void parse() throws IOException {
+        if (data.length() < 8) {
+            throw new IOException("Not a TIFF");
+        }
+        ByteBuffer header = data.read(0, 8);
+        int b0 = header.get(0);
+        int b1 = header.get(1);
+        if (b0 == 'I' && b1 == 'I') {
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else if (b0 == 'M' && b1 == 'M') {
+            order = ByteOrder.BIG_ENDIAN;
+        } else {
+            throw new IOException("Not a TIFF");
+        }
+        data.setOrder(order);
+        header = data.read(0, Math.min(16, (int)data.length()));
+        int version = header.getShort(2) & 0xFFFF;
+        long firstIfd;
+        if (version == 42) {
+            firstIfd = header.getInt(4) & 0xFFFFFFFFL;
+        } else if (version == 43 && header.limit() >= 16 && header.getShort(4) == 8) {
+            bigTiff = true;
+            firstIfd = header.getLong(8);
+        } else {
+            throw new IOException("Not a TIFF");
+        }
+
+        List<TiffImage> reduced = new ArrayList<TiffImage>();
+        List<Long> subIfds = new ArrayList<Long>();
+        TiffImage full = new TiffImage();
+        long offset = readIfd(firstIfd, full, subIfds);
+        full.validate();
+        // Damaged reduced resolution images are ignored, as the full image can still be displayed
+        try {
+            for (int i = 1; offset != 0 && i < MAX_IFDS; i++) {
+                TiffImage image = new TiffImage();
+                offset = readIfd(offset, image, null);
+                if ((image.subfileType & SUBFILE_REDUCED) != 0) {
+                    reduced.add(image);
+                }
+            }
+        } catch (IOException e) {
+            // Use the images read so far
+        }
+        for (int i = 0; i < subIfds.size() && i < MAX_IFDS; i++) {
+            try {
+                TiffImage image = new TiffImage();
+                readIfd(subIfds.get(i), image, null);
+                reduced.add(image);
+            } catch (IOException e) {
+                // Skip this image
+            }
+        }
+
+        levels.add(full);
+        for (TiffImage image : reduced) {
+            if (isReducedCopy(full, image)) {
+                try {
+                    image.validate();
+                    levels.add(image);
+                } catch (IOException e) {
+                    // Unsupported reduced image, it will not be used
+                }
+            }
+        }
+        Collections.sort(levels, new Comparator<TiffImage>() {
+            @Override
+            public int compare(TiffImage lhs, TiffImage rhs) {
+                return lhs.width == rhs.width ? 0 : (lhs.width > rhs.width ? -1 : 1);
+            }
+        });
+    }
+
+    /**
+     * Check an image is smaller than the full image with about the same aspect ratio.
+     */
+    private static boolean isReducedCopy(TiffImage full, TiffImage image) {
+        if (image.width <= 0 || image.height <= 0 || image.width >= full.width) {
+            return false;
+        }
+        double ratio = (double)full.width / image.width;
+        return Math.abs(full.height / ratio - image.height) <= 2 + image.height * 0.01;
+    }
+
+    /**
+     * Read the entries of an IFD into an image.
+     * @param subIfds List to add the offsets of any SubIFDs to, or null to ignore them.
+     * @return Offset of the next IFD, or 0.
+     */
+    private long readIfd(long offset, TiffImage image, List<Long> subIfds) throws IOException {
+        int countSize = bigTiff ? 8 : 2;
+        int entrySize = bigTiff ? 20 : 12;
+        int offsetSize = bigTiff ? 8 : 4;
+        ByteBuffer countBuffer = data.read(offset, countSize);
+        long entries = bigTiff ? countBuffer.getLong(0) : countBuffer.getShort(0) & 0xFFFF;
+        if (entries < 0 || entries > 65535) {
+            throw new IOException("Invalid TIFF IFD");
+        }
+        ByteBuffer ifd = data.read(offset + countSize, (int)entries * entrySize + offsetSize);
+        for (int i = 0; i < entries; i++) {
+            int entry = i * entrySize;
+            int tag = ifd.getShort(entry) & 0xFFFF;
+            int type = ifd.getShort(entry + 2) & 0xFFFF;
+            long count = bigTiff ? ifd.getLong(entry + 4) : ifd.getInt(entry + 4) & 0xFFFFFFFFL;
+            ByteBuffer values = values(ifd, entry + (bigTiff ? 12 : 8), type, count);
+            if (values == null) {
+                continue;
+            }
+            switch (tag) {
+                case TAG_NEW_SUBFILE_TYPE: image.subfileType = (int)value(values, type, 0); break;
+                case TAG_IMAGE_WIDTH: image.width = (int)value(values, type, 0); break;
+                case TAG_IMAGE_LENGTH: image.height = (int)value(values, type, 0); break;
+                case TAG_BITS_PER_SAMPLE: image.bitsPerSample = (int)value(values, type, 0); break;
+                case TAG_COMPRESSION: image.compression = (int)value(values, type, 0); break;
+                case TAG_PHOTOMETRIC: image.photometric = (int)value(values, type, 0); break;
+                case TAG_SAMPLES_PER_PIXEL: image.samplesPerPixel = (int)value(values, type, 0); break;
+                case TAG_ROWS_PER_STRIP: image.tileHeight = (int)Math.min(Integer.MAX_VALUE, value(values, type, 0)); break;
+                case TAG_PLANAR_CONFIGURATION: image.planarConfiguration = (int)value(values, type, 0); break;
+                case TAG_PREDICTOR: image.predictor = (int)value(values, type, 0); break;
+                case TAG_TILE_WIDTH: image.tileWidth = (int)value(values, type, 0); break;
+                case TAG_TILE_LENGTH: image.tileHeight = (int)value(values, type, 0); break;
+                case TAG_ORIENTATION: image.orientation = (int)value(values, type, 0); break;
+                case TAG_STRIP_OFFSETS: case TAG_TILE_OFFSETS: image.offsets = longValues(values, type, count); break;
+                case TAG_STRIP_BYTE_COUNTS: case TAG_TILE_BYTE_COUNTS: image.byteCounts = longValues(values, type, count); break;
+                case TAG_COLOR_MAP:
+                    long[] colors = longValues(values, type, count);
+                    image.colorMap = new int[colors.length];
+                    for (int c = 0; c < colors.length; c++) {
+                        image.colorMap[c] = (int)colors[c];
+                    }
+                    break;
+                case TAG_EXTRA_SAMPLES:
+                    int extra = (int)value(values, type, 0);
+                    image.associatedAlpha = extra == 1;
+                    image.unassociatedAlpha = extra == 2;
+                    break;
+                case TAG_JPEG_TABLES:
+                    image.jpegTables = new byte[values.limit()];
+                    values.get(image.jpegTables);
+                    break;
+                case TAG_SUB_IFDS:
+                    if (subIfds != null) {
+                        for (long subIfd : longValues(values, type, count)) {
+                            subIfds.add(subIfd);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        int next = (int)entries * entrySize;
+        return bigTiff ? ifd.getLong(next) : ifd.getInt(next) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Returns a buffer holding the values of an entry, which are stored in the entry itself if they fit.
+     */
+    private ByteBuffer values(ByteBuffer ifd, int valueOffset, int type, long count) throws IOException {
+        int typeSize = typeSize(type);
+        if (typeSize == 0 || count <= 0 || count > Integer.MAX_VALUE / typeSize) {
+            return null;
+        }
+        int length = (int)count * typeSize;
+        int inlineSize = bigTiff ? 8 : 4;
+        if (length <= inlineSize) {
+            ByteBuffer inline = ifd.duplicate();
+            inline.limit(valueOffset + length);
+            inline.position(valueOffset);
+            return inline.slice().order(order);
+        }
+        long offset = bigTiff ? ifd.getLong(valueOffset) : ifd.getInt(valueOffset) & 0xFFFFFFFFL;
+        return data.read(offset, length);
+    }
+
+    private static long value(ByteBuffer values, int type, int index) {
+        switch (type) {
+            case 1: case 2: case 7: return values.get(index) & 0xFF;
+            case 6: return values.get(index);
+            case 3: return values.getShort(index * 2) & 0xFFFF;
+            case 8: return values.getShort(index * 2);
+            case 4: case 13: return values.getInt(index * 4) & 0xFFFFFFFFL;
+            case 9: return values.getInt(index * 4);
+            case 16: case 17: case 18: return values.getLong(index * 8);
+            default: return 0;
+        }
+    }
+
+    private static long[] longValues(ByteBuffer values, int type, long count) {
+        long[] result = new long[(int)count];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = value(values, type, i);
+        }
+        return result;
+    }
+
+    private static int typeSize(int type) {
+        switch (type) {
+            case 1: case 2: case 6: case 7: return 1;
+            case 3: case 8: return 2;
+            case 4: case 9: case 11: case 13: return 4;
+            case 5: case 10: case 12: case 16: case 17: case 18: return 8;
+            default: return 0;
+        }
+    }
+
+}
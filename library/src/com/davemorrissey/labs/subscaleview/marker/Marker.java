@@ -0,0 +1,59 @@
+package com.davemorrissey.labs.subscaleview.marker;
+
+import android.graphics.Bitmap;
+
+/**
+ * A marker at a point on the image, in source coordinates. A marker's position can't change once it has been added
+ * to a {@link MarkerLayer}; to move it, remove it and add a new one.
+ */
+public class Marker {
+
+    private final float sx;
+    private final float sy;
+    private final Bitmap icon;
+    private final Object tag;
+
+    /**
+     * Create a marker drawn with its layer's default icon.
+     * @param sx Source x coordinate.
+     * @param sy Source y coordinate.
+     * @param tag Application data associated with the marker. Nullable.
+     */
+    public Marker(float sx, float sy, Object tag) {
+        this(sx, sy, null, tag);
+    }
+
+    /**
+     * Create a marker drawn with its own icon.
+     * @param sx Source x coordinate.
+     * @param sy Source y coordinate.
+     * @param icon Icon for this marker, or null to use the layer's default icon.
+     * @param tag Application data associated with the marker. Nullable.
+     */
+    public Marker(float sx, float sy, Bitmap icon, Object tag) {
+        this.sx = sx;
+        this.sy = sy;
+        this.icon = icon;
+        this.tag = tag;
+    }
+
+    public float getSourceX() {
+        return sx;
+    }
+
+    public float getSourceY() {
+        return sy;
+    }
+
+    /**
+     * Returns the marker's own icon, or null if it uses the layer's default icon.
+     */
+    public Bitmap getIcon() {
+        return icon;
+    }
+
+    public Object getTag() {
+        return tag;
+    }
+
+}
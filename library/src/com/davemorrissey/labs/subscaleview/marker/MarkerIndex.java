@@ -0,0 +1,342 @@
+package com.davemorrissey.labs.subscaleview.marker;
+
+import java.util.List;
+
+/**
+ * Quadtree of markers by source position. Leaves hold up to {@link #LEAF_CAPACITY} markers and are split when they
+ * overflow, so rectangle queries visit only the nodes overlapping the rectangle. The tree has no fixed bounds: the
+ * root grows by doubling when a marker is added outside it. Not thread safe.
+ *
+ * Node sizes are powers of two, so each depth of the tree is a grid of cells matching one sample size level. Every
+ * node keeps the number of markers beneath it and the sum of their positions, updated as markers are added and
+ * removed, so any cell can be drawn as a cluster at the centroid of its markers without visiting them.
+ */
+final class MarkerIndex {
+
+    static final int LEAF_CAPACITY = 16;
+
+    // Size of the root node created for the first marker
+    private static final float INITIAL_SIZE = 1024f;
+
+    // Nodes smaller than this are never split, so many markers at the same point don't split endlessly
+    private static final float MIN_NODE_SIZE = 1f / 64f;
+
+    private Node root;
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        root = null;
+        size = 0;
+    }
+
+    void add(Marker marker) {
+        float x = marker.getSourceX();
+        float y = marker.getSourceY();
+        if (Float.isNaN(x) || Float.isNaN(y) || Float.isInfinite(x) || Float.isInfinite(y)) {
+            throw new IllegalArgumentException("Invalid marker position: " + x + "," + y);
+        }
+        if (root == null) {
+            root = new Node(x - INITIAL_SIZE / 2, y - INITIAL_SIZE / 2, INITIAL_SIZE);
+        }
+        while (!root.contains(x, y)) {
+            grow(x, y);
+        }
+        insert(root, marker, x, y);
+        size++;
+    }
+
+    /**
+     * Remove a marker, found by identity.
+     * @return true if the marker was in the index.
+     */
+    boolean remove(Marker marker) {
+        float x = marker.getSourceX();
+        float y = marker.getSourceY();
+        if (root == null || !root.contains(x, y) || !remove(root, marker, x, y)) {
+            return false;
+        }
+        size--;
+        return true;
+    }
+
+    private static boolean remove(Node node, Marker marker, float x, float y) {
+        boolean removed = false;
+        if (node.children != null) {
+            removed = remove(node.children[node.quadrant(x, y)], marker, x, y);
+        } else {
+            for (int i = 0; !removed && i < node.count; i++) {
+                if (node.markers[i] == marker) {
+                    node.count--;
+                    node.markers[i] = node.markers[node.count];
+                    node.markers[node.count] = null;
+                    removed = true;
+                }
+            }
+        }
+        if (removed) {
+            node.total--;
+            node.sumX -= x;
+            node.sumY -= y;
+        }
+        return removed;
+    }
+
+    /**
+     * Add the markers inside a source rectangle, including its edges, to a list.
+     */
+    void query(float left, float top, float right, float bottom, List<Marker> out) {
+        if (root != null) {
+            query(root, left, top, right, bottom, out);
+        }
+    }
+
+    private static void query(Node node, float left, float top, float right, float bottom, List<Marker> out) {
+        if (node.left > right || node.top > bottom || node.left + node.size < left || node.top + node.size < top) {
+            return;
+        }
+        if (node.children != null) {
+            for (Node child : node.children) {
+                query(child, left, top, right, bottom, out);
+            }
+            return;
+        }
+        addMarkersInside(node, left, top, right, bottom, out);
+    }
+
+    private static void addMarkersInside(Node node, float left, float top, float right, float bottom, List<Marker> out) {
+        for (int i = 0; i < node.count; i++) {
+            Marker marker = node.markers[i];
+            float x = marker.getSourceX();
+            float y = marker.getSourceY();
+            if (x >= left && x <= right && y >= top && y <= bottom) {
+                out.add(marker);
+            }
+        }
+    }
+
+    /**
+     * Find the markers and clusters inside a source rectangle. Cells no larger than clusterSize that hold more than one
+     * marker are added to the clusters instead of their markers, so the number of results is bounded by the number of
+     * cells of that size in the rectangle, however many markers there are. Leaves larger than clusterSize are divided
+     * into cells of the grid below them, so markers close together in a sparse area are clustered too.
+     * @param clusterSize Largest cell size, in source pixels, drawn as a cluster.
+     */
+    void queryClustered(float left, float top, float right, float bottom, float clusterSize, List<Marker> out, Clusters clusters) {
+        if (root != null) {
+            queryClustered(root, left, top, right, bottom, clusterSize, out, clusters);
+        }
+    }
+
+    private static void queryClustered(Node node, float left, float top, float right, float bottom, float clusterSize, List<Marker> out, Clusters clusters) {
+        if (node.total == 0 || node.left > right || node.top > bottom || node.left + node.size < left || node.top + node.size < top) {
+            return;
+        }
+        if (node.total > 1 && node.size <= clusterSize) {
+            clusters.add((float)(node.sumX / node.total), (float)(node.sumY / node.total), node.total);
+        } else if (node.children != null) {
+            for (Node child : node.children) {
+                queryClustered(child, left, top, right, bottom, clusterSize, out, clusters);
+            }
+        } else if (node.total > 1 && clusterSize > 0) {
+            clusterLeaf(node, left, top, right, bottom, clusterSize, out, clusters);
+        } else {
+            addMarkersInside(node, left, top, right, bottom, out);
+        }
+    }
+
+    /**
+     * Group the markers of a leaf larger than clusterSize by the cells they would be in if the leaf were split down to
+     * that size. Cells overlapping the rectangle with more than one marker are added as clusters, and single markers
+     * inside it are added to the list.
+     */
+    private static void clusterLeaf(Node node, float left, float top, float right, float bottom, float clusterSize, List<Marker> out, Clusters clusters) {
+        float cell = node.size;
+        while (cell > clusterSize) {
+            cell /= 2;
+        }
+        int count = node.count;
+        long[] cells = clusters.leafCells(count);
+        for (int i = 0; i < count; i++) {
+            Marker marker = node.markers[i];
+            cells[i * 2] = (long)((marker.getSourceX() - node.left) / cell);
+            cells[i * 2 + 1] = (long)((marker.getSourceY() - node.top) / cell);
+        }
+        for (int i = 0; i < count; i++) {
+            long cellX = cells[i * 2];
+            long cellY = cells[i * 2 + 1];
+            if (cellX < 0) {
+                // Already in an earlier marker's cell
+                continue;
+            }
+            int total = 0;
+            double sumX = 0;
+            double sumY = 0;
+            for (int j = i; j < count; j++) {
+                if (cells[j * 2] == cellX && cells[j * 2 + 1] == cellY) {
+                    cells[j * 2] = -1;
+                    total++;
+                    sumX += node.markers[j].getSourceX();
+                    sumY += node.markers[j].getSourceY();
+                }
+            }
+            float cellLeft = node.left + cellX * cell;
+            float cellTop = node.top + cellY * cell;
+            if (cellLeft > right || cellTop > bottom || cellLeft + cell < left || cellTop + cell < top) {
+                continue;
+            }
+            if (total > 1) {
+                clusters.add((float)(sumX / total), (float)(sumY / total), total);
+            } else {
+                Marker marker = node.markers[i];
+                float x = marker.getSourceX();
+                float y = marker.getSourceY();
+                if (x >= left && x <= right && y >= top && y <= bottom) {
+                    out.add(marker);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the root with one twice the size, extended towards a point outside it, with the old root as one of its
+     * quadrants.
+     */
+    private void grow(float x, float y) {
+        Node old = root;
+        float left = x < old.left ? old.left - old.size : old.left;
+        float top = y < old.top ? old.top - old.size : old.top;
+        Node grown = new Node(left, top, old.size * 2);
+        grown.split();
+        grown.children[grown.quadrant(old.left + old.size / 2, old.top + old.size / 2)] = old;
+        grown.total = old.total;
+        grown.sumX = old.sumX;
+        grown.sumY = old.sumY;
+        root = grown;
+    }
+
+    /**
+     * Insert a marker below a node, adding it to the totals of every node on the way.
+     */
+    private static void insert(Node node, Marker marker, float x, float y) {
+        node.total++;
+        node.sumX += x;
+        node.sumY += y;
+        if (node.children != null) {
+            insert(node.children[node.quadrant(x, y)], marker, x, y);
+            return;
+        }
+        node.append(marker);
+        if (node.count > LEAF_CAPACITY && node.size / 2 >= MIN_NODE_SIZE) {
+            Marker[] markers = node.markers;
+            int count = node.count;
+            node.split();
+            for (int i = 0; i < count; i++) {
+                Marker moved = markers[i];
+                float movedX = moved.getSourceX();
+                float movedY = moved.getSourceY();
+                insert(node.children[node.quadrant(movedX, movedY)], moved, movedX, movedY);
+            }
+        }
+    }
+
+    /**
+     * Reusable list of clusters found by a query, with positions stored as x, y pairs.
+     */
+    static final class Clusters {
+
+        float[] points = new float[64];
+        int[] counts = new int[32];
+        int size;
+
+        // Cell coordinates of the markers of a leaf being clustered, reused between queries
+        private long[] leafCells = new long[(LEAF_CAPACITY + 1) * 2];
+
+        void clear() {
+            size = 0;
+        }
+
+        private long[] leafCells(int count) {
+            if (leafCells.length < count * 2) {
+                leafCells = new long[count * 2];
+            }
+            return leafCells;
+        }
+
+        private void add(float x, float y, int count) {
+            if (size == counts.length) {
+                float[] grownPoints = new float[size * 4];
+                int[] grownCounts = new int[size * 2];
+                System.arraycopy(points, 0, grownPoints, 0, size * 2);
+                System.arraycopy(counts, 0, grownCounts, 0, size);
+                points = grownPoints;
+                counts = grownCounts;
+            }
+            points[size * 2] = x;
+            points[size * 2 + 1] = y;
+            counts[size] = count;
+            size++;
+        }
+
+    }
+
+    private static final class Node {
+
+        private final float left;
+        private final float top;
+        private final float size;
+        private Marker[] markers;
+        private int count;
+        private Node[] children;
+
+        // Number of markers beneath this node, and the sums of their positions
+        private int total;
+        private double sumX;
+        private double sumY;
+
+        private Node(float left, float top, float size) {
+            this.left = left;
+            this.top = top;
+            this.size = size;
+            this.markers = new Marker[LEAF_CAPACITY + 1];
+        }
+
+        private boolean contains(float x, float y) {
+            return x >= left && y >= top && x < left + size && y < top + size;
+        }
+
+        private int quadrant(float x, float y) {
+            float half = size / 2;
+            return (x >= left + half ? 1 : 0) | (y >= top + half ? 2 : 0);
+        }
+
+        private void append(Marker marker) {
+            if (count == markers.length) {
+                Marker[] grown = new Marker[count * 2];
+                System.arraycopy(markers, 0, grown, 0, count);
+                markers = grown;
+            }
+            markers[count++] = marker;
+        }
+
+        /**
+         * Convert this leaf into a branch with four empty leaves. Its markers are discarded, and must be reinserted.
+         */
+        private void split() {
+            float half = size / 2;
+            children = new Node[] {
+                new Node(left, top, half),
+                new Node(left + half, top, half),
+                new Node(left, top + half, half),
+                new Node(left + half, top + half, half)
+            };
+            markers = null;
+            count = 0;
+        }
+
+    }
+
+}
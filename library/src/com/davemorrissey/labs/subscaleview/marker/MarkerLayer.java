@@ -0,0 +1,323 @@
+package com.davemorrissey.labs.subscaleview.marker;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PointF;
+
+import com.davemorrissey.labs.subscaleview.ScaleImageViewBase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An overlay of markers drawn over the image, attached to a view with
+ * {@link ScaleImageViewBase#setMarkerLayer(MarkerLayer)}. Markers are kept in a quadtree by source position, so each
+ * frame only the markers inside the visible part of the image are found and drawn, and taps are matched to markers
+ * without checking every one. Layers of tens of thousands of markers can be drawn without slowing panning and zooming.
+ *
+ * Each marker's icon is drawn unscaled, positioned so the anchor point of the icon is over the marker's position. By
+ * default the anchor is the bottom center, which suits pins. The layer must only be used on the UI thread.
+ *
+ * With clustering enabled, markers that would be drawn close together are replaced by a cluster showing their number,
+ * so however many markers there are, the number drawn in each frame is limited by the size of the view. Tapping a
+ * cluster zooms in on it.
+ */
+public class MarkerLayer {
+
+    /**
+     * Listener for taps on markers.
+     */
+    public interface OnMarkerClickListener {
+
+        /**
+         * Called when a marker is tapped. When markers overlap, the one drawn on top is reported.
+         * @param marker The marker tapped.
+         */
+        void onMarkerClick(Marker marker);
+
+    }
+
+    private final MarkerIndex index = new MarkerIndex();
+    private final Bitmap defaultIcon;
+    private float anchorX = 0.5f;
+    private float anchorY = 1f;
+    private OnMarkerClickListener onMarkerClickListener;
+
+    // Largest icon size, used to extend queries so markers whose icons are partly visible are found
+    private int maxIconWidth;
+    private int maxIconHeight;
+
+    // Clustering, and the size in view pixels of the largest cell of markers that is drawn as a cluster
+    private boolean clustering;
+    private int clusterSize;
+    private final Paint clusterPaint = new Paint();
+    private final Paint clusterTextPaint = new Paint();
+
+    // Reused for every frame and hit test
+    private final List<Marker> found = new ArrayList<Marker>();
+    private final MarkerIndex.Clusters clusters = new MarkerIndex.Clusters();
+    private float[] points = new float[64];
+    private final Paint paint = new Paint();
+
+    /**
+     * @param defaultIcon Icon drawn for markers that don't have their own.
+     */
+    public MarkerLayer(Bitmap defaultIcon) {
+        if (defaultIcon == null) {
+            throw new IllegalArgumentException("Default icon cannot be null");
+        }
+        this.defaultIcon = defaultIcon;
+        this.maxIconWidth = defaultIcon.getWidth();
+        this.maxIconHeight = defaultIcon.getHeight();
+        paint.setAntiAlias(true);
+        paint.setFilterBitmap(true);
+        clusterSize = 2 * Math.max(maxIconWidth, maxIconHeight);
+        clusterPaint.setAntiAlias(true);
+        clusterPaint.setColor(Color.argb(220, 51, 181, 229));
+        clusterTextPaint.setAntiAlias(true);
+        clusterTextPaint.setColor(Color.WHITE);
+        clusterTextPaint.setTextAlign(Paint.Align.CENTER);
+        clusterTextPaint.setTextSize(Math.max(maxIconWidth, maxIconHeight) / 2f);
+    }
+
+    /**
+     * Enable or disable clustering. Markers are grouped by a grid of cells whose size in view pixels is between half
+     * the cluster size and the cluster size, and cells with more than one marker are drawn as a cluster. The grid for
+     * each zoom level is maintained as markers are added and removed, so nothing is recalculated while zooming.
+     * @param clustering true to cluster markers.
+     * @param clusterSize Size of the largest cells drawn as clusters, in view pixels. The default is twice the size of
+     *                    the default icon.
+     */
+    public final void setClustering(boolean clustering, int clusterSize) {
+        if (clusterSize <= 0) {
+            throw new IllegalArgumentException("Invalid cluster size: " + clusterSize);
+        }
+        this.clustering = clustering;
+        this.clusterSize = clusterSize;
+    }
+
+    /**
+     * Returns the paint used for the background of clusters, which can be changed to restyle them.
+     */
+    public final Paint getClusterPaint() {
+        return clusterPaint;
+    }
+
+    /**
+     * Returns the paint used for the number of markers in clusters, which can be changed to restyle them.
+     */
+    public final Paint getClusterTextPaint() {
+        return clusterTextPaint;
+    }
+
+    /**
+     * Set the point of each icon placed over its marker's position, as fractions of the icon's width and height.
+     * The default is 0.5, 1, the center of the bottom edge.
+     */
+    public final void setAnchor(float anchorX, float anchorY) {
+        this.anchorX = anchorX;
+        this.anchorY = anchorY;
+    }
+
+    public final void setOnMarkerClickListener(OnMarkerClickListener onMarkerClickListener) {
+        this.onMarkerClickListener = onMarkerClickListener;
+    }
+
+    /**
+     * Add a marker. The view must be invalidated for it to be drawn.
+     */
+    public final void add(Marker marker) {
+        index.add(marker);
+        Bitmap icon = marker.getIcon();
+        if (icon != null) {
+            maxIconWidth = Math.max(maxIconWidth, icon.getWidth());
+            maxIconHeight = Math.max(maxIconHeight, icon.getHeight());
+        }
+    }
+
+    /**
+     * Remove a marker. The view must be invalidated for it to disappear.
+     * @return true if the marker was in this layer.
+     */
+    public final boolean remove(Marker marker) {
+        return index.remove(marker);
+    }
+
+    /**
+     * Remove all markers.
+     */
+    public final void clear() {
+        index.clear();
+        maxIconWidth = defaultIcon.getWidth();
+        maxIconHeight = defaultIcon.getHeight();
+    }
+
+    /**
+     * Returns the number of markers in the layer.
+     */
+    public final int size() {
+        return index.size();
+    }
+
+    /**
+     * Draw the markers visible in a view. Called by the view after it has drawn the image.
+     */
+    public void draw(Canvas canvas, ScaleImageViewBase<?> view) {
+        int count = findVisible(view, 0, 0, view.getWidth(), view.getHeight());
+        for (int i = 0; i < count; i++) {
+            Bitmap icon = icon(found.get(i));
+            canvas.drawBitmap(icon, points[i * 2] - anchorX * icon.getWidth(), points[i * 2 + 1] - anchorY * icon.getHeight(), paint);
+        }
+        for (int i = 0; i < clusters.size; i++) {
+            drawCluster(canvas, clusters.points[i * 2], clusters.points[i * 2 + 1], clusters.counts[i]);
+        }
+        found.clear();
+        clusters.clear();
+    }
+
+    /**
+     * Draw a cluster of markers. The default implementation draws a circle with the number of markers in it.
+     * Subclasses can override this to draw clusters differently, and {@link #clusterRadius(int)} to match.
+     * @param canvas Canvas to draw on.
+     * @param vx View x coordinate of the center of the cluster's markers.
+     * @param vy View y coordinate of the center of the cluster's markers.
+     * @param count Number of markers in the cluster.
+     */
+    protected void drawCluster(Canvas canvas, float vx, float vy, int count) {
+        canvas.drawCircle(vx, vy, clusterRadius(count), clusterPaint);
+        canvas.drawText(Integer.toString(count), vx, vy - (clusterTextPaint.ascent() + clusterTextPaint.descent()) / 2, clusterTextPaint);
+    }
+
+    /**
+     * Returns the radius in view pixels of a cluster, within which taps zoom in on it. It grows slowly with the number
+     * of markers, up to half the cluster size.
+     */
+    protected float clusterRadius(int count) {
+        float radius = clusterSize / 4f * (1 + (float)Math.log10(count) / 4);
+        return Math.min(radius, clusterSize / 2f);
+    }
+
+    /**
+     * Find the marker whose icon is drawn at a view position. When icons overlap the one drawn on top is returned.
+     * @param view The view the layer is drawn in.
+     * @param vx View x coordinate.
+     * @param vy View y coordinate.
+     * @return The marker, or null if there is no marker at the position.
+     */
+    public Marker hitTest(ScaleImageViewBase<?> view, float vx, float vy) {
+        int count = findVisible(view, vx, vy, vx, vy);
+        Marker hit = null;
+        for (int i = count - 1; hit == null && i >= 0; i--) {
+            Marker marker = found.get(i);
+            Bitmap icon = icon(marker);
+            float left = points[i * 2] - anchorX * icon.getWidth();
+            float top = points[i * 2 + 1] - anchorY * icon.getHeight();
+            if (vx >= left && vx < left + icon.getWidth() && vy >= top && vy < top + icon.getHeight()) {
+                hit = marker;
+            }
+        }
+        found.clear();
+        return hit;
+    }
+
+    /**
+     * Called by the view when it is tapped. If a marker was tapped and there is a listener, the listener is called.
+     * @return true if the tap was on a marker and has been handled.
+     */
+    public boolean onTap(ScaleImageViewBase<?> view, float vx, float vy) {
+        if (clustering && zoomToCluster(view, vx, vy)) {
+            return true;
+        }
+        if (onMarkerClickListener == null) {
+            return false;
+        }
+        Marker marker = hitTest(view, vx, vy);
+        if (marker != null) {
+            onMarkerClickListener.onMarkerClick(marker);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * If a tap is on a cluster, zoom in towards it far enough to split it.
+     * @return true if the tap was on a cluster.
+     */
+    private boolean zoomToCluster(ScaleImageViewBase<?> view, float vx, float vy) {
+        findVisible(view, vx, vy, vx, vy);
+        found.clear();
+        int hit = -1;
+        for (int i = clusters.size - 1; hit < 0 && i >= 0; i--) {
+            float dx = clusters.points[i * 2] - vx;
+            float dy = clusters.points[i * 2 + 1] - vy;
+            float radius = clusterRadius(clusters.counts[i]);
+            if (dx * dx + dy * dy <= radius * radius) {
+                hit = i;
+            }
+        }
+        if (hit >= 0) {
+            PointF sCenter = view.viewToSourceCoord(clusters.points[hit * 2], clusters.points[hit * 2 + 1]);
+            ScaleImageViewBase.AnimationBuilder animation = view.animateScaleAndCenter(view.getScale() * 2, sCenter);
+            if (animation != null) {
+                animation.start();
+            }
+        }
+        clusters.clear();
+        return hit >= 0;
+    }
+
+    /**
+     * Find the markers whose icons may overlap a view rectangle, and calculate their view positions. The markers are
+     * left in the found list and their positions in the points array. When clustering, clusters near the rectangle
+     * are left in the clusters list with their positions converted to view coordinates.
+     * @return The number of markers found.
+     */
+    private int findVisible(ScaleImageViewBase<?> view, float vLeft, float vTop, float vRight, float vBottom) {
+        float scale = view.getScale();
+        if (!view.isImageReady() || scale <= 0 || index.size() == 0) {
+            return 0;
+        }
+        // An icon overlaps the rectangle if its marker is within the icon's size of it
+        float extendLeft = (1 - anchorX) * maxIconWidth;
+        float extendRight = anchorX * maxIconWidth;
+        float extendTop = (1 - anchorY) * maxIconHeight;
+        float extendBottom = anchorY * maxIconHeight;
+        if (clustering) {
+            // Clusters are drawn around their center, and a little larger than icons
+            float extend = Math.max(maxIconWidth, maxIconHeight) + clusterSize / 2f;
+            extendLeft = extendRight = extendTop = extendBottom = extend;
+        }
+        points[0] = vLeft - extendLeft;
+        points[1] = vTop - extendTop;
+        points[2] = vRight + extendRight;
+        points[3] = vBottom + extendBottom;
+        view.viewToSourcePoints(points, 0, points, 0, 2);
+        found.clear();
+        clusters.clear();
+        if (clustering) {
+            index.queryClustered(points[0], points[1], points[2], points[3], clusterSize / scale, found, clusters);
+            view.sourceToViewPoints(clusters.points, 0, clusters.points, 0, clusters.size);
+        } else {
+            index.query(points[0], points[1], points[2], points[3], found);
+        }
+        int count = found.size();
+        if (points.length < count * 2) {
+            points = new float[Math.max(count * 2, points.length * 2)];
+        }
+        for (int i = 0; i < count; i++) {
+            Marker marker = found.get(i);
+            points[i * 2] = marker.getSourceX();
+            points[i * 2 + 1] = marker.getSourceY();
+        }
+        view.sourceToViewPoints(points, 0, points, 0, count);
+        return count;
+    }
+
+    private Bitmap icon(Marker marker) {
+        Bitmap icon = marker.getIcon();
+        return icon != null ? icon : defaultIcon;
+    }
+
+}
@@ -0,0 +1,245 @@
+package com.davemorrissey.labs.subscaleview.stroke;
+
+import android.graphics.Path;
+
+/**
+ * A freehand stroke in source coordinates, stored as x, y pairs in a float array. Points closer than the tolerance to
+ * the last point kept are dropped as they are added, and when the stroke is finished it is simplified with the
+ * Douglas-Peucker algorithm, so long strokes keep only the points needed to draw them to within the tolerance. A
+ * smoothed path through the points is built in source coordinates as they are added and cached, so drawing the stroke
+ * at any scale only needs the view transform.
+ */
+public final class Stroke {
+
+    private float[] points = new float[64];
+    private int size;
+    private final float tolerance;
+    private boolean finished;
+
+    // Last point added but dropped for being too close, kept so the stroke ends where the touch did
+    private boolean pending;
+    private float pendingX;
+    private float pendingY;
+
+    // Bounds of the points in source coordinates
+    private float left;
+    private float top;
+    private float right;
+    private float bottom;
+
+    private final Path path = new Path();
+
+    /**
+     * Start a stroke.
+     * @param sx Source x coordinate of the first point.
+     * @param sy Source y coordinate of the first point.
+     * @param tolerance Maximum distance in source pixels the simplified stroke may deviate from the points added. To
+     *                  simplify by a constant amount on screen, divide a distance in view pixels by the current scale.
+     */
+    public Stroke(float sx, float sy, float tolerance) {
+        this.tolerance = Math.max(0, tolerance);
+        left = right = sx;
+        top = bottom = sy;
+        append(sx, sy);
+        path.moveTo(sx, sy);
+    }
+
+    /**
+     * Add a point to the stroke. It is dropped if it is within the tolerance of the last point kept.
+     * @param sx Source x coordinate.
+     * @param sy Source y coordinate.
+     */
+    public void addPoint(float sx, float sy) {
+        if (finished) {
+            throw new IllegalStateException("Stroke is finished");
+        }
+        float lastX = points[size * 2 - 2];
+        float lastY = points[size * 2 - 1];
+        float dx = sx - lastX;
+        float dy = sy - lastY;
+        if (dx * dx + dy * dy <= tolerance * tolerance) {
+            pending = true;
+            pendingX = sx;
+            pendingY = sy;
+            return;
+        }
+        pending = false;
+        append(sx, sy);
+        path.quadTo(lastX, lastY, (sx + lastX) / 2, (sy + lastY) / 2);
+    }
+
+    /**
+     * Finish the stroke, simplifying it and trimming its storage. No more points can be added.
+     */
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (pending) {
+            append(pendingX, pendingY);
+            pending = false;
+        }
+        size = simplify(points, size, tolerance);
+        float[] trimmed = new float[size * 2];
+        System.arraycopy(points, 0, trimmed, 0, size * 2);
+        points = trimmed;
+        left = right = points[0];
+        top = bottom = points[1];
+        for (int i = 1; i < size; i++) {
+            updateBounds(points[i * 2], points[i * 2 + 1]);
+        }
+        buildPath();
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Returns the number of points kept.
+     */
+    public int getPointCount() {
+        return size;
+    }
+
+    public float getX(int index) {
+        return points[index * 2];
+    }
+
+    public float getY(int index) {
+        return points[index * 2 + 1];
+    }
+
+    /**
+     * Returns the source x coordinate of the last point added, including a point dropped for being too close.
+     */
+    float getEndX() {
+        return pending ? pendingX : points[size * 2 - 2];
+    }
+
+    /**
+     * Returns the source y coordinate of the last point added, including a point dropped for being too close.
+     */
+    float getEndY() {
+        return pending ? pendingY : points[size * 2 - 1];
+    }
+
+    /**
+     * Returns the smoothed path through the points, in source coordinates. It must not be modified.
+     */
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns true if the stroke's bounds intersect a source rectangle.
+     */
+    boolean intersects(float left, float top, float right, float bottom) {
+        return this.left <= right && this.top <= bottom && this.right >= left && this.bottom >= top;
+    }
+
+    private void append(float sx, float sy) {
+        if (size * 2 == points.length) {
+            float[] grown = new float[points.length * 2];
+            System.arraycopy(points, 0, grown, 0, points.length);
+            points = grown;
+        }
+        points[size * 2] = sx;
+        points[size * 2 + 1] = sy;
+        size++;
+        updateBounds(sx, sy);
+    }
+
+    private void updateBounds(float sx, float sy) {
+        left = Math.min(left, sx);
+        top = Math.min(top, sy);
+        right = Math.max(right, sx);
+        bottom = Math.max(bottom, sy);
+    }
+
+    private void buildPath() {
+        path.rewind();
+        float prevX = points[0];
+        float prevY = points[1];
+        path.moveTo(prevX, prevY);
+        for (int i = 1; i < size; i++) {
+            float x = points[i * 2];
+            float y = points[i * 2 + 1];
+            path.quadTo(prevX, prevY, (x + prevX) / 2, (y + prevY) / 2);
+            prevX = x;
+            prevY = y;
+        }
+        // End at the last point, or draw a dot for a single point
+        path.lineTo(prevX, prevY);
+    }
+
+    /**
+     * Simplify a polyline in place with the Douglas-Peucker algorithm, using a stack instead of recursion.
+     * @return The number of points kept.
+     */
+    private static int simplify(float[] points, int count, float tolerance) {
+        if (count < 3) {
+            return count;
+        }
+        boolean[] keep = new boolean[count];
+        keep[0] = true;
+        keep[count - 1] = true;
+        int[] stack = new int[count * 2];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        stack[stackSize++] = count - 1;
+        float toleranceSquared = tolerance * tolerance;
+        while (stackSize > 0) {
+            int last = stack[--stackSize];
+            int first = stack[--stackSize];
+            float maxDistance = toleranceSquared;
+            int index = -1;
+            for (int i = first + 1; i < last; i++) {
+                float distance = segmentDistanceSquared(points, i, first, last);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    index = i;
+                }
+            }
+            if (index >= 0) {
+                keep[index] = true;
+                stack[stackSize++] = first;
+                stack[stackSize++] = index;
+                stack[stackSize++] = index;
+                stack[stackSize++] = last;
+            }
+        }
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (keep[i]) {
+                points[kept * 2] = points[i * 2];
+                points[kept * 2 + 1] = points[i * 2 + 1];
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Returns the squared distance from a point to the segment between two others.
+     */
+    private static float segmentDistanceSquared(float[] points, int index, int first, int last) {
+        float x = points[index * 2];
+        float y = points[index * 2 + 1];
+        float x1 = points[first * 2];
+        float y1 = points[first * 2 + 1];
+        float dx = points[last * 2] - x1;
+        float dy = points[last * 2 + 1] - y1;
+        float lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared > 0) {
+            float t = Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSquared));
+            x1 += t * dx;
+            y1 += t * dy;
+        }
+        dx = x - x1;
+        dy = y - y1;
+        return dx * dx + dy * dy;
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.davemorrissey.labs.subscaleview.stroke;
+
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Paint.Cap;
+import android.graphics.Paint.Join;
+import android.graphics.Paint.Style;
+import android.graphics.Path;
+
+import com.davemorrissey.labs.subscaleview.ScaleImageViewBase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Draws freehand strokes over the image. Each stroke's path is cached in source coordinates, and a frame transforms
+ * the cached paths of the strokes that are on screen into view coordinates and draws them. The paths are transformed
+ * rather than drawn on a scaled canvas because hardware accelerated canvases rasterise paths at their unscaled size,
+ * which blurs them when zoomed in, and before API 21 cannot draw paths larger than the maximum texture size at all.
+ * This keeps hardware acceleration, which a software layer would give up. Stroke widths are in view pixels and stay
+ * the same at any scale. Call {@link #draw(Canvas, ScaleImageViewBase)} from the
+ * view's onDraw method, after the image has been drawn. The layer must only be used on the UI thread.
+ */
+public class StrokeLayer {
+
+    private final List<Stroke> strokes = new ArrayList<Stroke>();
+    private final float strokeWidth;
+    private final Paint paint = new Paint();
+    private Paint outlinePaint;
+
+    // Reused for every frame
+    private final float[] points = new float[6];
+    private final Matrix matrix = new Matrix();
+    private final Path viewPath = new Path();
+
+    /**
+     * @param strokeWidth Width of strokes in view pixels.
+     * @param color Color of strokes.
+     */
+    public StrokeLayer(float strokeWidth, int color) {
+        this.strokeWidth = strokeWidth;
+        configure(paint, color);
+    }
+
+    /**
+     * Draw an outline around strokes, twice the stroke width.
+     * @param color Color of the outline, or 0 for no outline.
+     */
+    public final void setOutlineColor(int color) {
+        if (color == 0) {
+            outlinePaint = null;
+        } else {
+            outlinePaint = new Paint();
+            configure(outlinePaint, color);
+        }
+    }
+
+    /**
+     * Add a stroke. It can still be having points added, and the view must be invalidated as they are.
+     */
+    public final void add(Stroke stroke) {
+        strokes.add(stroke);
+    }
+
+    public final boolean remove(Stroke stroke) {
+        return strokes.remove(stroke);
+    }
+
+    public final void clear() {
+        strokes.clear();
+    }
+
+    /**
+     * Returns the number of strokes in the layer.
+     */
+    public final int size() {
+        return strokes.size();
+    }
+
+    /**
+     * Draw the strokes that are visible in a view.
+     */
+    public void draw(Canvas canvas, ScaleImageViewBase<?> view) {
+        float scale = view.getScale();
+        if (strokes.isEmpty() || !view.isImageReady() || scale <= 0) {
+            return;
+        }
+        // The source origin gives the view translation, and the view corners the visible source rectangle
+        float margin = strokeWidth * (outlinePaint == null ? 0.5f : 1f);
+        points[0] = 0;
+        points[1] = 0;
+        view.sourceToViewPoints(points, 0, points, 0, 1);
+        float translateX = points[0];
+        float translateY = points[1];
+        points[2] = -margin;
+        points[3] = -margin;
+        points[4] = view.getWidth() + margin;
+        points[5] = view.getHeight() + margin;
+        view.viewToSourcePoints(points, 2, points, 2, 2);
+
+        paint.setStrokeWidth(strokeWidth);
+        if (outlinePaint != null) {
+            outlinePaint.setStrokeWidth(strokeWidth * 2);
+        }
+        matrix.setScale(scale, scale);
+        matrix.postTranslate(translateX, translateY);
+        for (int i = 0; i < strokes.size(); i++) {
+            Stroke stroke = strokes.get(i);
+            if (stroke.intersects(points[2], points[3], points[4], points[5])) {
+                stroke.getPath().transform(matrix, viewPath);
+                if (!stroke.isFinished()) {
+                    // The cached path of a stroke in progress ends at the midpoint before its last point
+                    viewPath.lineTo(translateX + stroke.getEndX() * scale, translateY + stroke.getEndY() * scale);
+                }
+                if (outlinePaint != null) {
+                    canvas.drawPath(viewPath, outlinePaint);
+                }
+                canvas.drawPath(viewPath, paint);
+            }
+        }
+    }
+
+    private static void configure(Paint paint, int color) {
+        paint.setAntiAlias(true);
+        paint.setStyle(Style.STROKE);
+        paint.setStrokeCap(Cap.ROUND);
+        paint.setStrokeJoin(Join.ROUND);
+        paint.setColor(color);
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.davemorrissey.labs.subscaleview.task;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.davemorrissey.labs.subscaleview.DeprecatedConstants;
+import com.davemorrissey.labs.subscaleview.decoder.ImageHeader;
+import com.davemorrissey.labs.subscaleview.decoder.ImageHeaderSource;
+
+/**
+ * Finds the EXIF orientation of an image for the decoder tasks.
+ */
+final class ExifOrientation {
+
+    private static final String TAG = ExifOrientation.class.getSimpleName();
+
+    private ExifOrientation() { }
+
+    /**
+     * Returns the EXIF orientation of an image in degrees. The header already read by the decoder is used if it is an
+     * {@link ImageHeaderSource}, so the image is only read again for custom decoders.
+     * @param decoder The initialised decoder.
+     * @param context Application context.
+     * @param source URI of the image.
+     */
+    static int read(Object decoder, Context context, Uri source) {
+        try {
+            ImageHeader header = decoder instanceof ImageHeaderSource ? ((ImageHeaderSource)decoder).getImageHeader() : null;
+            if (header == null) {
+                header = ImageHeader.read(context, source);
+            }
+            return header.getOrientation();
+        } catch (Exception e) {
+            Log.w(TAG, "Could not get EXIF orientation of image");
+            return DeprecatedConstants.ORIENTATION_0;
+        }
+    }
+
+}
@@ -2,16 +2,18 @@ package com.davemorrissey.labs.subscaleview.task;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.media.ExifInterface;
+import android.graphics.Point;
+import android.util.DisplayMetrics;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.util.Log;
 
-import com.davemorrissey.labs.subscaleview.DeprecatedConstants;
 import com.davemorrissey.labs.subscaleview.ImageSizeDecoderListener;
 import com.davemorrissey.labs.subscaleview.ScaleImageView;
-import com.davemorrissey.labs.subscaleview.ScaleImageViewBase;
+import com.davemorrissey.labs.subscaleview.decoder.CompatDecoderFactory;
+import com.davemorrissey.labs.subscaleview.decoder.DecoderFactory;
 import com.davemorrissey.labs.subscaleview.decoder.ImageDecoder;
+import com.davemorrissey.labs.subscaleview.decoder.SampledImageDecoder;
 
 import java.lang.ref.WeakReference;
 
@@ -19,62 +21,132 @@ public class ImageDecoderTask extends AsyncTask<Void, Void, int[]> {
     private static final String TAG = ImageDecoderTask.class.getSimpleName();
     private final WeakReference<ScaleImageView> viewRef;
     private final WeakReference<Context> contextRef;
-    private final WeakReference<Class<? extends ImageDecoder>> decoderClassRef;
+    private final DecoderFactory<ImageDecoder> decoderFactory;
     private final Uri source;
+    private final int sampleSize;
+    private final long maxBitmapBytes;
+    private final int targetWidth;
+    private final int targetHeight;
+    private final int imageGeneration;
+    private final boolean upgrade;
     private Bitmap bitmap;
     private Exception exception;
 
     public ImageDecoderTask(ScaleImageView view, Context context, Class<? extends ImageDecoder> decoderClass, Uri source) {
+        this(view, context, new CompatDecoderFactory<ImageDecoder>(decoderClass), source, 0, 0);
+    }
+
+    public ImageDecoderTask(ScaleImageView view, Context context, Class<? extends ImageDecoder> decoderClass, Uri source, int sampleSize, long maxBitmapBytes) {
+        this(view, context, new CompatDecoderFactory<ImageDecoder>(decoderClass), source, sampleSize, maxBitmapBytes);
+    }
+
+    /**
+     * Create a task that decodes the image subsampled, if the decoder is a {@link SampledImageDecoder}.
+     * @param sampleSize Sample size to decode at, or 0 to use the largest that still covers the view when the image is
+     *                   fitted to it. If the view has not been measured the screen size is used.
+     * @param maxBitmapBytes Maximum size of the decoded bitmap, assuming four bytes per pixel. The sample size is
+     *                       increased until the bitmap fits. 0 for no limit.
+     */
+    public ImageDecoderTask(ScaleImageView view, Context context, DecoderFactory<ImageDecoder> decoderFactory, Uri source, int sampleSize, long maxBitmapBytes) {
+        this(view, context, decoderFactory, source, sampleSize, maxBitmapBytes, false);
+    }
+
+    /**
+     * Create a task that decodes the image subsampled, if the decoder is a {@link SampledImageDecoder}.
+     * @param upgrade Whether this decodes the image already displayed at a lower sample size. If it fails, the view is
+     *                told with {@link ScaleImageView#onUpgradeFailed(int, Exception)} instead of the listener, because
+     *                the image is still on screen.
+     */
+    public ImageDecoderTask(ScaleImageView view, Context context, DecoderFactory<ImageDecoder> decoderFactory, Uri source, int sampleSize, long maxBitmapBytes, boolean upgrade) {
         this.viewRef = new WeakReference<ScaleImageView>(view);
         this.contextRef = new WeakReference<Context>(context);
-        this.decoderClassRef = new WeakReference<Class<? extends ImageDecoder>>(decoderClass);
+        this.decoderFactory = decoderFactory;
         this.source = source;
+        this.sampleSize = sampleSize;
+        this.maxBitmapBytes = maxBitmapBytes;
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        this.targetWidth = view.getWidth() > 0 ? view.getWidth() : metrics.widthPixels;
+        this.targetHeight = view.getHeight() > 0 ? view.getHeight() : metrics.heightPixels;
+        this.imageGeneration = view.getImageGeneration();
+        this.upgrade = upgrade;
     }
 
     @Override
     protected int[] doInBackground(Void... params) {
         try {
-            String sourceUri = source.toString();
             Context context = contextRef.get();
-            Class<? extends ImageDecoder> decoderClass = decoderClassRef.get();
-            if (context != null && decoderClass != null) {
-                int exifOrientation = DeprecatedConstants.ORIENTATION_0;
-                bitmap = decoderClass.newInstance().decode(context, source);
-                if (sourceUri.startsWith(ScaleImageViewBase.FILE_SCHEME) && !sourceUri.startsWith(ScaleImageViewBase.ASSET_SCHEME)) {
-                    try {
-                        ExifInterface exifInterface = new ExifInterface(sourceUri.substring(ScaleImageViewBase.FILE_SCHEME.length() - 1));
-                        int orientationAttr = exifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-                        if (orientationAttr == ExifInterface.ORIENTATION_NORMAL || orientationAttr == ExifInterface.ORIENTATION_UNDEFINED) {
-                            exifOrientation = DeprecatedConstants.ORIENTATION_0;
-                        } else if (orientationAttr == ExifInterface.ORIENTATION_ROTATE_90) {
-                            exifOrientation = DeprecatedConstants.ORIENTATION_90;
-                        } else if (orientationAttr == ExifInterface.ORIENTATION_ROTATE_180) {
-                            exifOrientation = DeprecatedConstants.ORIENTATION_180;
-                        } else if (orientationAttr == ExifInterface.ORIENTATION_ROTATE_270) {
-                            exifOrientation = DeprecatedConstants.ORIENTATION_270;
-                        } else {
-                            Log.w(TAG, "Unsupported EXIF orientation: " + orientationAttr);
-                        }
-                    } catch (Exception e) {
-                        Log.w(TAG, "Could not get EXIF orientation of image");
+            if (context != null) {
+                int width;
+                int height;
+                int exifOrientation;
+                ImageDecoder decoder = decoderFactory.make();
+                try {
+                    if (decoder instanceof SampledImageDecoder) {
+                        SampledImageDecoder sampledDecoder = (SampledImageDecoder)decoder;
+                        Point dimensions = sampledDecoder.decodeBounds(context, source);
+                        width = dimensions.x;
+                        height = dimensions.y;
+                        bitmap = sampledDecoder.decode(context, source, calculateSampleSize(width, height));
+                    } else {
+                        bitmap = decoder.decode(context, source);
+                        width = bitmap.getWidth();
+                        height = bitmap.getHeight();
                     }
+                    exifOrientation = ExifOrientation.read(decoder, context, source);
+                } finally {
+                    decoderFactory.release(decoder);
                 }
-                return new int[] { bitmap.getWidth(), bitmap.getHeight(), exifOrientation };
+                return new int[] { width, height, exifOrientation };
             }
         } catch (Exception e) {
             Log.e(TAG, "Failed to initialise bitmap decoder", e);
             this.exception = e;
+        } catch (OutOfMemoryError e) {
+            Log.e(TAG, "Failed to decode bitmap - OutOfMemoryError", e);
+            this.exception = new RuntimeException(e);
         }
         return null;
     }
 
+    /**
+     * Returns the requested sample size, or the largest power of two that still covers the target dimensions when
+     * the image is fitted inside them in either orientation, increased if necessary to fit within the byte limit.
+     */
+    private int calculateSampleSize(int width, int height) {
+        int sampleSize = this.sampleSize;
+        if (sampleSize <= 0) {
+            float fitScale = Math.max(
+                Math.min(targetWidth/(float)width, targetHeight/(float)height),
+                Math.min(targetWidth/(float)height, targetHeight/(float)width)
+            );
+            sampleSize = 1;
+            while (sampleSize * 2 * fitScale <= 1) {
+                sampleSize *= 2;
+            }
+        }
+        while (maxBitmapBytes > 0 && 4L * (width/sampleSize) * (height/sampleSize) > maxBitmapBytes) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
     @Override
     protected void onPostExecute(int[] xyo) {
         final ScaleImageView scaleImageView = viewRef.get();
-        if (scaleImageView != null) {
-            if (bitmap != null && xyo != null && xyo.length == 3) {
-                scaleImageView.onImageSourceAvailable(bitmap, xyo[0], xyo[1], xyo[2]);
-            } else if (exception != null ) {
+        if (scaleImageView == null || scaleImageView.getImageGeneration() != imageGeneration) {
+            // The view has gone, or the image was changed or reset while this one was decoding
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+        } else if (bitmap != null && xyo != null && xyo.length == 3) {
+            scaleImageView.onImageSourceAvailable(bitmap, xyo[0], xyo[1], xyo[2]);
+        } else {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            if (upgrade) {
+                scaleImageView.onUpgradeFailed(sampleSize, exception);
+            } else if (exception != null) {
                 final ImageSizeDecoderListener listener = scaleImageView.getImageSizeDecoderListener();
                 if (listener != null) {
                     listener.onImageSizeDecodingFailed(exception);
@@ -0,0 +1,62 @@
+package com.davemorrissey.labs.subscaleview.task;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.davemorrissey.labs.subscaleview.SubsamplingScaleImageView;
+import com.davemorrissey.labs.subscaleview.decoder.Placeholder;
+import com.davemorrissey.labs.subscaleview.decoder.PlaceholderProvider;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Consults placeholder providers in order and passes the first placeholder found to the view.
+ */
+public class PlaceholderTask extends AsyncTask<Void, Void, Placeholder> {
+    private static final String TAG = PlaceholderTask.class.getSimpleName();
+    private final WeakReference<SubsamplingScaleImageView> viewRef;
+    private final WeakReference<Context> contextRef;
+    private final PlaceholderProvider[] providers;
+    private final Uri source;
+
+    public PlaceholderTask(SubsamplingScaleImageView view, Context context, PlaceholderProvider[] providers, Uri source) {
+        this.viewRef = new WeakReference<SubsamplingScaleImageView>(view);
+        this.contextRef = new WeakReference<Context>(context);
+        this.providers = providers;
+        this.source = source;
+    }
+
+    @Override
+    protected Placeholder doInBackground(Void... params) {
+        for (PlaceholderProvider provider : providers) {
+            Context context = contextRef.get();
+            if (context == null || viewRef.get() == null) {
+                return null;
+            }
+            try {
+                Placeholder placeholder = provider.getPlaceholder(context, source);
+                if (placeholder != null) {
+                    return placeholder;
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Placeholder provider " + provider.getClass().getSimpleName() + " failed", e);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected void onPostExecute(Placeholder placeholder) {
+        if (placeholder == null) {
+            return;
+        }
+        final SubsamplingScaleImageView view = viewRef.get();
+        if (view != null) {
+            view.onPlaceholderAvailable(source, placeholder);
+        } else {
+            placeholder.recycle();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.davemorrissey.labs.subscaleview.task;
+
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor for tiles from concurrent decoders. It has a fixed number of threads and an unbounded queue, so queueing a
+ * whole level of tiles at once never rejects a task, as the {@link android.os.AsyncTask} thread pool executor does
+ * once its 128 slot queue is full. The queue is last in first out: the most recently requested tiles are the ones
+ * the view is showing now, so they are decoded before tiles requested for earlier positions. This class uses no
+ * Android APIs.
+ */
+public final class TileExecutor {
+
+    private static final int THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static ThreadPoolExecutor instance;
+
+    private TileExecutor() { }
+
+    /**
+     * Returns the shared executor. Its threads are created as tiles are queued and stop after a few seconds idle.
+     */
+    public static synchronized ThreadPoolExecutor getInstance() {
+        if (instance == null) {
+            instance = create(THREADS);
+        }
+        return instance;
+    }
+
+    /**
+     * Create an executor with a fixed number of threads and a last in first out queue.
+     */
+    static ThreadPoolExecutor create(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS, new LifoQueue(), new TileThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Queue that hands out the newest task first. The executor only adds with {@link #offer(Object)}.
+     */
+    private static final class LifoQueue extends LinkedBlockingDeque<Runnable> {
+
+        @Override
+        public boolean offer(Runnable runnable) {
+            return offerFirst(runnable);
+        }
+
+    }
+
+    private static final class TileThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SubsamplingScaleImageView tile #" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+
+    }
+
+}
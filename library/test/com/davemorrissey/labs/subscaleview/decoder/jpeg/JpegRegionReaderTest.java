@@ -0,0 +1,335 @@
+package com.davemorrissey.labs.subscaleview.decoder.jpeg;
+
+import org.junit.Test;
+import org.w3c.dom.NodeList;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Decodes JPEGs generated with the JDK's encoder and compares the results with the JDK's decoder, then checks that
+ * regions and sample sizes are consistent with a decode of the whole image. The image sizes are not multiples of the
+ * MCU size, so edge MCUs are covered.
+ */
+public class JpegRegionReaderTest {
+
+    private static final String METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+    private static final int WIDTH = 203;
+    private static final int HEIGHT = 157;
+
+    // Maximum and mean difference from the JDK decoder in any channel. Both use integer IDCTs but round differently,
+    // and the JDK interpolates subsampled chroma where the reader replicates it.
+    private static final int REFERENCE_MAX_ERROR = 24;
+    private static final double REFERENCE_MEAN_ERROR = 1.5;
+    private static final double REFERENCE_MEAN_ERROR_SUBSAMPLED = 4;
+
+    @Test
+    public void color444() throws Exception {
+        checkImage(encode(colorImage(), 1, 1, 0), false, false);
+    }
+
+    @Test
+    public void color420() throws Exception {
+        checkImage(encode(colorImage(), 2, 2, 0), false, true);
+    }
+
+    @Test
+    public void color422() throws Exception {
+        checkImage(encode(colorImage(), 2, 1, 0), false, true);
+    }
+
+    @Test
+    public void grayscale() throws Exception {
+        checkImage(encode(grayImage(), 1, 1, 0), true, false);
+    }
+
+    @Test
+    public void restartIntervals420() throws Exception {
+        // Intervals that don't divide the MCU row, so rows start part way through an interval
+        checkImage(encode(colorImage(), 2, 2, 5), false, true);
+    }
+
+    @Test
+    public void restartIntervals444() throws Exception {
+        checkImage(encode(colorImage(), 1, 1, 3), false, false);
+    }
+
+    @Test
+    public void restartIntervalsGrayscale() throws Exception {
+        checkImage(encode(grayImage(), 1, 1, 7), true, false);
+    }
+
+    @Test
+    public void restartIntervalEveryMcu() throws Exception {
+        checkImage(encode(colorImage(), 2, 2, 1), false, true);
+    }
+
+    @Test
+    public void restartsMatchUninterruptedScan() throws Exception {
+        BufferedImage image = colorImage();
+        int[] plain = decodeAll(new JpegRegionReader(ByteBuffer.wrap(encode(image, 2, 2, 0))));
+        int[] restarted = decodeAll(new JpegRegionReader(ByteBuffer.wrap(encode(image, 2, 2, 4))));
+        assertPixelsEqual("restart intervals", plain, restarted);
+    }
+
+    @Test
+    public void rejectsProgressive() throws Exception {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        byte[] jpeg = write(writer, colorImage(), param, null);
+        try {
+            new JpegRegionReader(ByteBuffer.wrap(jpeg));
+            fail("Progressive JPEG was accepted");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void rejectsOtherFormats() throws Exception {
+        try {
+            new JpegRegionReader(ByteBuffer.wrap(new byte[] { (byte)0x89, 'P', 'N', 'G', 0, 0, 0, 0 }));
+            fail("PNG was accepted");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRegionOutsideImage() throws Exception {
+        JpegRegionReader reader = new JpegRegionReader(ByteBuffer.wrap(encode(grayImage(), 1, 1, 0)));
+        reader.decodeRegion(0, 0, WIDTH + 1, HEIGHT, 1);
+    }
+
+    @Test
+    public void sampledLength() {
+        assertEquals(10, JpegRegionReader.sampledLength(10, 1));
+        assertEquals(5, JpegRegionReader.sampledLength(10, 2));
+        assertEquals(3, JpegRegionReader.sampledLength(10, 4));
+        assertEquals(1, JpegRegionReader.sampledLength(1, 8));
+    }
+
+    /**
+     * Compare a full decode with the JDK, then check regions and sample sizes against the full decode.
+     */
+    private static void checkImage(byte[] jpeg, boolean grayscale, boolean subsampled) throws Exception {
+        JpegRegionReader reader = new JpegRegionReader(ByteBuffer.wrap(jpeg));
+        assertEquals(WIDTH, reader.getWidth());
+        assertEquals(HEIGHT, reader.getHeight());
+        assertEquals(grayscale, reader.isGrayscale());
+
+        int[] full = decodeAll(reader);
+        compareWithReference(jpeg, full, grayscale, subsampled ? REFERENCE_MEAN_ERROR_SUBSAMPLED : REFERENCE_MEAN_ERROR);
+
+        // Regions at sample size 1 are exact crops of the full image, wherever they start relative to MCUs
+        int[][] regions = {
+            { 0, 0, WIDTH, HEIGHT }, { 0, 0, 1, 1 }, { WIDTH - 1, HEIGHT - 1, WIDTH, HEIGHT }, { 17, 9, 130, 101 },
+            { 8, 16, 72, 80 }, { 150, 3, WIDTH, 60 }, { 1, 140, 202, HEIGHT }, { 99, 0, 100, HEIGHT }, { 0, 77, WIDTH, 78 }
+        };
+        for (int[] region : regions) {
+            int[] pixels = reader.decodeRegion(region[0], region[1], region[2], region[3], 1);
+            assertPixelsEqual("region " + region[0] + "," + region[1] + "," + region[2] + "," + region[3], crop(full, region), pixels);
+        }
+
+        // Sample sizes below 8 average the same pixels as the full decode
+        for (int sampleSize : new int[] { 2, 3, 4 }) {
+            for (int[] region : regions) {
+                int[] pixels = reader.decodeRegion(region[0], region[1], region[2], region[3], sampleSize);
+                assertPixelsEqual("region " + region[0] + "," + region[1] + " sample size " + sampleSize, average(full, region, sampleSize), pixels);
+            }
+        }
+
+        // From 8 up only DC coefficients are used, which approximate the block averages. Subsampled chroma has a lower
+        // resolution than the output until each output pixel covers a whole MCU, so those start at 16.
+        for (int sampleSize : subsampled ? new int[] { 16, 32 } : new int[] { 8, 16 }) {
+            int[] region = { 0, 0, WIDTH, HEIGHT };
+            int[] pixels = reader.decodeRegion(0, 0, WIDTH, HEIGHT, sampleSize);
+            int[] expected = average(full, region, sampleSize);
+            assertEquals(expected.length, pixels.length);
+            for (int i = 0; i < pixels.length; i++) {
+                assertTrue("DC sample size " + sampleSize + " pixel " + i, maxChannelDifference(expected[i], pixels[i]) <= 12);
+            }
+        }
+    }
+
+    private static int[] decodeAll(JpegRegionReader reader) {
+        return reader.decodeRegion(0, 0, reader.getWidth(), reader.getHeight(), 1);
+    }
+
+    /**
+     * Compare pixels with the JDK decoder. Grayscale images are compared with the raw samples, because the JDK
+     * converts them from a linear gray color space when returning RGB.
+     */
+    private static void compareWithReference(byte[] jpeg, int[] pixels, boolean grayscale, double meanError) throws IOException {
+        BufferedImage reference = ImageIO.read(new ByteArrayInputStream(jpeg));
+        long total = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int pixel = pixels[y * WIDTH + x];
+                assertEquals("alpha at " + x + "," + y, 0xFF, pixel >>> 24);
+                int expected;
+                if (grayscale) {
+                    int v = reference.getRaster().getSample(x, y, 0);
+                    expected = v << 16 | v << 8 | v;
+                } else {
+                    expected = reference.getRGB(x, y);
+                }
+                int difference = maxChannelDifference(expected, pixel);
+                assertTrue("difference " + difference + " at " + x + "," + y, difference <= REFERENCE_MAX_ERROR);
+                total += difference;
+            }
+        }
+        double mean = total / (double)(WIDTH * HEIGHT);
+        assertTrue("mean difference " + mean, mean <= meanError);
+    }
+
+    private static int[] crop(int[] full, int[] region) {
+        int width = region[2] - region[0];
+        int height = region[3] - region[1];
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(full, (region[1] + y) * WIDTH + region[0], pixels, y * width, width);
+        }
+        return pixels;
+    }
+
+    /**
+     * Average each sampleSize square of the region, cropped at its right and bottom edges, with integer division.
+     */
+    private static int[] average(int[] full, int[] region, int sampleSize) {
+        int width = JpegRegionReader.sampledLength(region[2] - region[0], sampleSize);
+        int height = JpegRegionReader.sampledLength(region[3] - region[1], sampleSize);
+        int[] pixels = new int[width * height];
+        for (int outY = 0; outY < height; outY++) {
+            for (int outX = 0; outX < width; outX++) {
+                int r = 0, g = 0, b = 0, count = 0;
+                for (int y = region[1] + outY * sampleSize; y < Math.min(region[3], region[1] + (outY + 1) * sampleSize); y++) {
+                    for (int x = region[0] + outX * sampleSize; x < Math.min(region[2], region[0] + (outX + 1) * sampleSize); x++) {
+                        int pixel = full[y * WIDTH + x];
+                        r += pixel >> 16 & 0xFF;
+                        g += pixel >> 8 & 0xFF;
+                        b += pixel & 0xFF;
+                        count++;
+                    }
+                }
+                pixels[outY * width + outX] = 0xFF000000 | (r / count) << 16 | (g / count) << 8 | (b / count);
+            }
+        }
+        return pixels;
+    }
+
+    private static void assertPixelsEqual(String message, int[] expected, int[] actual) {
+        assertEquals(message + " length", expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual[i]) {
+                fail(message + ": pixel " + i + " expected " + Integer.toHexString(expected[i]) + " but was " + Integer.toHexString(actual[i]));
+            }
+        }
+    }
+
+    private static int maxChannelDifference(int a, int b) {
+        int difference = 0;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            difference = Math.max(difference, Math.abs((a >> shift & 0xFF) - (b >> shift & 0xFF)));
+        }
+        return difference;
+    }
+
+    /**
+     * Smooth color gradients with some detail, so that chroma subsampling and quantization errors stay small.
+     */
+    private static BufferedImage colorImage() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int r = x * 255 / WIDTH;
+                int g = y * 255 / HEIGHT;
+                int b = (int)(128 + 100 * Math.sin(x / 23.0) * Math.cos(y / 29.0));
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage grayImage() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int v = (int)(128 + 60 * Math.sin(x / 7.0) + 60 * Math.cos(y / 11.0));
+                image.getRaster().setSample(x, y, 0, v);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Encode a baseline JPEG with the given luma sampling factors, chroma sampled once per MCU, and an optional
+     * restart interval in MCUs.
+     */
+    private static byte[] encode(BufferedImage image, int hSampling, int vSampling, int restartInterval) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(0.95f);
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+        IIOMetadataNode root = (IIOMetadataNode)metadata.getAsTree(METADATA_FORMAT);
+        NodeList components = root.getElementsByTagName("componentSpec");
+        for (int i = 0; i < components.getLength(); i++) {
+            IIOMetadataNode component = (IIOMetadataNode)components.item(i);
+            component.setAttribute("HsamplingFactor", Integer.toString(i == 0 ? hSampling : 1));
+            component.setAttribute("VsamplingFactor", Integer.toString(i == 0 ? vSampling : 1));
+        }
+        if (restartInterval > 0) {
+            IIOMetadataNode markerSequence = (IIOMetadataNode)root.getElementsByTagName("markerSequence").item(0);
+            IIOMetadataNode dri = new IIOMetadataNode("dri");
+            dri.setAttribute("interval", Integer.toString(restartInterval));
+            markerSequence.insertBefore(dri, root.getElementsByTagName("sos").item(0));
+        }
+        metadata.setFromTree(METADATA_FORMAT, root);
+        byte[] jpeg = write(writer, image, param, metadata);
+        assertFalse("restart markers", restartInterval > 0 && !hasMarker(jpeg, 0xD0));
+        return jpeg;
+    }
+
+    private static byte[] write(ImageWriter writer, BufferedImage image, ImageWriteParam param, IIOMetadata metadata) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageOutputStream stream = ImageIO.createImageOutputStream(out);
+        try {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        } finally {
+            stream.close();
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static boolean hasMarker(byte[] jpeg, int marker) {
+        for (int i = 0; i < jpeg.length - 1; i++) {
+            if ((jpeg[i] & 0xFF) == 0xFF && (jpeg[i + 1] & 0xFF) == marker) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
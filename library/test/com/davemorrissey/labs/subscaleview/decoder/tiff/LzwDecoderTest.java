@@ -0,0 +1,150 @@
+package com.davemorrissey.labs.subscaleview.decoder.tiff;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Decodes code streams written with explicit code widths, so the width changes are checked against the TIFF rules
+ * rather than against an encoder, then round trips longer data through the test encoder.
+ */
+public class LzwDecoderTest {
+
+    private static final int CLEAR = 256;
+    private static final int END = 257;
+
+    @Test
+    public void literals() {
+        TiffBuilder.LzwWriter writer = new TiffBuilder.LzwWriter();
+        writer.write(CLEAR, 9);
+        writer.write('T', 9);
+        writer.write('I', 9);
+        writer.write('F', 9);
+        writer.write('F', 9);
+        writer.write(END, 9);
+        assertDecodes("TIFF".getBytes(), writer.toByteArray());
+    }
+
+    @Test
+    public void repeatedStrings() {
+        // ABABABA: 258 is AB, 259 is BA, 260 is ABA
+        TiffBuilder.LzwWriter writer = new TiffBuilder.LzwWriter();
+        writer.write(CLEAR, 9);
+        writer.write('A', 9);
+        writer.write('B', 9);
+        writer.write(258, 9);
+        writer.write(260, 9);
+        writer.write(END, 9);
+        assertDecodes("ABABABA".getBytes(), writer.toByteArray());
+    }
+
+    @Test
+    public void codeNotYetInTable() {
+        // Each code after the first is the one about to be added, which must be previous string + its first byte
+        TiffBuilder.LzwWriter writer = new TiffBuilder.LzwWriter();
+        writer.write(CLEAR, 9);
+        writer.write('a', 9);
+        writer.write(258, 9);
+        writer.write(259, 9);
+        writer.write(260, 9);
+        writer.write(END, 9);
+        assertDecodes("aaaaaaaaaa".getBytes(), writer.toByteArray());
+    }
+
+    @Test
+    public void earlyCodeWidthChange() {
+        // The first code after a clear adds no entry, and each one after it adds one. The width increases after the
+        // code that makes the next entry 511, 1023 or 2047, one code before the width is needed.
+        byte[] expected = new byte[2200];
+        TiffBuilder.LzwWriter writer = new TiffBuilder.LzwWriter();
+        writer.write(CLEAR, 9);
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte)(i * 7);
+            writer.write(expected[i] & 0xFF, i <= 253 ? 9 : i <= 765 ? 10 : i <= 1789 ? 11 : 12);
+        }
+        writer.write(END, 12);
+        assertDecodes(expected, writer.toByteArray());
+    }
+
+    @Test
+    public void clearResetsWidth() {
+        byte[] expected = new byte[300 + 3];
+        TiffBuilder.LzwWriter writer = new TiffBuilder.LzwWriter();
+        writer.write(CLEAR, 9);
+        for (int i = 0; i < 300; i++) {
+            expected[i] = (byte)i;
+            writer.write(i & 0xFF, i <= 253 ? 9 : 10);
+        }
+        writer.write(CLEAR, 10);
+        expected[300] = 'x';
+        expected[301] = 'x';
+        expected[302] = 'x';
+        writer.write('x', 9);
+        writer.write(258, 9);
+        writer.write(END, 9);
+        assertDecodes(expected, writer.toByteArray());
+    }
+
+    @Test
+    public void fullTable() {
+        // Long runs of repetitive data fill the table, so the encoder clears it several times
+        Random random = new Random(37);
+        byte[] data = new byte[200000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(random.nextInt(6) + (i / 5000) * 4);
+        }
+        assertDecodes(data, TiffBuilder.lzw(data));
+    }
+
+    @Test
+    public void randomData() {
+        Random random = new Random(41);
+        byte[] data = new byte[50000];
+        random.nextBytes(data);
+        assertDecodes(data, TiffBuilder.lzw(data));
+    }
+
+    @Test
+    public void stopsWhenOutputFull() {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(i % 3);
+        }
+        byte[] output = new byte[555];
+        assertEquals(555, LzwDecoder.decode(TiffBuilder.lzw(data), output));
+        for (int i = 0; i < output.length; i++) {
+            assertEquals(data[i], output[i]);
+        }
+    }
+
+    @Test
+    public void stopsAtInvalidCode() {
+        TiffBuilder.LzwWriter writer = new TiffBuilder.LzwWriter();
+        writer.write(CLEAR, 9);
+        writer.write('a', 9);
+        writer.write('b', 9);
+        writer.write(300, 9);
+        writer.write('c', 9);
+        writer.write(END, 9);
+        assertEquals(2, LzwDecoder.decode(writer.toByteArray(), new byte[10]));
+    }
+
+    @Test
+    public void stopsAtEndOfData() {
+        TiffBuilder.LzwWriter writer = new TiffBuilder.LzwWriter();
+        writer.write(CLEAR, 9);
+        writer.write('a', 9);
+        writer.write('b', 9);
+        assertEquals(2, LzwDecoder.decode(writer.toByteArray(), new byte[10]));
+    }
+
+    private static void assertDecodes(byte[] expected, byte[] input) {
+        byte[] output = new byte[expected.length];
+        assertEquals(expected.length, LzwDecoder.decode(input, output));
+        assertArrayEquals(expected, output);
+    }
+
+}
@@ -0,0 +1,483 @@
+package com.davemorrissey.labs.subscaleview.decoder.tiff;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+/**
+ * Writes small TIFF and BigTIFF files for tests, with stripped or tiled layouts, no, LZW or Deflate compression, and
+ * horizontal differencing. Images are given as raw samples, row by row, in the file's byte order.
+ */
+final class TiffBuilder {
+
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_LONG8 = 16;
+
+    private final ByteOrder order;
+    private final boolean bigTiff;
+    private final List<Image> images = new ArrayList<Image>();
+    private final List<Image> subImages = new ArrayList<Image>();
+
+    TiffBuilder(ByteOrder order, boolean bigTiff) {
+        this.order = order;
+        this.bigTiff = bigTiff;
+    }
+
+    /**
+     * Add an image to the main IFD chain. The first is the full resolution image.
+     */
+    TiffBuilder add(Image image) {
+        images.add(image);
+        return this;
+    }
+
+    /**
+     * Add an image to the SubIFDs of the first image.
+     */
+    TiffBuilder addSubIfd(Image image) {
+        subImages.add(image);
+        return this;
+    }
+
+    /**
+     * One image, with the tags needed to describe it.
+     */
+    static final class Image {
+        final int width;
+        final int height;
+        final int photometric;
+        final int samplesPerPixel;
+        final int bitsPerSample;
+        final byte[] samples;
+        int tileWidth;
+        int tileHeight;
+        int rowsPerStrip;
+        int compression = TiffImage.COMPRESSION_NONE;
+        int predictor = 1;
+        int extraSamples = -1;
+        int subfileType;
+        int orientation;
+        int[] colorMap;
+
+        Image(int width, int height, int photometric, int samplesPerPixel, int bitsPerSample, byte[] samples) {
+            this.width = width;
+            this.height = height;
+            this.photometric = photometric;
+            this.samplesPerPixel = samplesPerPixel;
+            this.bitsPerSample = bitsPerSample;
+            this.samples = samples;
+            this.rowsPerStrip = height;
+        }
+
+        Image strips(int rowsPerStrip) {
+            this.rowsPerStrip = rowsPerStrip;
+            return this;
+        }
+
+        Image tiles(int tileWidth, int tileHeight) {
+            this.tileWidth = tileWidth;
+            this.tileHeight = tileHeight;
+            return this;
+        }
+
+        Image compression(int compression, int predictor) {
+            this.compression = compression;
+            this.predictor = predictor;
+            return this;
+        }
+
+        Image extraSamples(int extraSamples) {
+            this.extraSamples = extraSamples;
+            return this;
+        }
+
+        Image subfileType(int subfileType) {
+            this.subfileType = subfileType;
+            return this;
+        }
+
+        Image orientation(int orientation) {
+            this.orientation = orientation;
+            return this;
+        }
+
+        Image colorMap(int[] colorMap) {
+            this.colorMap = colorMap;
+            return this;
+        }
+
+        int rowBytes(int width) {
+            return bitsPerSample == 1 ? (width + 7) / 8 : width * samplesPerPixel * bitsPerSample / 8;
+        }
+    }
+
+    byte[] build() {
+        Output out = new Output(order);
+        out.bytes(order == ByteOrder.LITTLE_ENDIAN ? new byte[] { 'I', 'I' } : new byte[] { 'M', 'M' });
+        if (bigTiff) {
+            out.short16(43);
+            out.short16(8);
+            out.short16(0);
+            out.long64(0);
+        } else {
+            out.short16(42);
+            out.int32(0);
+        }
+
+        long[] subIfdOffsets = new long[subImages.size()];
+        for (int i = 0; i < subImages.size(); i++) {
+            subIfdOffsets[i] = writeImage(out, subImages.get(i), 0, null);
+        }
+        // Write the chain backwards so each IFD knows the offset of the next
+        long next = 0;
+        for (int i = images.size() - 1; i >= 0; i--) {
+            next = writeImage(out, images.get(i), next, i == 0 && subIfdOffsets.length > 0 ? subIfdOffsets : null);
+        }
+        byte[] file = out.toByteArray();
+        ByteBuffer header = ByteBuffer.wrap(file).order(order);
+        if (bigTiff) {
+            header.putLong(8, next);
+        } else {
+            header.putInt(4, (int)next);
+        }
+        return file;
+    }
+
+    /**
+     * Write the data and IFD of an image.
+     * @return Offset of the IFD.
+     */
+    private long writeImage(Output out, Image image, long nextIfd, long[] subIfds) {
+        boolean tiled = image.tileWidth > 0;
+        int chunkWidth = tiled ? image.tileWidth : image.width;
+        int chunkHeight = tiled ? image.tileHeight : image.rowsPerStrip;
+        int across = (image.width + chunkWidth - 1) / chunkWidth;
+        int down = (image.height + chunkHeight - 1) / chunkHeight;
+        long[] offsets = new long[across * down];
+        long[] byteCounts = new long[across * down];
+        for (int y = 0; y < down; y++) {
+            for (int x = 0; x < across; x++) {
+                byte[] chunk = chunk(image, x * chunkWidth, y * chunkHeight, chunkWidth, chunkHeight, tiled);
+                offsets[y * across + x] = out.position();
+                byteCounts[y * across + x] = chunk.length;
+                out.bytes(chunk);
+            }
+        }
+
+        TreeMap<Integer, long[]> tags = new TreeMap<Integer, long[]>();
+        TreeMap<Integer, Integer> types = new TreeMap<Integer, Integer>();
+        if (image.subfileType != 0) {
+            put(tags, types, 254, TYPE_LONG, image.subfileType);
+        }
+        put(tags, types, 256, TYPE_LONG, image.width);
+        put(tags, types, 257, TYPE_LONG, image.height);
+        long[] bits = new long[image.samplesPerPixel];
+        Arrays.fill(bits, image.bitsPerSample);
+        tags.put(258, bits);
+        types.put(258, TYPE_SHORT);
+        put(tags, types, 259, TYPE_SHORT, image.compression);
+        put(tags, types, 262, TYPE_SHORT, image.photometric);
+        if (image.orientation != 0) {
+            put(tags, types, 274, TYPE_SHORT, image.orientation);
+        }
+        put(tags, types, 277, TYPE_SHORT, image.samplesPerPixel);
+        int offsetType = bigTiff ? TYPE_LONG8 : TYPE_LONG;
+        if (tiled) {
+            put(tags, types, 322, TYPE_SHORT, image.tileWidth);
+            put(tags, types, 323, TYPE_SHORT, image.tileHeight);
+            tags.put(324, offsets);
+            types.put(324, offsetType);
+            tags.put(325, byteCounts);
+            types.put(325, offsetType);
+        } else {
+            tags.put(273, offsets);
+            types.put(273, offsetType);
+            put(tags, types, 278, TYPE_LONG, image.rowsPerStrip);
+            tags.put(279, byteCounts);
+            types.put(279, offsetType);
+        }
+        put(tags, types, 284, TYPE_SHORT, 1);
+        if (image.predictor != 1) {
+            put(tags, types, 317, TYPE_SHORT, image.predictor);
+        }
+        if (image.colorMap != null) {
+            long[] colors = new long[image.colorMap.length];
+            for (int i = 0; i < colors.length; i++) {
+                colors[i] = image.colorMap[i];
+            }
+            tags.put(320, colors);
+            types.put(320, TYPE_SHORT);
+        }
+        if (subIfds != null) {
+            tags.put(330, subIfds);
+            types.put(330, offsetType);
+        }
+        if (image.extraSamples >= 0) {
+            put(tags, types, 338, TYPE_SHORT, image.extraSamples);
+        }
+        return writeIfd(out, tags, types, nextIfd);
+    }
+
+    private static void put(TreeMap<Integer, long[]> tags, TreeMap<Integer, Integer> types, int tag, int type, long value) {
+        tags.put(tag, new long[] { value });
+        types.put(tag, type);
+    }
+
+    /**
+     * Write values too large for their entries, then the IFD itself.
+     */
+    private long writeIfd(Output out, TreeMap<Integer, long[]> tags, TreeMap<Integer, Integer> types, long nextIfd) {
+        int inlineSize = bigTiff ? 8 : 4;
+        TreeMap<Integer, Long> valueOffsets = new TreeMap<Integer, Long>();
+        for (Integer tag : tags.keySet()) {
+            long[] values = tags.get(tag);
+            int type = types.get(tag);
+            if (values.length * typeSize(type) > inlineSize) {
+                out.align();
+                valueOffsets.put(tag, out.position());
+                for (long value : values) {
+                    out.value(type, value);
+                }
+            }
+        }
+        out.align();
+        long ifdOffset = out.position();
+        if (bigTiff) {
+            out.long64(tags.size());
+        } else {
+            out.short16(tags.size());
+        }
+        for (Integer tag : tags.keySet()) {
+            long[] values = tags.get(tag);
+            int type = types.get(tag);
+            out.short16(tag);
+            out.short16(type);
+            if (bigTiff) {
+                out.long64(values.length);
+            } else {
+                out.int32(values.length);
+            }
+            Long valueOffset = valueOffsets.get(tag);
+            if (valueOffset != null) {
+                if (bigTiff) {
+                    out.long64(valueOffset);
+                } else {
+                    out.int32(valueOffset);
+                }
+            } else {
+                int written = 0;
+                for (long value : values) {
+                    out.value(type, value);
+                    written += typeSize(type);
+                }
+                for (; written < inlineSize; written++) {
+                    out.bytes(new byte[1]);
+                }
+            }
+        }
+        if (bigTiff) {
+            out.long64(nextIfd);
+        } else {
+            out.int32(nextIfd);
+        }
+        return ifdOffset;
+    }
+
+    private static int typeSize(int type) {
+        return type == TYPE_SHORT ? 2 : type == TYPE_LONG ? 4 : 8;
+    }
+
+    /**
+     * Extract a strip or tile, padding tiles to their full size, then apply the predictor and compression.
+     */
+    private byte[] chunk(Image image, int left, int top, int chunkWidth, int chunkHeight, boolean tiled) {
+        int imageRowBytes = image.rowBytes(image.width);
+        int rows = tiled ? chunkHeight : Math.min(chunkHeight, image.height - top);
+        int rowBytes = image.rowBytes(chunkWidth);
+        byte[] raw = new byte[rowBytes * rows];
+        int bytesPerPixel = image.samplesPerPixel * image.bitsPerSample / 8;
+        for (int y = 0; y < rows && top + y < image.height; y++) {
+            int length = Math.min(rowBytes, imageRowBytes - left * bytesPerPixel);
+            System.arraycopy(image.samples, (top + y) * imageRowBytes + left * bytesPerPixel, raw, y * rowBytes, length);
+        }
+        if (image.predictor == 2) {
+            applyPredictor(image, raw, rows, rowBytes, chunkWidth);
+        }
+        if (image.compression == TiffImage.COMPRESSION_LZW) {
+            return lzw(raw);
+        } else if (image.compression == TiffImage.COMPRESSION_DEFLATE || image.compression == TiffImage.COMPRESSION_ADOBE_DEFLATE) {
+            Deflater deflater = new Deflater();
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+            deflater.end();
+            return compressed.toByteArray();
+        }
+        return raw;
+    }
+
+    /**
+     * Horizontal differencing, from the right so each sample is replaced by its difference from the original sample
+     * to its left.
+     */
+    private void applyPredictor(Image image, byte[] raw, int rows, int rowBytes, int chunkWidth) {
+        int stride = image.samplesPerPixel;
+        ByteBuffer buffer = ByteBuffer.wrap(raw).order(order);
+        for (int y = 0; y < rows; y++) {
+            int row = y * rowBytes;
+            for (int i = chunkWidth * stride - 1; i >= stride; i--) {
+                if (image.bitsPerSample == 8) {
+                    raw[row + i] -= raw[row + i - stride];
+                } else {
+                    int value = buffer.getShort(row + i * 2) - buffer.getShort(row + (i - stride) * 2);
+                    buffer.putShort(row + i * 2, (short)value);
+                }
+            }
+        }
+    }
+
+    /**
+     * TIFF LZW: MSB first codes starting at 9 bits, widened one code early, with a clear code first and whenever the
+     * table is full.
+     */
+    static byte[] lzw(byte[] data) {
+        LzwWriter writer = new LzwWriter();
+        TreeMap<Long, Integer> table = new TreeMap<Long, Integer>();
+        int next = 258;
+        writer.write(256);
+        int prefix = -1;
+        for (byte b : data) {
+            int value = b & 0xFF;
+            if (prefix < 0) {
+                prefix = value;
+                continue;
+            }
+            long key = (long)prefix << 8 | value;
+            Integer code = table.get(key);
+            if (code != null) {
+                prefix = code;
+                continue;
+            }
+            writer.write(prefix);
+            table.put(key, next++);
+            writer.grow(next);
+            prefix = value;
+            if (next == 4094) {
+                writer.write(256);
+                table.clear();
+                next = 258;
+                writer.width = 9;
+            }
+        }
+        if (prefix >= 0) {
+            writer.write(prefix);
+            writer.grow(next + 1);
+        }
+        writer.write(257);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Packs codes MSB first.
+     */
+    static final class LzwWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private long bitBuffer;
+        private int bitCount;
+        int width = 9;
+
+        void write(int code) {
+            write(code, width);
+        }
+
+        void write(int code, int width) {
+            bitBuffer = bitBuffer << width | code;
+            bitCount += width;
+            while (bitCount >= 8) {
+                out.write((int)(bitBuffer >>> (bitCount - 8)));
+                bitCount -= 8;
+            }
+        }
+
+        /**
+         * Widen codes once the next code to be assigned no longer fits. The decoder's table is one entry behind, so
+         * it widens when its next code is one less than the width can hold.
+         */
+        void grow(int next) {
+            if (next > (1 << width) - 1 && width < 12) {
+                width++;
+            }
+        }
+
+        byte[] toByteArray() {
+            if (bitCount > 0) {
+                out.write((int)(bitBuffer << (8 - bitCount)));
+                bitCount = 0;
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Growable output with absolute positions.
+     */
+    private static final class Output {
+        private final ByteOrder order;
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Output(ByteOrder order) {
+            this.order = order;
+        }
+
+        long position() {
+            return out.size();
+        }
+
+        void align() {
+            if (out.size() % 2 != 0) {
+                out.write(0);
+            }
+        }
+
+        void bytes(byte[] bytes) {
+            out.write(bytes, 0, bytes.length);
+        }
+
+        void short16(int value) {
+            bytes(ByteBuffer.allocate(2).order(order).putShort((short)value).array());
+        }
+
+        void int32(long value) {
+            bytes(ByteBuffer.allocate(4).order(order).putInt((int)value).array());
+        }
+
+        void long64(long value) {
+            bytes(ByteBuffer.allocate(8).order(order).putLong(value).array());
+        }
+
+        void value(int type, long value) {
+            if (type == TYPE_SHORT) {
+                short16((int)value);
+            } else if (type == TYPE_LONG) {
+                int32(value);
+            } else {
+                long64(value);
+            }
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+}
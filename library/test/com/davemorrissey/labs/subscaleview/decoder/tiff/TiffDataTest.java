@@ -0,0 +1,129 @@
+package com.davemorrissey.labs.subscaleview.decoder.tiff;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Reads a file mapped in small windows, so reads inside one window, across window boundaries and in the short last
+ * window are all covered.
+ */
+public class TiffDataTest {
+
+    private static final int WINDOW = 64;
+
+    @Test
+    public void readsWithinAndAcrossWindows() throws IOException {
+        byte[] bytes = bytes(1000);
+        File file = write(bytes);
+        try {
+            TiffData data = open(file);
+            try {
+                assertRange(bytes, data, 0, 10);
+                assertRange(bytes, data, 70, 58);
+                assertRange(bytes, data, 60, 10);
+                assertRange(bytes, data, 100, 300);
+                assertRange(bytes, data, 960, 40);
+                assertRange(bytes, data, 990, 10);
+                assertRange(bytes, data, 0, 1000);
+                // Windows evicted from the cache are mapped again
+                for (int offset = 0; offset < 1000; offset += 50) {
+                    assertRange(bytes, data, offset, 8);
+                }
+            } finally {
+                data.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void byteOrder() throws IOException {
+        byte[] bytes = new byte[WINDOW + 4];
+        bytes[WINDOW] = 1;
+        bytes[WINDOW + 1] = 2;
+        bytes[WINDOW + 2] = 3;
+        bytes[WINDOW + 3] = 4;
+        File file = write(bytes);
+        try {
+            TiffData data = open(file);
+            try {
+                data.setOrder(ByteOrder.LITTLE_ENDIAN);
+                assertEquals(0x04030201, data.read(WINDOW, 4).getInt());
+                // Across the window boundary
+                assertEquals(0x02010000, data.read(WINDOW - 2, 4).getInt());
+                data.setOrder(ByteOrder.BIG_ENDIAN);
+                assertEquals(0x01020304, data.read(WINDOW, 4).getInt());
+                assertEquals(0x00000102, data.read(WINDOW - 2, 4).getInt());
+            } finally {
+                data.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void outOfRange() throws IOException {
+        File file = write(bytes(100));
+        try {
+            TiffData data = open(file);
+            try {
+                assertEquals(100, data.length());
+                try {
+                    data.read(90, 11);
+                    fail("Read past the end of the file");
+                } catch (IOException e) {
+                    // Expected
+                }
+            } finally {
+                data.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void assertRange(byte[] bytes, TiffData data, int offset, int count) throws IOException {
+        byte[] expected = new byte[count];
+        System.arraycopy(bytes, offset, expected, 0, count);
+        assertArrayEquals(expected, data.readBytes(offset, count));
+        ByteBuffer range = data.read(offset, count);
+        assertEquals(0, range.position());
+        assertEquals(count, range.limit());
+    }
+
+    private static TiffData open(File file) throws IOException {
+        return new TiffData(new RandomAccessFile(file, "r").getChannel(), WINDOW);
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte)(i * 31 + i / 7);
+        }
+        return bytes;
+    }
+
+    private static File write(byte[] bytes) throws IOException {
+        File file = File.createTempFile("tiffdata", ".tif");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+}
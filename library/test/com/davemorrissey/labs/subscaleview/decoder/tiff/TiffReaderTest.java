@@ -0,0 +1,358 @@
+package com.davemorrissey.labs.subscaleview.decoder.tiff;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Decodes small TIFFs written by {@link TiffBuilder} in each layout, byte order and compression, and compares them
+ * with the pixels they were written from. The image sizes are not multiples of the tile or strip sizes, so partial
+ * edge tiles and a short last strip are covered.
+ */
+public class TiffReaderTest {
+
+    private static final int WIDTH = 53;
+    private static final int HEIGHT = 41;
+
+    @Test
+    public void stripsLittleEndian() throws IOException {
+        assertRgb(new TiffBuilder(ByteOrder.LITTLE_ENDIAN, false), rgbImage().strips(8));
+    }
+
+    @Test
+    public void stripsBigEndian() throws IOException {
+        assertRgb(new TiffBuilder(ByteOrder.BIG_ENDIAN, false), rgbImage().strips(8));
+    }
+
+    @Test
+    public void singleStrip() throws IOException {
+        assertRgb(new TiffBuilder(ByteOrder.LITTLE_ENDIAN, false), rgbImage());
+    }
+
+    @Test
+    public void tiles() throws IOException {
+        assertRgb(new TiffBuilder(ByteOrder.LITTLE_ENDIAN, false), rgbImage().tiles(16, 16));
+    }
+
+    @Test
+    public void tilesBigEndian() throws IOException {
+        assertRgb(new TiffBuilder(ByteOrder.BIG_ENDIAN, false), rgbImage().tiles(32, 16));
+    }
+
+    @Test
+    public void bigTiffStrips() throws IOException {
+        assertRgb(new TiffBuilder(ByteOrder.LITTLE_ENDIAN, true), rgbImage().strips(5));
+    }
+
+    @Test
+    public void bigTiffTilesBigEndian() throws IOException {
+        assertRgb(new TiffBuilder(ByteOrder.BIG_ENDIAN, true), rgbImage().tiles(16, 32).compression(TiffImage.COMPRESSION_LZW, 1));
+    }
+
+    @Test
+    public void lzwStrips() throws IOException {
+        assertRgb(new TiffBuilder(ByteOrder.LITTLE_ENDIAN, false), rgbImage().strips(7).compression(TiffImage.COMPRESSION_LZW, 1));
+    }
+
+    @Test
+    public void lzwTiles() throws IOException {
+        assertRgb(new TiffBuilder(ByteOrder.LITTLE_ENDIAN, false), rgbImage().tiles(16, 16).compression(TiffImage.COMPRESSION_LZW, 1));
+    }
+
+    @Test
+    public void deflate() throws IOException {
+        assertRgb(new TiffBuilder(ByteOrder.BIG_ENDIAN, false), rgbImage().tiles(16, 16).compression(TiffImage.COMPRESSION_DEFLATE, 1));
+        assertRgb(new TiffBuilder(ByteOrder.LITTLE_ENDIAN, false), rgbImage().strips(9).compression(TiffImage.COMPRESSION_ADOBE_DEFLATE, 1));
+    }
+
+    @Test
+    public void predictor() throws IOException {
+        assertRgb(new TiffBuilder(ByteOrder.LITTLE_ENDIAN, false), rgbImage().strips(8).compression(TiffImage.COMPRESSION_LZW, 2));
+        assertRgb(new TiffBuilder(ByteOrder.BIG_ENDIAN, false), rgbImage().tiles(16, 16).compression(TiffImage.COMPRESSION_DEFLATE, 2));
+    }
+
+    @Test
+    public void predictor16Bit() throws IOException {
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN }) {
+            byte[] samples = new byte[WIDTH * HEIGHT * 2];
+            ByteBuffer buffer = ByteBuffer.wrap(samples).order(order);
+            int[] expected = new int[WIDTH * HEIGHT];
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    // Differences that carry between the bytes of each sample
+                    int value = (x * 1237 + y * 4391 + (x * y) % 251) & 0xFFFF;
+                    buffer.putShort((y * WIDTH + x) * 2, (short)value);
+                    int gray = value >> 8;
+                    expected[y * WIDTH + x] = 0xFF000000 | gray << 16 | gray << 8 | gray;
+                }
+            }
+            TiffBuilder.Image image = new TiffBuilder.Image(WIDTH, HEIGHT, TiffImage.PHOTOMETRIC_BLACK_IS_ZERO, 1, 16, samples)
+                    .tiles(16, 16).compression(TiffImage.COMPRESSION_LZW, 2);
+            TiffReader reader = reader(new TiffBuilder(order, false).add(image));
+            assertTrue(reader.hasSmoothTones());
+            assertArrayEquals(expected, reader.decodeRegion(0, 0, WIDTH, HEIGHT, 1));
+        }
+    }
+
+    @Test
+    public void stripsAndTilesMatch() throws IOException {
+        int[] strips = reader(new TiffBuilder(ByteOrder.LITTLE_ENDIAN, false).add(rgbImage().strips(3))).decodeRegion(5, 7, 50, 38, 1);
+        int[] tiles = reader(new TiffBuilder(ByteOrder.LITTLE_ENDIAN, false).add(rgbImage().tiles(16, 16))).decodeRegion(5, 7, 50, 38, 1);
+        assertArrayEquals(strips, tiles);
+        assertArrayEquals(crop(rgbPixels(), 5, 7, 50, 38), tiles);
+    }
+
+    @Test
+    public void sampledRegionsMatch() throws IOException {
+        int[] strips = reader(new TiffBuilder(ByteOrder.LITTLE_ENDIAN, false).add(rgbImage().strips(6))).decodeRegion(3, 2, 51, 40, 4);
+        int[] tiles = reader(new TiffBuilder(ByteOrder.BIG_ENDIAN, true).add(rgbImage().tiles(16, 16))).decodeRegion(3, 2, 51, 40, 4);
+        assertEquals(TiffReader.sampledLength(48, 4) * TiffReader.sampledLength(38, 4), tiles.length);
+        assertArrayEquals(strips, tiles);
+        // Top left output pixel is the average of the 4x4 block it covers
+        int[] pixels = rgbPixels();
+        int r = 0, g = 0, b = 0;
+        for (int y = 2; y < 6; y++) {
+            for (int x = 3; x < 7; x++) {
+                int pixel = pixels[y * WIDTH + x];
+                r += (pixel >> 16) & 0xFF;
+                g += (pixel >> 8) & 0xFF;
+                b += pixel & 0xFF;
+            }
+        }
+        assertEquals(0xFF000000 | (r / 16) << 16 | (g / 16) << 8 | (b / 16), tiles[0]);
+    }
+
+    @Test
+    public void rgbaUnassociated() throws IOException {
+        byte[] samples = new byte[WIDTH * HEIGHT * 4];
+        int[] expected = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < expected.length; i++) {
+            int pixel = rgbPixel(i % WIDTH, i / WIDTH);
+            int a = (i * 5) & 0xFF;
+            samples[i * 4] = (byte)(pixel >> 16);
+            samples[i * 4 + 1] = (byte)(pixel >> 8);
+            samples[i * 4 + 2] = (byte)pixel;
+            samples[i * 4 + 3] = (byte)a;
+            expected[i] = a << 24 | (pixel & 0xFFFFFF);
+        }
+        TiffBuilder.Image image = new TiffBuilder.Image(WIDTH, HEIGHT, TiffImage.PHOTOMETRIC_RGB, 4, 8, samples)
+                .extraSamples(2).tiles(16, 16).compression(TiffImage.COMPRESSION_LZW, 2);
+        TiffReader reader = reader(new TiffBuilder(ByteOrder.LITTLE_ENDIAN, false).add(image));
+        assertTrue(reader.hasAlpha());
+        assertArrayEquals(expected, reader.decodeRegion(0, 0, WIDTH, HEIGHT, 1));
+    }
+
+    @Test
+    public void grayscale() throws IOException {
+        byte[] samples = new byte[WIDTH * HEIGHT];
+        int[] black = new int[WIDTH * HEIGHT];
+        int[] white = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < samples.length; i++) {
+            int gray = (i * 3) & 0xFF;
+            samples[i] = (byte)gray;
+            black[i] = 0xFF000000 | gray * 0x010101;
+            white[i] = 0xFF000000 | (255 - gray) * 0x010101;
+        }
+        TiffReader reader = reader(new TiffBuilder(ByteOrder.BIG_ENDIAN, false)
+                .add(new TiffBuilder.Image(WIDTH, HEIGHT, TiffImage.PHOTOMETRIC_BLACK_IS_ZERO, 1, 8, samples).strips(4)));
+        assertFalse(reader.hasAlpha());
+        assertTrue(reader.hasSmoothTones());
+        assertArrayEquals(black, reader.decodeRegion(0, 0, WIDTH, HEIGHT, 1));
+        reader = reader(new TiffBuilder(ByteOrder.BIG_ENDIAN, false)
+                .add(new TiffBuilder.Image(WIDTH, HEIGHT, TiffImage.PHOTOMETRIC_WHITE_IS_ZERO, 1, 8, samples).strips(4)));
+        assertArrayEquals(white, reader.decodeRegion(0, 0, WIDTH, HEIGHT, 1));
+    }
+
+    @Test
+    public void bilevel() throws IOException {
+        int rowBytes = (WIDTH + 7) / 8;
+        byte[] samples = new byte[rowBytes * HEIGHT];
+        int[] expected = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean set = (x + y) % 3 == 0;
+                if (set) {
+                    samples[y * rowBytes + x / 8] |= 0x80 >> (x % 8);
+                }
+                expected[y * WIDTH + x] = set ? 0xFFFFFFFF : 0xFF000000;
+            }
+        }
+        TiffReader reader = reader(new TiffBuilder(ByteOrder.LITTLE_ENDIAN, false)
+                .add(new TiffBuilder.Image(WIDTH, HEIGHT, TiffImage.PHOTOMETRIC_BLACK_IS_ZERO, 1, 1, samples).strips(10).compression(TiffImage.COMPRESSION_LZW, 1)));
+        assertArrayEquals(expected, reader.decodeRegion(0, 0, WIDTH, HEIGHT, 1));
+    }
+
+    @Test
+    public void palette() throws IOException {
+        int[] colorMap = new int[768];
+        for (int i = 0; i < 256; i++) {
+            colorMap[i] = i * 257;
+            colorMap[256 + i] = (255 - i) * 257;
+            colorMap[512 + i] = ((i * 16) & 0xFF) * 257;
+        }
+        byte[] samples = new byte[WIDTH * HEIGHT];
+        int[] expected = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < samples.length; i++) {
+            int index = (i * 11) & 0xFF;
+            samples[i] = (byte)index;
+            expected[i] = 0xFF000000 | index << 16 | (255 - index) << 8 | ((index * 16) & 0xFF);
+        }
+        TiffReader reader = reader(new TiffBuilder(ByteOrder.BIG_ENDIAN, false)
+                .add(new TiffBuilder.Image(WIDTH, HEIGHT, TiffImage.PHOTOMETRIC_PALETTE, 1, 8, samples).colorMap(colorMap).tiles(16, 16)));
+        assertArrayEquals(expected, reader.decodeRegion(0, 0, WIDTH, HEIGHT, 1));
+    }
+
+    @Test
+    public void reducedResolutionInChain() throws IOException {
+        TiffReader reader = reader(new TiffBuilder(ByteOrder.LITTLE_ENDIAN, false)
+                .add(rgbImage().tiles(16, 16))
+                .add(solidImage(27, 21, 0x00FF00).subfileType(1))
+                .add(solidImage(14, 11, 0x0000FF).subfileType(1)));
+        assertReducedLevels(reader);
+    }
+
+    @Test
+    public void reducedResolutionInSubIfds() throws IOException {
+        TiffReader reader = reader(new TiffBuilder(ByteOrder.BIG_ENDIAN, true)
+                .add(rgbImage().strips(8))
+                .addSubIfd(solidImage(14, 11, 0x0000FF).subfileType(1))
+                .addSubIfd(solidImage(27, 21, 0x00FF00).subfileType(1)));
+        assertReducedLevels(reader);
+    }
+
+    @Test
+    public void ignoresOtherImages() throws IOException {
+        // A second page, and a thumbnail with a different aspect ratio, are not reduced copies of the first image
+        TiffReader reader = reader(new TiffBuilder(ByteOrder.LITTLE_ENDIAN, false)
+                .add(rgbImage().strips(8))
+                .add(solidImage(27, 21, 0x00FF00))
+                .add(solidImage(20, 20, 0x0000FF).subfileType(1)));
+        assertEquals(1, reader.getLevelCount());
+        assertArrayEquals(rgbPixels(), reader.decodeRegion(0, 0, WIDTH, HEIGHT, 1));
+    }
+
+    @Test
+    public void orientation() throws IOException {
+        assertEquals(0, reader(new TiffBuilder(ByteOrder.LITTLE_ENDIAN, false).add(rgbImage())).getOrientation());
+        int[] tags = { 1, 3, 6, 8, 2 };
+        int[] degrees = { 0, 180, 90, 270, 0 };
+        for (int i = 0; i < tags.length; i++) {
+            TiffReader reader = reader(new TiffBuilder(ByteOrder.BIG_ENDIAN, i % 2 == 0)
+                    .add(rgbImage().orientation(tags[i]))
+                    .add(solidImage(27, 21, 0x00FF00).subfileType(1).orientation(1)));
+            assertEquals(degrees[i], reader.getOrientation());
+        }
+    }
+
+    @Test
+    public void rejectsInvalidFiles() {
+        assertInvalid("not a tiff at all".getBytes());
+        assertInvalid(new byte[] { 'I', 'I', 42, 0 });
+        assertInvalid(new byte[] { 'I', 'I', 42, 0, 100, 0, 0, 0 });
+        byte[] file = new TiffBuilder(ByteOrder.LITTLE_ENDIAN, false).add(rgbImage().compression(99, 1)).build();
+        assertInvalid(file);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidRegion() throws IOException {
+        reader(new TiffBuilder(ByteOrder.LITTLE_ENDIAN, false).add(rgbImage())).decodeRegion(10, 10, WIDTH + 1, 20, 1);
+    }
+
+    private static void assertReducedLevels(TiffReader reader) throws IOException {
+        assertEquals(3, reader.getLevelCount());
+        assertEquals(WIDTH, reader.getWidth());
+        assertEquals(HEIGHT, reader.getHeight());
+        assertArrayEquals(rgbPixels(), reader.decodeRegion(0, 0, WIDTH, HEIGHT, 1));
+        assertEquals(0xFF00FF00, reader.decodeRegion(0, 0, WIDTH, HEIGHT, 2)[0]);
+        assertEquals(0xFF00FF00, reader.decodeRegion(0, 0, WIDTH, HEIGHT, 3)[0]);
+        int[] smallest = reader.decodeRegion(0, 0, WIDTH, HEIGHT, 4);
+        assertEquals(14 * 11, smallest.length);
+        assertEquals(0xFF0000FF, smallest[smallest.length - 1]);
+    }
+
+    private static void assertInvalid(byte[] file) {
+        try {
+            new TiffReader(ByteBuffer.wrap(file));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static void assertRgb(TiffBuilder builder, TiffBuilder.Image image) throws IOException {
+        TiffReader reader = reader(builder.add(image));
+        assertEquals(WIDTH, reader.getWidth());
+        assertEquals(HEIGHT, reader.getHeight());
+        assertEquals(1, reader.getLevelCount());
+        assertFalse(reader.hasAlpha());
+        assertFalse(reader.hasSmoothTones());
+        int[] pixels = rgbPixels();
+        assertArrayEquals(pixels, reader.decodeRegion(0, 0, WIDTH, HEIGHT, 1));
+        assertArrayEquals(crop(pixels, 17, 9, 34, 40), reader.decodeRegion(17, 9, 34, 40, 1));
+        assertArrayEquals(crop(pixels, WIDTH - 1, HEIGHT - 1, WIDTH, HEIGHT), reader.decodeRegion(WIDTH - 1, HEIGHT - 1, WIDTH, HEIGHT, 1));
+        reader.close();
+    }
+
+    private static TiffReader reader(TiffBuilder builder) throws IOException {
+        return new TiffReader(ByteBuffer.wrap(builder.build()));
+    }
+
+    private static TiffBuilder.Image rgbImage() {
+        int[] pixels = rgbPixels();
+        byte[] samples = new byte[pixels.length * 3];
+        for (int i = 0; i < pixels.length; i++) {
+            samples[i * 3] = (byte)(pixels[i] >> 16);
+            samples[i * 3 + 1] = (byte)(pixels[i] >> 8);
+            samples[i * 3 + 2] = (byte)pixels[i];
+        }
+        return new TiffBuilder.Image(WIDTH, HEIGHT, TiffImage.PHOTOMETRIC_RGB, 3, 8, samples);
+    }
+
+    private static TiffBuilder.Image solidImage(int width, int height, int rgb) {
+        byte[] samples = new byte[width * height * 3];
+        for (int i = 0; i < width * height; i++) {
+            samples[i * 3] = (byte)(rgb >> 16);
+            samples[i * 3 + 1] = (byte)(rgb >> 8);
+            samples[i * 3 + 2] = (byte)rgb;
+        }
+        return new TiffBuilder.Image(width, height, TiffImage.PHOTOMETRIC_RGB, 3, 8, samples).strips(height);
+    }
+
+    private static int[] rgbPixels() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                pixels[y * WIDTH + x] = rgbPixel(x, y);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Smooth gradients with some repetition, so LZW builds long strings, plus a checkerboard in blue so every pixel
+     * differs from its neighbours.
+     */
+    private static int rgbPixel(int x, int y) {
+        int r = x * 255 / (WIDTH - 1);
+        int g = y * 255 / (HEIGHT - 1);
+        int b = ((x / 4 + y / 4) % 2) * 200 + (x % 4) * 10;
+        return 0xFF000000 | r << 16 | g << 8 | b;
+    }
+
+    private static int[] crop(int[] pixels, int left, int top, int right, int bottom) {
+        int[] cropped = new int[(right - left) * (bottom - top)];
+        for (int y = top; y < bottom; y++) {
+            System.arraycopy(pixels, y * WIDTH + left, cropped, (y - top) * (right - left), right - left);
+        }
+        return cropped;
+    }
+
+}
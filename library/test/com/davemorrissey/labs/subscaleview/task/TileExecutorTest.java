@@ -0,0 +1,86 @@
+package com.davemorrissey.labs.subscaleview.task;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Queues more tiles than the AsyncTask thread pool executor would accept, and checks the order
+ * queued tiles are run in.
+ */
+public class TileExecutorTest {
+
+    @Test
+    public void acceptsMoreTilesThanThreads() throws InterruptedException {
+        ThreadPoolExecutor executor = TileExecutor.create(2);
+        final int tiles = 1000;
+        final CountDownLatch done = new CountDownLatch(tiles);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        for (int i = 0; i < tiles; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int now = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), now));
+                    }
+                    Thread.yield();
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(maxRunning.get() <= 2);
+        executor.shutdown();
+    }
+
+    @Test
+    public void runsNewestTileFirst() throws InterruptedException {
+        ThreadPoolExecutor executor = TileExecutor.create(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            final int tile = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(tile);
+                    done.countDown();
+                }
+            });
+        }
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(2, (int)order.get(0));
+        assertEquals(1, (int)order.get(1));
+        assertEquals(0, (int)order.get(2));
+        executor.shutdown();
+    }
+
+}
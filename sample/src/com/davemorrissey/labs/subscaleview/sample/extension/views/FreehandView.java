@@ -18,26 +18,25 @@ package com.davemorrissey.labs.subscaleview.sample.extension.views;
 
 import android.content.Context;
 import android.graphics.*;
-import android.graphics.Paint.Cap;
-import android.graphics.Paint.Style;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.OnTouchListener;
 import com.davemorrissey.labs.subscaleview.SubsamplingScaleImageView;
-
-import java.util.ArrayList;
-import java.util.List;
+import com.davemorrissey.labs.subscaleview.stroke.Stroke;
+import com.davemorrissey.labs.subscaleview.stroke.StrokeLayer;
 
 public class FreehandView extends SubsamplingScaleImageView implements OnTouchListener {
 
-    private PointF vPrevious;
-    private PointF vStart;
+    private final float[] vStart = new float[2];
+    private final float[] sPoint = new float[2];
+    private boolean touching = false;
     private boolean drawing = false;
 
     private int strokeWidth;
 
-    private List<PointF> sPoints;
+    private StrokeLayer strokeLayer;
+    private Stroke stroke;
 
     public FreehandView(Context context, AttributeSet attr) {
         super(context, attr);
@@ -52,6 +51,8 @@ public class FreehandView extends SubsamplingScaleImageView implements OnTouchLi
         setOnTouchListener(this);
         float density = getResources().getDisplayMetrics().densityDpi;
         strokeWidth = (int)(density/60f);
+        strokeLayer = new StrokeLayer(strokeWidth, Color.argb(255, 51, 181, 229));
+        strokeLayer.setOutlineColor(Color.BLACK);
     }
 
     @Override
@@ -61,7 +62,7 @@ public class FreehandView extends SubsamplingScaleImageView implements OnTouchLi
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        if (sPoints != null && !drawing) {
+        if (stroke != null && !drawing) {
             return super.onTouchEvent(event);
         }
         boolean consumed = false;
@@ -69,34 +70,36 @@ public class FreehandView extends SubsamplingScaleImageView implements OnTouchLi
         switch (event.getAction()) {
             case MotionEvent.ACTION_DOWN:
             case MotionEvent.ACTION_POINTER_1_DOWN:
-                vStart = new PointF(event.getX(), event.getY());
-                vPrevious = new PointF(event.getX(), event.getY());
+                vStart[0] = event.getX();
+                vStart[1] = event.getY();
+                touching = true;
                 break;
             case MotionEvent.ACTION_POINTER_2_DOWN:
                 // Abort any current drawing, user is zooming
-                vStart = null;
-                vPrevious = null;
+                touching = false;
                 break;
             case MotionEvent.ACTION_MOVE:
-                PointF sCurrentF = viewToSourceCoord(event.getX(), event.getY());
-                PointF sCurrent = new PointF(sCurrentF.x, sCurrentF.y);
-                PointF sStart = vStart == null ? null : new PointF(viewToSourceCoord(vStart).x, viewToSourceCoord(vStart).y);
-
-                if (touchCount == 1 && vStart != null) {
-                    float vDX = Math.abs(event.getX() - vPrevious.x);
-                    float vDY = Math.abs(event.getY() - vPrevious.y);
-                    if (vDX >= strokeWidth * 5 || vDY >= strokeWidth * 5) {
-                        if (sPoints == null) {
-                            sPoints = new ArrayList<PointF>();
-                            sPoints.add(sStart);
+                if (touchCount == 1 && touching) {
+                    if (stroke == null) {
+                        float vDX = Math.abs(event.getX() - vStart[0]);
+                        float vDY = Math.abs(event.getY() - vStart[1]);
+                        if (vDX >= strokeWidth * 5 || vDY >= strokeWidth * 5) {
+                            // Simplify to within half the stroke width on screen at the current scale
+                            viewToSourcePoints(vStart, 0, sPoint, 0, 1);
+                            stroke = new Stroke(sPoint[0], sPoint[1], strokeWidth / (2 * getScale()));
+                            strokeLayer.add(stroke);
+                            drawing = true;
+                        }
+                    }
+                    if (stroke != null) {
+                        // Include the points batched since the last event
+                        for (int h = 0; h < event.getHistorySize(); h++) {
+                            addPoint(event.getHistoricalX(h), event.getHistoricalY(h));
                         }
-                        sPoints.add(sCurrent);
-                        vPrevious.x = event.getX();
-                        vPrevious.y = event.getY();
-                        drawing = true;
+                        addPoint(event.getX(), event.getY());
+                        invalidate();
                     }
                     consumed = true;
-                    invalidate();
                 } else if (touchCount == 1) {
                     // Consume all one touch drags to prevent odd panning effects handled by the superclass.
                     consumed = true;
@@ -104,15 +107,24 @@ public class FreehandView extends SubsamplingScaleImageView implements OnTouchLi
                 break;
             case MotionEvent.ACTION_UP:
             case MotionEvent.ACTION_POINTER_UP:
+                if (stroke != null) {
+                    stroke.finish();
+                }
                 invalidate();
                 drawing = false;
-                vPrevious = null;
-                vStart = null;
+                touching = false;
         }
         // Use parent to handle pinch and two-finger pan.
         return consumed || super.onTouchEvent(event);
     }
 
+    private void addPoint(float vx, float vy) {
+        sPoint[0] = vx;
+        sPoint[1] = vy;
+        viewToSourcePoints(sPoint, 0, sPoint, 0, 1);
+        stroke.addPoint(sPoint[0], sPoint[1]);
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
@@ -122,32 +134,12 @@ public class FreehandView extends SubsamplingScaleImageView implements OnTouchLi
             return;
         }
 
-        Paint paint = new Paint();
-        paint.setAntiAlias(true);
-
-        if (sPoints != null && sPoints.size() >= 2) {
-            Path vPath = new Path();
-            PointF vPrev = sourceToViewCoord(sPoints.get(0).x, sPoints.get(0).y);
-            vPath.moveTo(vPrev.x, vPrev.y);
-            for (int i = 1; i < sPoints.size(); i++) {
-                PointF vPoint = sourceToViewCoord(sPoints.get(i).x, sPoints.get(i).y);
-                vPath.quadTo(vPrev.x, vPrev.y, (vPoint.x + vPrev.x) / 2, (vPoint.y + vPrev.y) / 2);
-                vPrev = vPoint;
-            }
-            paint.setStyle(Style.STROKE);
-            paint.setStrokeCap(Cap.ROUND);
-            paint.setStrokeWidth(strokeWidth * 2);
-            paint.setColor(Color.BLACK);
-            canvas.drawPath(vPath, paint);
-            paint.setStrokeWidth(strokeWidth);
-            paint.setColor(Color.argb(255, 51, 181, 229));
-            canvas.drawPath(vPath, paint);
-        }
-
+        strokeLayer.draw(canvas, this);
     }
 
     public void reset() {
-        this.sPoints = null;
+        this.stroke = null;
+        strokeLayer.clear();
         invalidate();
     }
 